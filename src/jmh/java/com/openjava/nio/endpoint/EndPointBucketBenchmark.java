@@ -0,0 +1,81 @@
+package com.openjava.nio.endpoint;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openjava.nio.endpoint.bucket.INodeLoad;
+import com.openjava.nio.endpoint.bucket.PlacementStrategy;
+
+/**
+ * EndPointBucket.getBucket with the default hash, shared by the benchmark threads like the
+ * cluster clients share it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(2)
+@Fork(1)
+public class EndPointBucketBenchmark
+{
+    @Param({"RING", "BOUNDED_LOAD", "JUMP", "MAGLEV"})
+    private PlacementStrategy strategy;
+
+    @Param({"10", "100"})
+    private int nodes;
+
+    private EndPointBucket bucket;
+    private String[] keys;
+
+    @Setup
+    public void setup()
+    {
+        bucket = new EndPointBucket();
+        bucket.setStrategy(strategy);
+        bucket.setNodeLoad(new INodeLoad() {
+            @Override
+            public int getLoad(SocketAddress node)
+            {
+                return 0;
+            }
+        });
+        List<String> endPoints = new ArrayList<String>();
+        for (int i = 0; i < nodes; i ++) {
+            endPoints.add("10.0." + (i / 250) + "." + (i % 250) + ":9091:1");
+        }
+        bucket.refreshConsistentBuckets(endPoints);
+
+        keys = new String[1024];
+        for (int i = 0; i < keys.length; i ++) {
+            keys[i] = "user-" + Long.toHexString(i * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int index;
+    }
+
+    @Benchmark
+    public SocketAddress getBucket(Cursor cursor)
+    {
+        return bucket.getBucket(keys[cursor.index ++ & 1023]);
+    }
+}
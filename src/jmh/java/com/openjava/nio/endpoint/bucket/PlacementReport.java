@@ -0,0 +1,121 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.openjava.nio.endpoint.EndPointBucket;
+
+/**
+ * Key distribution report of the placement strategies: keys per node, standard deviation,
+ * coefficient of variation, max / average load and the share of keys moved when one node joins.
+ * Usage: PlacementReport [nodes=10] [keys=1000000] [hash=md5] [epsilon=0.25]
+ */
+public class PlacementReport
+{
+    public static void main(String[] args)
+    {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        String hash = args.length > 2 ? args[2] : "md5";
+        double epsilon = args.length > 3 ? Double.parseDouble(args[3]) : 0.25;
+
+        List<String> endPoints = new ArrayList<String>();
+        for (int i = 0; i < nodes; i ++) {
+            endPoints.add("10.0." + (i / 250) + "." + (i % 250 + 1) + ":9091:1");
+        }
+        List<String> joined = new ArrayList<String>(endPoints);
+        joined.add("10.1.0.1:9091:1");
+
+        System.out.println(String.format("nodes=%d keys=%d hash=%s epsilon=%.2f", nodes, keys, hash, epsilon));
+        System.out.println(String.format("%-14s %10s %10s %10s %8s %8s %8s", "strategy", "min", "max", "stddev",
+            "cv", "max/avg", "moved"));
+        for (PlacementStrategy strategy : PlacementStrategy.values()) {
+            report(strategy, endPoints, joined, keys, hash, epsilon);
+        }
+    }
+
+    private static void report(PlacementStrategy strategy, List<String> endPoints, List<String> joined, int keys,
+        String hash, double epsilon)
+    {
+        CountingLoad load = new CountingLoad();
+        EndPointBucket bucket = bucket(strategy, hash, epsilon, load);
+        bucket.refreshConsistentBuckets(endPoints);
+
+        SocketAddress[] owners = new SocketAddress[keys];
+        for (int i = 0; i < keys; i ++) {
+            owners[i] = bucket.getBucket(key(i));
+            // Sticky keys, e.g. user sessions, so every key adds one unit of load
+            load.increment(owners[i]);
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        double sum = 0;
+        double squares = 0;
+        for (SocketAddress node : bucket.refreshConsistentBuckets(endPoints)) {
+            long count = load.getLoad(node);
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+            sum += count;
+            squares += (double) count * count;
+        }
+        int size = endPoints.size();
+        double average = sum / size;
+        double stddev = Math.sqrt(Math.max(0, squares / size - average * average));
+
+        // Keys moved when one node joins, measured without load so the bounded load ring is compared as a ring
+        EndPointBucket before = bucket(strategy, hash, epsilon, new CountingLoad());
+        before.refreshConsistentBuckets(endPoints);
+        EndPointBucket after = bucket(strategy, hash, epsilon, new CountingLoad());
+        after.refreshConsistentBuckets(joined);
+        long moved = 0;
+        for (int i = 0; i < keys; i ++) {
+            String key = key(i);
+            if (!before.getBucket(key).equals(after.getBucket(key))) {
+                moved ++;
+            }
+        }
+
+        System.out.println(String.format("%-14s %10d %10d %10.1f %8.4f %8.3f %7.2f%%", strategy, min, max, stddev,
+            stddev / average, max / average, moved * 100.0 / keys));
+    }
+
+    private static EndPointBucket bucket(PlacementStrategy strategy, String hash, double epsilon, INodeLoad load)
+    {
+        EndPointBucket bucket = new EndPointBucket();
+        bucket.setRingHash(RingHashes.forName(hash));
+        bucket.setStrategy(strategy);
+        bucket.setLoadFactor(epsilon);
+        bucket.setNodeLoad(load);
+        return bucket;
+    }
+
+    private static String key(int i)
+    {
+        return "user-" + i;
+    }
+
+    private static class CountingLoad implements INodeLoad
+    {
+        private final Map<SocketAddress, int[]> loads = new HashMap<SocketAddress, int[]>();
+
+        @Override
+        public int getLoad(SocketAddress node)
+        {
+            int[] load = loads.get(node);
+            return load == null ? 0 : load[0];
+        }
+
+        void increment(SocketAddress node)
+        {
+            int[] load = loads.get(node);
+            if (load == null) {
+                loads.put(node, load = new int[1]);
+            }
+            load[0] ++;
+        }
+    }
+}
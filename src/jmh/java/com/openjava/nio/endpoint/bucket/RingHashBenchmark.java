@@ -0,0 +1,87 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openjava.nio.endpoint.EndPointBucket;
+
+/**
+ * Ring hash functions on user id like keys, run with -prof gc to check the allocation rate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingHashBenchmark
+{
+    @Param({"md5", "murmur3", "xxhash64"})
+    private String hash;
+
+    @Param({"12", "40"})
+    private int keyLength;
+
+    private IRingHash ringHash;
+    private EndPointBucket bucket;
+    private String[] keys;
+    private ByteBuffer[] buffers;
+    private int index;
+
+    @Setup
+    public void setup()
+    {
+        ringHash = RingHashes.forName(hash);
+        bucket = new EndPointBucket();
+        bucket.setRingHash(ringHash);
+        List<String> endPoints = new ArrayList<String>();
+        for (int i = 0; i < 10; i ++) {
+            endPoints.add("192.168.1." + i + ":9091:1");
+        }
+        bucket.refreshConsistentBuckets(endPoints);
+
+        keys = new String[1024];
+        buffers = new ByteBuffer[keys.length];
+        for (int i = 0; i < keys.length; i ++) {
+            StringBuilder key = new StringBuilder();
+            while (key.length() < keyLength) {
+                key.append(Long.toHexString(i * 0x9E3779B97F4A7C15L));
+            }
+            keys[i] = key.substring(0, keyLength);
+            buffers[i] = ByteBuffer.wrap(keys[i].getBytes());
+        }
+    }
+
+    @Benchmark
+    public long hashString()
+    {
+        return ringHash.hash(keys[index ++ & 1023]);
+    }
+
+    @Benchmark
+    public long hashBuffer()
+    {
+        return ringHash.hash(buffers[index ++ & 1023]);
+    }
+
+    @Benchmark
+    public SocketAddress getBucket()
+    {
+        return bucket.getBucket(keys[index ++ & 1023]);
+    }
+}
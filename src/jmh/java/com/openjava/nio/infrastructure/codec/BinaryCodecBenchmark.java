@@ -0,0 +1,132 @@
+package com.openjava.nio.infrastructure.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openjava.nio.infrastructure.type.Message;
+
+/**
+ * Message encoding against Java serialization of the same fields, the sizes are printed at setup.
+ * The dictionary round trip encodes and decodes on the two ends of one connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryCodecBenchmark
+{
+    private final BinaryCodec codec = BinaryCodec.create();
+    private final BinaryCodec sender = BinaryCodec.create(StringDictionary.create(), null);
+    private final BinaryCodec receiver = BinaryCodec.create(null, StringDictionary.create());
+
+    private Message message;
+    private SerializableMessage serializable;
+    private byte[] binary;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        message = Message.create("conversation-20181001-0001", "buyer-10086", "seller-2046",
+            "Is the item still available? 这个还有货吗", "text", 3, "order-9527", 12, Message.STATE_UNREAD,
+            "Zhang San", "zhangsan", "Li Si");
+        serializable = new SerializableMessage(message);
+        binary = codec.encode(message);
+        serialized = serialize(serializable);
+        // The first message fills the dictionaries of both ends
+        receiver.decode(sender.encode(message));
+        byte[] referenced = sender.encode(message);
+        receiver.decode(referenced);
+        System.out.println("\nEncoded sizes: binary=" + binary.length + " bytes, binary with dictionary="
+            + referenced.length + " bytes, java serialization=" + serialized.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeBinary()
+    {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Object decodeBinary()
+    {
+        return codec.decode(binary);
+    }
+
+    @Benchmark
+    public Object roundTripDictionary()
+    {
+        return receiver.decode(sender.encode(message));
+    }
+
+    @Benchmark
+    public byte[] encodeJava() throws IOException
+    {
+        return serialize(serializable);
+    }
+
+    @Benchmark
+    public Object decodeJava() throws Exception
+    {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        return in.readObject();
+    }
+
+    private static byte[] serialize(Object value) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Message is not Serializable, the same fields
+     */
+    static class SerializableMessage implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String sessionId, messageId, fromUser, fromRealName, fromNickName, toUser, toUserName;
+        private final String message, style, businessId;
+        private final int businessType, sequenceNo, state;
+        private final long timestamp;
+
+        SerializableMessage(Message message)
+        {
+            this.sessionId = message.getSessionId();
+            this.messageId = message.getMessageId();
+            this.fromUser = message.getFromUser();
+            this.fromRealName = message.getFromRealName();
+            this.fromNickName = message.getFromNickName();
+            this.toUser = message.getToUser();
+            this.toUserName = message.getToUserName();
+            this.message = message.getMessage();
+            this.style = message.getStyle();
+            this.businessId = message.getBusinessId();
+            this.businessType = message.getBusinessType();
+            this.sequenceNo = message.getSequenceNo();
+            this.state = message.getState();
+            this.timestamp = message.getTimestamp();
+        }
+    }
+}
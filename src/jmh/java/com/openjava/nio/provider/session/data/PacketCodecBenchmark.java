@@ -0,0 +1,115 @@
+package com.openjava.nio.provider.session.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Session packet framing, the decoder reads from an in memory channel delivering at most
+ * chunkSize bytes per read like a socket does
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark
+{
+    @Param({"64", "1024", "16384"})
+    private int packetSize;
+
+    @Param({"1460", "65536"})
+    private int chunkSize;
+
+    private byte[] packet;
+    private PacketCodec codec;
+    private LoopChannel channel;
+
+    @Setup
+    public void setup()
+    {
+        packet = new byte[packetSize];
+        for (int i = 0; i < packetSize; i ++) {
+            packet[i] = (byte) i;
+        }
+
+        ByteBuffer frames = ByteBuffer.allocate(64 * (packetSize + PacketCodec.PROTOCOL_HEAD_SIZE));
+        while (frames.hasRemaining()) {
+            frames.put(PacketCodec.encode(packet));
+        }
+        frames.flip();
+        codec = new PacketCodec();
+        channel = new LoopChannel(frames, chunkSize);
+    }
+
+    @Benchmark
+    public ByteBuffer encode()
+    {
+        return PacketCodec.encode(packet);
+    }
+
+    @Benchmark
+    public byte[] decode() throws IOException
+    {
+        byte[] result;
+        do {
+            result = codec.decode(channel);
+        } while (result == null);
+        return result;
+    }
+
+    /**
+     * Replays the frames endlessly
+     */
+    private static class LoopChannel implements ReadableByteChannel
+    {
+        private final ByteBuffer data;
+        private final int chunkSize;
+
+        LoopChannel(ByteBuffer data, int chunkSize)
+        {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(ByteBuffer dst)
+        {
+            if (!data.hasRemaining()) {
+                data.rewind();
+            }
+
+            int num = Math.min(chunkSize, Math.min(dst.remaining(), data.remaining()));
+            int limit = data.limit();
+            data.limit(data.position() + num);
+            dst.put(data);
+            data.limit(limit);
+            return num;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
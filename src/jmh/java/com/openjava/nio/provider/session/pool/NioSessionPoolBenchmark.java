@@ -0,0 +1,107 @@
+package com.openjava.nio.provider.session.pool;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openjava.nio.provider.processor.ProcessorUtils;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.NioSession;
+
+/**
+ * NioSessionPool under contention, the sessions are real loopback connections since the
+ * pool validates them by the channel state
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class NioSessionPoolBenchmark
+{
+    @Param({"16"})
+    private int sessions;
+
+    private ServerSocketChannel server;
+    private final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+    private NioSessionPool pool;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        pool = NioSessionPool.create();
+        pool.start();
+        for (int i = 0; i < sessions; i ++) {
+            pool.addSession(connect());
+        }
+    }
+
+    @TearDown
+    public synchronized void tearDown() throws Exception
+    {
+        // Closed channels fail the validation, the pool drops them without destroying
+        for (SocketChannel channel : channels) {
+            ProcessorUtils.closeQuietly(channel);
+        }
+        channels.clear();
+        pool.stop();
+        ProcessorUtils.closeQuietly(server);
+    }
+
+    synchronized INioSession connect() throws IOException
+    {
+        SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+        channels.add(channel);
+        channels.add(server.accept());
+        return NioSession.create(channel, null, null);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadSession
+    {
+        private INioSession session;
+
+        @Setup
+        public void setup(NioSessionPoolBenchmark benchmark) throws IOException
+        {
+            session = benchmark.connect();
+        }
+    }
+
+    @Benchmark
+    public INioSession borrow()
+    {
+        return pool.borrowSession();
+    }
+
+    @Benchmark
+    public int addRemove(ThreadSession thread)
+    {
+        pool.addSession(thread.session);
+        pool.removeSession(thread.session);
+        return pool.sessionCount();
+    }
+}
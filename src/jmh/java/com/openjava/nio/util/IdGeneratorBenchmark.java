@@ -0,0 +1,54 @@
+package com.openjava.nio.util;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message id generation, the legacy UUID string concatenation against IdGenerator
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class IdGeneratorBenchmark
+{
+    private final IdGenerator generator = IdGenerator.create(1);
+
+    @Benchmark
+    public long nextId()
+    {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    public String nextIdString()
+    {
+        return generator.nextIdString();
+    }
+
+    @Benchmark
+    public String legacyUuid()
+    {
+        String uuid = UUID.randomUUID().toString();
+        String result = "";
+        for (int i = 0; i < uuid.length(); i++) {
+            char c = uuid.charAt(i);
+            result += (c == '-' ? "" : c);
+        }
+        return result;
+    }
+}
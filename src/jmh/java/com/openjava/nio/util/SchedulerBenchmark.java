@@ -0,0 +1,70 @@
+package com.openjava.nio.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Schedule then cancel a timeout, the common path of the connect and request timeouts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark
+{
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    private ScheduledExecutor scheduler;
+    private ScheduledThreadPoolExecutor executor;
+
+    @Setup
+    public void setup()
+    {
+        scheduler = new ScheduledExecutor("benchmark-scheduler", true);
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        scheduler.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean scheduleCancel()
+    {
+        return scheduler.schedule(NOOP, 10, TimeUnit.SECONDS).cancel();
+    }
+
+    /**
+     * Baseline without the task wrapper of ScheduledExecutor
+     */
+    @Benchmark
+    public boolean scheduleCancelJdk()
+    {
+        ScheduledFuture<?> future = executor.schedule(NOOP, 10, TimeUnit.SECONDS);
+        return future.cancel(false);
+    }
+}
@@ -0,0 +1,95 @@
+package com.openjava.nio.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of one task handed off to a worker thread, like the selector threads hand off
+ * the received packets. QueuedThreadPool against the JDK executors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(2)
+@Fork(1)
+public class ThreadPoolHandoffBenchmark
+{
+    @Param({"queued", "fixed", "cached", "forkjoin"})
+    private String executorType;
+
+    private Executor executor;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        if ("queued".equals(executorType)) {
+            QueuedThreadPool pool = QueuedThreadPool.create(4, 16);
+            pool.setDaemon(true);
+            pool.start();
+            executor = pool;
+        } else if ("fixed".equals(executorType)) {
+            executor = Executors.newFixedThreadPool(4);
+        } else if ("cached".equals(executorType)) {
+            executor = Executors.newCachedThreadPool();
+        } else if ("forkjoin".equals(executorType)) {
+            executor = new ForkJoinPool(4);
+        } else {
+            throw new IllegalArgumentException("Unknown executor type: " + executorType);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        if (executor instanceof QueuedThreadPool) {
+            ((QueuedThreadPool) executor).stop();
+        } else {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    /**
+     * Reused by each benchmark thread, no allocation on the benchmark side
+     */
+    @State(Scope.Thread)
+    public static class Handoff implements Runnable
+    {
+        private volatile boolean done;
+
+        @Override
+        public void run()
+        {
+            done = true;
+        }
+    }
+
+    @Benchmark
+    public boolean handoff(Handoff handoff)
+    {
+        handoff.done = false;
+        executor.execute(handoff);
+        while (!handoff.done) {
+            Thread.yield();
+        }
+        return handoff.done;
+    }
+}
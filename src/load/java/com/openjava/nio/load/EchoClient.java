@@ -0,0 +1,74 @@
+package com.openjava.nio.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Recorder;
+
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.listener.ISessionDataListener;
+
+/**
+ * One load connection, every request carries its intended send time in the first 8 bytes and
+ * the echoed response is recorded against it. Responses are handled on the selector thread.
+ */
+public class EchoClient implements ISessionDataListener
+{
+    public static final int TIMESTAMP_SIZE = 8;
+
+    private final Recorder recorder;
+    private final int messageSize;
+    private final boolean closedLoop;
+    private final AtomicLong sent;
+    private final AtomicLong received;
+
+    private volatile INioSession session;
+    private volatile boolean running = true;
+
+    public EchoClient(Recorder recorder, int messageSize, boolean closedLoop, AtomicLong sent, AtomicLong received)
+    {
+        this.recorder = recorder;
+        this.messageSize = messageSize;
+        this.closedLoop = closedLoop;
+        this.sent = sent;
+        this.received = received;
+    }
+
+    public void setSession(INioSession session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Send a request which should have been sent at the time, System.nanoTime() based
+     */
+    public void send(long intendedNanos)
+    {
+        byte[] packet = new byte[messageSize];
+        for (int i = 0; i < TIMESTAMP_SIZE; i ++) {
+            packet[i] = (byte) (intendedNanos >>> (56 - 8 * i));
+        }
+        sent.incrementAndGet();
+        session.send(packet);
+    }
+
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public void onDataReceived(INioSession session, byte[] packet)
+    {
+        long now = System.nanoTime();
+        long intendedNanos = 0;
+        for (int i = 0; i < TIMESTAMP_SIZE; i ++) {
+            intendedNanos = (intendedNanos << 8) | (packet[i] & 0xFF);
+        }
+        recorder.recordValue(Math.max(0, now - intendedNanos));
+        received.incrementAndGet();
+
+        if (closedLoop && running) {
+            send(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.openjava.nio.load;
+
+import com.openjava.nio.endpoint.AbstractNioServer;
+import com.openjava.nio.provider.session.INioSession;
+
+/**
+ * Echoes every packet back, on the server thread pool or inline on the selector thread
+ */
+public class EchoServer extends AbstractNioServer
+{
+    private final boolean inline;
+
+    public EchoServer(boolean inline)
+    {
+        this.inline = inline;
+    }
+
+    @Override
+    public void onDataReceived(INioSession session, byte[] packet)
+    {
+        if (inline) {
+            session.send(packet);
+        } else {
+            super.onDataReceived(session, packet);
+        }
+    }
+
+    @Override
+    public void sessionReceived(INioSession session, byte[] packet)
+    {
+        session.send(packet);
+    }
+}
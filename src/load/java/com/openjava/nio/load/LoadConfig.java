@@ -0,0 +1,210 @@
+package com.openjava.nio.load;
+
+/**
+ * Load test options, parsed from "--name value" arguments
+ */
+public class LoadConfig
+{
+    public enum Mode
+    {
+        /** Send at a constant rate whatever the responses, latencies from the intended send time */
+        OPEN,
+
+        /** Each connection sends the next request when a response arrives */
+        CLOSED
+    }
+
+    private String host = "127.0.0.1";
+    private int port = 16800;
+    private int connections = 16;
+    private int messageSize = 128;
+    private Mode mode = Mode.CLOSED;
+    private int rate = 10000;
+    private int inflight = 1;
+    private int warmupSeconds = 5;
+    private int durationSeconds = 30;
+    private int serverProcessors = Runtime.getRuntime().availableProcessors();
+    private int clientProcessors = Runtime.getRuntime().availableProcessors();
+    private String selector = "roundrobin";
+    private String handler = "pool";
+    private int workers = 16;
+    private boolean tcpNoDelay = true;
+    private String histogramFile;
+
+    public static LoadConfig parse(String... args)
+    {
+        LoadConfig config = new LoadConfig();
+        for (int i = 0; i < args.length; i ++) {
+            String name = args[i];
+            if ("--help".equals(name) || "-h".equals(name)) {
+                throw new IllegalArgumentException(usage());
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + name + "\n" + usage());
+            }
+            String value = args[++ i];
+            if ("--host".equals(name)) {
+                config.host = value;
+            } else if ("--port".equals(name)) {
+                config.port = Integer.parseInt(value);
+            } else if ("--connections".equals(name)) {
+                config.connections = Integer.parseInt(value);
+            } else if ("--size".equals(name)) {
+                config.messageSize = Integer.parseInt(value);
+            } else if ("--mode".equals(name)) {
+                config.mode = Mode.valueOf(value.toUpperCase());
+            } else if ("--rate".equals(name)) {
+                config.rate = Integer.parseInt(value);
+            } else if ("--inflight".equals(name)) {
+                config.inflight = Integer.parseInt(value);
+            } else if ("--warmup".equals(name)) {
+                config.warmupSeconds = Integer.parseInt(value);
+            } else if ("--duration".equals(name)) {
+                config.durationSeconds = Integer.parseInt(value);
+            } else if ("--server-processors".equals(name)) {
+                config.serverProcessors = Integer.parseInt(value);
+            } else if ("--client-processors".equals(name)) {
+                config.clientProcessors = Integer.parseInt(value);
+            } else if ("--selector".equals(name)) {
+                config.selector = value;
+            } else if ("--handler".equals(name)) {
+                config.handler = value;
+            } else if ("--workers".equals(name)) {
+                config.workers = Integer.parseInt(value);
+            } else if ("--nodelay".equals(name)) {
+                config.tcpNoDelay = Boolean.parseBoolean(value);
+            } else if ("--hgrm".equals(name)) {
+                config.histogramFile = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + name + "\n" + usage());
+            }
+        }
+
+        if (config.messageSize < EchoClient.TIMESTAMP_SIZE) {
+            throw new IllegalArgumentException("Message size must be at least " + EchoClient.TIMESTAMP_SIZE);
+        }
+        if (config.connections <= 0 || config.rate <= 0 || config.inflight <= 0 || config.durationSeconds <= 0) {
+            throw new IllegalArgumentException("Connections, rate, inflight and duration must be positive");
+        }
+        return config;
+    }
+
+    public static String usage()
+    {
+        return "Options:\n"
+            + "  --mode open|closed          open: constant rate, closed: send on response (closed)\n"
+            + "  --connections N             client connections (16)\n"
+            + "  --size BYTES                message size, at least 8 (128)\n"
+            + "  --rate MSGS_PER_SECOND      total rate of the open mode (10000)\n"
+            + "  --inflight N                requests in flight per connection of the closed mode (1)\n"
+            + "  --warmup SECONDS            not recorded (5)\n"
+            + "  --duration SECONDS          recorded (30)\n"
+            + "  --server-processors N       selector threads of the server provider (cpus)\n"
+            + "  --client-processors N       selector threads of the client provider (cpus)\n"
+            + "  --selector NAME             roundrobin|leastsessions|leastload (roundrobin)\n"
+            + "  --handler pool|inline       echo on the server thread pool or on the selector thread (pool)\n"
+            + "  --workers N                 max threads of the server thread pool (16)\n"
+            + "  --nodelay true|false        TCP_NODELAY of both sides (true)\n"
+            + "  --hgrm FILE                 write the percentile distribution in microseconds\n"
+            + "  --host HOST --port PORT     server address (127.0.0.1:16800)";
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public int getConnections()
+    {
+        return connections;
+    }
+
+    public int getMessageSize()
+    {
+        return messageSize;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    public int getRate()
+    {
+        return rate;
+    }
+
+    public int getInflight()
+    {
+        return inflight;
+    }
+
+    public int getWarmupSeconds()
+    {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds()
+    {
+        return durationSeconds;
+    }
+
+    public int getServerProcessors()
+    {
+        return serverProcessors;
+    }
+
+    public int getClientProcessors()
+    {
+        return clientProcessors;
+    }
+
+    public String getSelector()
+    {
+        return selector;
+    }
+
+    public String getHandler()
+    {
+        return handler;
+    }
+
+    public int getWorkers()
+    {
+        return workers;
+    }
+
+    public boolean isTcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    public String getHistogramFile()
+    {
+        return histogramFile;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("mode=").append(mode);
+        if (mode == Mode.OPEN) {
+            builder.append(", rate=").append(rate).append("/s");
+        } else {
+            builder.append(", inflight=").append(inflight);
+        }
+        builder.append(", connections=").append(connections).append(", size=").append(messageSize)
+            .append(", serverProcessors=").append(serverProcessors).append(", clientProcessors=")
+            .append(clientProcessors).append(", nodelay=").append(tcpNoDelay).append(", selector=").append(selector).append(", handler=").append(handler);
+        if ("pool".equals(handler)) {
+            builder.append(", workers=").append(workers);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,261 @@
+package com.openjava.nio.load;
+
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.openjava.nio.provider.NioNetworkProvider;
+import com.openjava.nio.provider.SocketConfig;
+import com.openjava.nio.provider.processor.IProcessorSelector;
+import com.openjava.nio.provider.processor.ProcessorSelectors;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.util.ListenableFuture;
+import com.openjava.nio.util.QueuedThreadPool;
+
+/**
+ * End to end load test over loopback: an EchoServer on one NioNetworkProvider driven by the
+ * EchoClient connections of another provider in the same JVM.
+ *
+ * The open mode sends at a constant total rate and measures every latency from the intended
+ * send time, so a stalled server is charged for the requests it delayed too (no coordinated
+ * omission). The closed mode sends the next request on each response and measures the service
+ * time, it finds the maximal throughput.
+ *
+ * gradle loadTest -Pload.args='--mode open --rate 20000 --connections 8 --size 256'
+ */
+public class LoadGenerator
+{
+    private static final long CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long DRAIN_TIMEOUT_MILLIS = 2000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LoadConfig config;
+    private final Recorder recorder = new Recorder(3);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final List<EchoClient> clients = new ArrayList<EchoClient>();
+    private volatile boolean running = true;
+
+    public LoadGenerator(LoadConfig config)
+    {
+        this.config = config;
+    }
+
+    public static void main(String... args) throws Exception
+    {
+        LoadConfig config;
+        try {
+            config = LoadConfig.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        new LoadGenerator(config).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception
+    {
+        NioNetworkProvider serverProvider = provider(config.getServerProcessors());
+        NioNetworkProvider clientProvider = provider(config.getClientProcessors());
+        EchoServer server = new EchoServer("inline".equals(config.getHandler()));
+        try {
+            serverProvider.start();
+            server.setNetworkProvider(serverProvider);
+            server.setHost(config.getHost());
+            server.setPort(config.getPort());
+            // The sessions are never kicked, keep the scavenger away during the run
+            server.setSessionTimeOutInMillis(TimeUnit.HOURS.toMillis(1));
+            if ("pool".equals(config.getHandler())) {
+                QueuedThreadPool threadPool = QueuedThreadPool.create(Math.min(4, config.getWorkers()),
+                    config.getWorkers());
+                threadPool.setName("echo-worker");
+                threadPool.setDaemon(true);
+                server.setThreadPool(threadPool);
+            } else if (!"inline".equals(config.getHandler())) {
+                throw new IllegalArgumentException("Unknown handler: " + config.getHandler());
+            }
+            server.start();
+
+            clientProvider.start();
+            connect(clientProvider);
+            System.out.println("Load test: " + config);
+            measure();
+        } finally {
+            server.stop();
+            clientProvider.stop();
+            serverProvider.stop();
+        }
+    }
+
+    private NioNetworkProvider provider(int processors)
+    {
+        NioNetworkProvider provider = new NioNetworkProvider();
+        provider.setProcessors(processors);
+        provider.setProcessorSelector(selector(config.getSelector()));
+        SocketConfig socketConfig = new SocketConfig();
+        socketConfig.setTcpNoDelay(config.isTcpNoDelay());
+        provider.setSocketConfig(socketConfig);
+        return provider;
+    }
+
+    private static IProcessorSelector selector(String name)
+    {
+        if ("roundrobin".equalsIgnoreCase(name)) {
+            return ProcessorSelectors.RoundRobin.create();
+        } else if ("leastsessions".equalsIgnoreCase(name)) {
+            return ProcessorSelectors.LeastSessions.create();
+        } else if ("leastload".equalsIgnoreCase(name)) {
+            return ProcessorSelectors.LeastLoad.create();
+        }
+        throw new IllegalArgumentException("Unknown processor selector: " + name);
+    }
+
+    private void connect(NioNetworkProvider provider) throws Exception
+    {
+        InetSocketAddress address = new InetSocketAddress(config.getHost(), config.getPort());
+        boolean closedLoop = config.getMode() == LoadConfig.Mode.CLOSED;
+        List<ListenableFuture<INioSession>> futures = new ArrayList<ListenableFuture<INioSession>>();
+        for (int i = 0; i < config.getConnections(); i ++) {
+            EchoClient client = new EchoClient(recorder, config.getMessageSize(), closedLoop, sent, received);
+            clients.add(client);
+            futures.add(provider.connect(address, client, CONNECT_TIMEOUT_MILLIS));
+        }
+        for (int i = 0; i < futures.size(); i ++) {
+            clients.get(i).setSession(futures.get(i).get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void measure() throws Exception
+    {
+        Thread sender = null;
+        if (config.getMode() == LoadConfig.Mode.OPEN) {
+            sender = new Thread(new OpenLoopSender(), "load-sender");
+            sender.start();
+        } else {
+            long now = System.nanoTime();
+            for (EchoClient client : clients) {
+                for (int i = 0; i < config.getInflight(); i ++) {
+                    client.send(now);
+                }
+            }
+        }
+
+        // Drop the warmup samples
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.getWarmupSeconds()));
+        Histogram interval = recorder.getIntervalHistogram();
+        Histogram total = new Histogram(3);
+        long startNanos = System.nanoTime();
+        long measuredNanos;
+        long sentBefore = sent.get();
+
+        System.out.println(" time     msg/s       p50(us)     p99(us)     max(us)");
+        for (int second = 1; second <= config.getDurationSeconds(); second ++) {
+            long deadline = startNanos + TimeUnit.SECONDS.toNanos(second);
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            System.out.println(String.format("%4ds %10d %12.1f %11.1f %11.1f", second, interval.getTotalCount(),
+                micros(interval.getValueAtPercentile(50)), micros(interval.getValueAtPercentile(99)),
+                micros(interval.getMaxValue())));
+        }
+        measuredNanos = System.nanoTime() - startNanos;
+        long measuredSent = sent.get() - sentBefore;
+        long measuredReceived = total.getTotalCount();
+
+        // Stop sending, the responses still in flight were sent during the measurement
+        running = false;
+        for (EchoClient client : clients) {
+            client.stop();
+        }
+        if (sender != null) {
+            sender.join();
+        }
+        long drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (received.get() < sent.get() && System.currentTimeMillis() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        total.add(recorder.getIntervalHistogram(interval));
+
+        report(total, measuredNanos, measuredSent, measuredReceived);
+    }
+
+    private void report(Histogram total, long measuredNanos, long measuredSent, long measuredReceived)
+        throws Exception
+    {
+        double seconds = measuredNanos / 1e9;
+        double throughput = measuredReceived / seconds;
+        System.out.println();
+        System.out.println(String.format("Requests: %d sent and %d received in %.1fs, %d unanswered after drain",
+            measuredSent, measuredReceived, seconds, sent.get() - received.get()));
+        System.out.println(String.format("Throughput: %.0f msg/s, %.2f MB/s each way", throughput,
+            throughput * config.getMessageSize() / (1024 * 1024)));
+        StringBuilder latency = new StringBuilder("Latency(us):");
+        for (double percentile : PERCENTILES) {
+            latency.append(String.format(" p%s=%.1f", format(percentile), micros(total.getValueAtPercentile(percentile))));
+        }
+        latency.append(String.format(" max=%.1f mean=%.1f", micros(total.getMaxValue()), total.getMean() / 1000));
+        System.out.println(latency);
+
+        if (config.getHistogramFile() != null) {
+            PrintStream out = new PrintStream(config.getHistogramFile());
+            try {
+                total.outputPercentileDistribution(out, 1000.0);
+            } finally {
+                out.close();
+            }
+            System.out.println("Percentile distribution written to " + config.getHistogramFile());
+        }
+    }
+
+    private static double micros(long nanos)
+    {
+        return nanos / 1000.0;
+    }
+
+    private static String format(double percentile)
+    {
+        return percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    /**
+     * Sends on the connections in turn at the constant total rate. When it falls behind the
+     * schedule, the late requests are sent at once but keep their intended send time.
+     */
+    private class OpenLoopSender implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            double intervalNanos = 1e9 / config.getRate();
+            long startNanos = System.nanoTime();
+            for (long count = 0; running; count ++) {
+                long intendedNanos = startNanos + (long) (count * intervalNanos);
+                long wait;
+                while ((wait = intendedNanos - System.nanoTime()) > 0) {
+                    if (wait > 100000) {
+                        LockSupport.parkNanos(wait - 50000);
+                    } else {
+                        Thread.yield();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                }
+                clients.get((int) (count % clients.size())).send(intendedNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.openjava.nio.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.util.ListenableFuture;
+
+/**
+ * A cluster node: the endpoint in the ring HOST:PORT:WEIGHT, and the address its heartbeat
+ * listener is bound to
+ */
+public class ClusterMember
+{
+    public enum State
+    {
+        UP, DOWN
+    }
+
+    private final String endPoint;
+    private final InetSocketAddress heartbeatAddress;
+    private final PhiAccrualFailureDetector detector;
+
+    private volatile State state = State.UP;
+    // Heartbeats received since ejected, the member is readmitted after enough of them
+    private final AtomicInteger heartbeats = new AtomicInteger(0);
+    volatile INioSession session;
+    volatile ListenableFuture<INioSession> connecting;
+
+    ClusterMember(String endPoint, InetSocketAddress heartbeatAddress, PhiAccrualFailureDetector detector)
+    {
+        this.endPoint = endPoint;
+        this.heartbeatAddress = heartbeatAddress;
+        this.detector = detector;
+    }
+
+    void heartbeat(long now)
+    {
+        detector.heartbeat(now);
+        heartbeats.incrementAndGet();
+    }
+
+    void down()
+    {
+        state = State.DOWN;
+        detector.reset();
+        heartbeats.set(0);
+    }
+
+    void up()
+    {
+        state = State.UP;
+    }
+
+    int getHeartbeats()
+    {
+        return heartbeats.get();
+    }
+
+    public String getEndPoint()
+    {
+        return endPoint;
+    }
+
+    public InetSocketAddress getHeartbeatAddress()
+    {
+        return heartbeatAddress;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public double getPhi(long now)
+    {
+        return detector.phi(now);
+    }
+
+    @Override
+    public String toString()
+    {
+        return endPoint + "[" + state + "]";
+    }
+}
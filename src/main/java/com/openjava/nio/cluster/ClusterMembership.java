@@ -0,0 +1,379 @@
+package com.openjava.nio.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.endpoint.EndPointBucket;
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.provider.NioNetworkProvider;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.SessionState;
+import com.openjava.nio.provider.session.listener.ISessionDataListener;
+import com.openjava.nio.provider.session.listener.ISessionEventListener;
+import com.openjava.nio.util.ListenableFuture;
+import com.openjava.nio.util.ScheduledExecutor;
+import com.openjava.nio.util.StringUtils;
+
+/**
+ * Cluster membership over the NIO transport: every node listens for heartbeats on its heartbeat
+ * address and pings the other members periodically, the pongs feed a phi accrual failure detector
+ * per member. A suspected member is ejected from the EndPointBucket ring, and readmitted once it
+ * answers the heartbeats again. The PINGs are answered on the selector thread.
+ *
+ * members: endpoint HOST:PORT:WEIGHT => heartbeat address HOST:PORT, including the local node
+ */
+public class ClusterMembership extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(ClusterMembership.class);
+
+    private NioNetworkProvider networkProvider;
+    private String localEndPoint;
+    private Map<String, String> members = Collections.emptyMap();
+    private EndPointBucket endPointBucket;
+    private final List<IMembershipListener> listeners = new CopyOnWriteArrayList<IMembershipListener>();
+
+    private long heartbeatIntervalMillis = 1000;
+    private double phiThreshold = 8.0;
+    private int maxSamples = 200;
+    private long minStdDeviationMillis = 100;
+    private long acceptablePauseMillis = 0;
+    private int readmitHeartbeats = 3;
+
+    private final List<ClusterMember> remoteMembers = new ArrayList<ClusterMember>();
+    private final Responder responder = new Responder();
+    private ScheduledExecutor scheduler;
+
+    public void addListener(IMembershipListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * The other members and their state
+     */
+    public List<ClusterMember> getMembers()
+    {
+        return Collections.unmodifiableList(remoteMembers);
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (StringUtils.isBlank(localEndPoint) || !members.containsKey(localEndPoint)) {
+            throw new IllegalArgumentException("Local endpoint not found in members: " + localEndPoint);
+        }
+
+        remoteMembers.clear();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> entry : members.entrySet()) {
+            if (entry.getKey().equals(localEndPoint)) {
+                continue;
+            }
+            PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(maxSamples, heartbeatIntervalMillis,
+                minStdDeviationMillis, acceptablePauseMillis);
+            // A member never answering is suspected as one stopping answering
+            detector.heartbeat(now);
+            remoteMembers.add(new ClusterMember(entry.getKey(), address(entry.getValue()), detector));
+        }
+
+        if (endPointBucket != null) {
+            endPointBucket.refreshConsistentBuckets(new ArrayList<String>(members.keySet()));
+        }
+        networkProvider.registerServer(address(members.get(localEndPoint)), responder, responder);
+
+        scheduler = new ScheduledExecutor(this.getClass().getSimpleName() + "-Heartbeat", true);
+        scheduler.schedule(new HeartbeatTask(), heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        scheduler.shutdown();
+        for (ClusterMember member : remoteMembers) {
+            INioSession session = member.session;
+            if (session != null) {
+                session.destroy();
+            }
+        }
+    }
+
+    private void ping(ClusterMember member, long now)
+    {
+        INioSession session = member.session;
+        if (session != null && session.getState() == SessionState.CONNECTED) {
+            try {
+                session.send(HeartbeatFrame.encode(HeartbeatFrame.PING, now, localEndPoint));
+            } catch (IllegalStateException ise) {
+                // Closed concurrently, reconnect on the next heartbeat
+            }
+            return;
+        }
+
+        ListenableFuture<INioSession> connecting = member.connecting;
+        if (connecting == null || connecting.isDone()) {
+            member.connecting = connect(member);
+        }
+    }
+
+    private ListenableFuture<INioSession> connect(final ClusterMember member)
+    {
+        final Pinger pinger = new Pinger(member);
+        ListenableFuture<INioSession> future = networkProvider.connect(member.getHeartbeatAddress(), pinger, pinger,
+            heartbeatIntervalMillis, null, null);
+        future.addListener(new ListenableFuture.Listener<INioSession>() {
+            @Override
+            public void onSuccess(INioSession session)
+            {
+                member.session = session;
+            }
+
+            @Override
+            public void onFailure(Throwable cause)
+            {
+                LOG.debug("Connect cluster member {} failed: {}", member.getEndPoint(), cause.toString());
+            }
+        });
+        return future;
+    }
+
+    private void evaluate(ClusterMember member, long now)
+    {
+        if (member.getState() == ClusterMember.State.UP) {
+            double phi = member.getPhi(now);
+            if (phi >= phiThreshold) {
+                LOG.warn("Cluster member {} suspected, phi={}, eject it", member.getEndPoint(), phi);
+                member.down();
+                INioSession session = member.session;
+                if (session != null) {
+                    // Maybe half open, reconnect from scratch
+                    session.destroy();
+                }
+                if (endPointBucket != null) {
+                    endPointBucket.removeEndPoint(member.getEndPoint());
+                }
+                for (IMembershipListener listener : listeners) {
+                    notifyDown(listener, member);
+                }
+            }
+        } else if (member.getHeartbeats() >= readmitHeartbeats) {
+            LOG.warn("Cluster member {} is back, readmit it", member.getEndPoint());
+            member.up();
+            if (endPointBucket != null) {
+                endPointBucket.addEndPoint(member.getEndPoint());
+            }
+            for (IMembershipListener listener : listeners) {
+                notifyUp(listener, member);
+            }
+        }
+    }
+
+    private void notifyDown(IMembershipListener listener, ClusterMember member)
+    {
+        try {
+            listener.onMemberDown(member);
+        } catch (Exception ex) {
+            LOG.error("Membership listener exception", ex);
+        }
+    }
+
+    private void notifyUp(IMembershipListener listener, ClusterMember member)
+    {
+        try {
+            listener.onMemberUp(member);
+        } catch (Exception ex) {
+            LOG.error("Membership listener exception", ex);
+        }
+    }
+
+    private static InetSocketAddress address(String hostAndPort)
+    {
+        int index = hostAndPort == null ? -1 : hostAndPort.lastIndexOf(':');
+        if (index <= 0) {
+            throw new IllegalArgumentException("Illegal heartbeat address: " + hostAndPort);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, index), Integer.parseInt(hostAndPort.substring(index + 1)));
+    }
+
+    @SuppressWarnings("unused")
+    public void setNetworkProvider(NioNetworkProvider networkProvider)
+    {
+        this.networkProvider = networkProvider;
+    }
+
+    /**
+     * This node endpoint, a key of the members
+     */
+    @SuppressWarnings("unused")
+    public void setLocalEndPoint(String localEndPoint)
+    {
+        this.localEndPoint = localEndPoint;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMembers(Map<String, String> members)
+    {
+        this.members = members;
+    }
+
+    /**
+     * The ring fed with the members, refreshed on start and updated on ejection and readmission
+     */
+    @SuppressWarnings("unused")
+    public void setEndPointBucket(EndPointBucket endPointBucket)
+    {
+        this.endPointBucket = endPointBucket;
+    }
+
+    @SuppressWarnings("unused")
+    public void setListeners(List<IMembershipListener> listeners)
+    {
+        this.listeners.addAll(listeners);
+    }
+
+    @SuppressWarnings("unused")
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis)
+    {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setPhiThreshold(double phiThreshold)
+    {
+        this.phiThreshold = phiThreshold;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxSamples(int maxSamples)
+    {
+        this.maxSamples = maxSamples;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMinStdDeviationMillis(long minStdDeviationMillis)
+    {
+        this.minStdDeviationMillis = minStdDeviationMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setAcceptablePauseMillis(long acceptablePauseMillis)
+    {
+        this.acceptablePauseMillis = acceptablePauseMillis;
+    }
+
+    /**
+     * Consecutive heartbeats required to readmit an ejected member
+     */
+    @SuppressWarnings("unused")
+    public void setReadmitHeartbeats(int readmitHeartbeats)
+    {
+        this.readmitHeartbeats = readmitHeartbeats;
+    }
+
+    private class HeartbeatTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isRunning()) {
+                return;
+            }
+
+            try {
+                long now = System.currentTimeMillis();
+                for (ClusterMember member : remoteMembers) {
+                    evaluate(member, now);
+                    ping(member, now);
+                }
+            } catch (Exception ex) {
+                LOG.error("Cluster heartbeat exception", ex);
+            } finally {
+                scheduler.schedule(this, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Client side of the heartbeat session to a member, receives the PONGs
+     */
+    private class Pinger implements ISessionEventListener, ISessionDataListener
+    {
+        private final ClusterMember member;
+
+        Pinger(ClusterMember member)
+        {
+            this.member = member;
+        }
+
+        @Override
+        public void onDataReceived(INioSession session, byte[] packet)
+        {
+            HeartbeatFrame frame = HeartbeatFrame.decode(packet);
+            if (frame != null && frame.getKind() == HeartbeatFrame.PONG) {
+                member.heartbeat(System.currentTimeMillis());
+            }
+        }
+
+        @Override
+        public void onSessionCreated(INioSession session)
+        {
+        }
+
+        @Override
+        public void onSessionClosed(INioSession session)
+        {
+            if (member.session == session) {
+                member.session = null;
+            }
+        }
+
+        @Override
+        public void onSocketConnectTimeout()
+        {
+        }
+    }
+
+    /**
+     * Server side of the heartbeat sessions, answers the PINGs on the selector thread
+     */
+    private class Responder implements ISessionEventListener, ISessionDataListener
+    {
+        @Override
+        public void onDataReceived(INioSession session, byte[] packet)
+        {
+            HeartbeatFrame frame = HeartbeatFrame.decode(packet);
+            if (frame == null || frame.getKind() != HeartbeatFrame.PING) {
+                LOG.warn("Invalid heartbeat frame received[SID={}]", session.getId());
+                return;
+            }
+            if (!isRunning()) {
+                // The listener outlives the membership, a stopped node answers nothing
+                session.destroy();
+                return;
+            }
+            session.send(HeartbeatFrame.encode(HeartbeatFrame.PONG, frame.getTimestamp(), localEndPoint));
+        }
+
+        @Override
+        public void onSessionCreated(INioSession session)
+        {
+        }
+
+        @Override
+        public void onSessionClosed(INioSession session)
+        {
+        }
+
+        @Override
+        public void onSocketConnectTimeout()
+        {
+        }
+    }
+}
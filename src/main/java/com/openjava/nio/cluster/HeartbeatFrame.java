@@ -0,0 +1,84 @@
+package com.openjava.nio.cluster;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.openjava.nio.infrastructure.type.MessageType;
+
+/**
+ * Cluster heartbeat frame: [int MSG_SESSION_HEART_BEAT][byte kind][long timestamp][short length][node id UTF-8].
+ * The PONG echoes the PING timestamp, so the sender may measure the round trip.
+ */
+public class HeartbeatFrame
+{
+    public static final byte PING = 1;
+    public static final byte PONG = 2;
+
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte kind;
+    private final long timestamp;
+    private final String nodeId;
+
+    private HeartbeatFrame(byte kind, long timestamp, String nodeId)
+    {
+        this.kind = kind;
+        this.timestamp = timestamp;
+        this.nodeId = nodeId;
+    }
+
+    public static byte[] encode(byte kind, long timestamp, String nodeId)
+    {
+        byte[] id = nodeId.getBytes(UTF8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + id.length);
+        buffer.putInt(MessageType.MSG_SESSION_HEART_BEAT);
+        buffer.put(kind);
+        buffer.putLong(timestamp);
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+        return buffer.array();
+    }
+
+    /**
+     * Decode the packet, null if it is not a cluster heartbeat frame
+     */
+    public static HeartbeatFrame decode(byte[] packet)
+    {
+        if (packet == null || packet.length < HEADER_SIZE) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(packet);
+            if (buffer.getInt() != MessageType.MSG_SESSION_HEART_BEAT) {
+                return null;
+            }
+            byte kind = buffer.get();
+            long timestamp = buffer.getLong();
+            int length = buffer.getShort() & 0xFFFF;
+            if (length != buffer.remaining() || (kind != PING && kind != PONG)) {
+                return null;
+            }
+            return new HeartbeatFrame(kind, timestamp, new String(packet, HEADER_SIZE, length, UTF8));
+        } catch (BufferUnderflowException bex) {
+            return null;
+        }
+    }
+
+    public byte getKind()
+    {
+        return kind;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+}
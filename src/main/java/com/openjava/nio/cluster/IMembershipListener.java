@@ -0,0 +1,14 @@
+package com.openjava.nio.cluster;
+
+public interface IMembershipListener
+{
+    /**
+     * Fired when a member is suspected and ejected from the cluster
+     */
+    void onMemberDown(ClusterMember member);
+
+    /**
+     * Fired when an ejected member answers the heartbeats again and is readmitted
+     */
+    void onMemberUp(ClusterMember member);
+}
@@ -0,0 +1,98 @@
+package com.openjava.nio.cluster;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.), phi is the suspicion level derived from the
+ * distribution of the recent heartbeat intervals: phi = -log10(P(no heartbeat for so long)).
+ * A threshold of 8 means roughly one false suspicion in 10^8 heartbeats under normal jitter.
+ */
+public class PhiAccrualFailureDetector
+{
+    private final long[] intervals;
+    private final long firstIntervalEstimate;
+    private final long minStdDeviation;
+    private final long acceptablePause;
+
+    private int size;
+    private int next;
+    private double sum;
+    private double squareSum;
+    private long lastHeartbeat = -1;
+
+    /**
+     * @param maxSamples            heartbeat intervals kept for the distribution
+     * @param firstIntervalEstimate expected interval before any sample, the heartbeat period
+     * @param minStdDeviation       floor of the deviation so regular heartbeats don't make phi too sharp
+     * @param acceptablePause       extra pause tolerated, e.g. for the GC pauses
+     */
+    public PhiAccrualFailureDetector(int maxSamples, long firstIntervalEstimate, long minStdDeviation,
+        long acceptablePause)
+    {
+        this.intervals = new long[maxSamples];
+        this.firstIntervalEstimate = firstIntervalEstimate;
+        this.minStdDeviation = minStdDeviation;
+        this.acceptablePause = acceptablePause;
+    }
+
+    public synchronized void heartbeat(long now)
+    {
+        if (lastHeartbeat >= 0) {
+            long interval = now - lastHeartbeat;
+            if (size == intervals.length) {
+                long evicted = intervals[next];
+                sum -= evicted;
+                squareSum -= (double) evicted * evicted;
+            } else {
+                size ++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            squareSum += (double) interval * interval;
+        }
+        lastHeartbeat = now;
+    }
+
+    /**
+     * The suspicion level, 0 if no heartbeat received since reset
+     */
+    public synchronized double phi(long now)
+    {
+        if (lastHeartbeat < 0) {
+            return 0;
+        }
+
+        double mean;
+        double stdDeviation;
+        if (size == 0) {
+            mean = firstIntervalEstimate;
+            stdDeviation = firstIntervalEstimate / 4.0;
+        } else {
+            mean = sum / size;
+            stdDeviation = Math.sqrt(Math.max(0, squareSum / size - mean * mean));
+        }
+        mean += acceptablePause;
+        stdDeviation = Math.max(stdDeviation, minStdDeviation);
+
+        // Logistic approximation of the normal cumulative distribution
+        double y = (now - lastHeartbeat - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (now - lastHeartbeat > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    public synchronized long getLastHeartbeat()
+    {
+        return lastHeartbeat;
+    }
+
+    public synchronized void reset()
+    {
+        size = 0;
+        next = 0;
+        sum = 0;
+        squareSum = 0;
+        lastHeartbeat = -1;
+    }
+}
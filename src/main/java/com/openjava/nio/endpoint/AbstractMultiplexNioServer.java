@@ -0,0 +1,26 @@
+package com.openjava.nio.endpoint;
+
+import com.openjava.nio.provider.session.INioSession;
+
+/**
+ * Server side of the multiplexed sessions, see MultiplexNioClient. Requests of one session
+ * are handled concurrently by the thread pool, so responses may be sent out of order.
+ */
+public abstract class AbstractMultiplexNioServer extends AbstractNioServer
+{
+    /**
+     * Handle a request, the returned response is sent back with the request correlation id,
+     * nothing is sent if it returns null
+     */
+    public abstract byte[] requestReceived(INioSession session, byte[] request);
+
+    @Override
+    public final void sessionReceived(INioSession session, byte[] packet)
+    {
+        long correlationId = MultiplexFrame.correlationId(packet);
+        byte[] response = requestReceived(session, MultiplexFrame.payload(packet));
+        if (response != null) {
+            session.send(MultiplexFrame.encode(correlationId, response));
+        }
+    }
+}
@@ -1,40 +1,106 @@
 package com.openjava.nio.endpoint;
 
 import com.openjava.nio.exception.ConnectTimeoutException;
+import com.openjava.nio.infrastructure.LifeCycle;
 import com.openjava.nio.provider.NioNetworkProvider;
+import com.openjava.nio.provider.SocketConfig;
 import com.openjava.nio.provider.session.INioSession;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import com.openjava.nio.provider.session.listener.ISessionEventListener;
+import com.openjava.nio.util.ListenableFuture;
 import com.openjava.nio.util.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
 
-public abstract class AbstractNioClient
+public abstract class AbstractNioClient extends LifeCycle
 {
-    private Logger LOG = LoggerFactory.getLogger(this.getClass());
-
     private String host;
     private int port;
 
     private NioNetworkProvider networkProvider;
+    private String processorGroup;
+    private SocketConfig socketConfig;
     private long connTimeOutInMillis = 10 * 1000;
 
     public abstract byte[] sendAndReceived(byte[] packet, long receivedTimeOutInMillis) throws IOException, InterruptedException;
 
     public INioSession getSession(ISessionDataListener dataListener) throws IOException
     {
-        NioConnectFactory sessionFactory = new NioConnectFactory();
-        INioSession session = sessionFactory.createSession(dataListener);
-        if (session == null) {
+        if (StringUtils.isBlank(host) || port <= 1024) {
+            throw new IllegalArgumentException("Invalid host and port: " + host + "," + port);
+        }
+
+        return getSession(new InetSocketAddress(host, port), dataListener);
+    }
+
+    /**
+     * Connect to the remote address and wait until the session is created or the connect timeout
+     */
+    public INioSession getSession(InetSocketAddress address, ISessionDataListener dataListener) throws IOException
+    {
+        return getSession(address, dataListener, null);
+    }
+
+    /**
+     * Connect to the remote address and wait until the session is created or the connect timeout,
+     * the event listener, if not null, is notified when the session is closed
+     */
+    public INioSession getSession(InetSocketAddress address, ISessionDataListener dataListener,
+        ISessionEventListener eventListener) throws IOException
+    {
+        ListenableFuture<INioSession> future = connect(address, dataListener, eventListener);
+        try {
+            // The processor times the connect out, wait no longer than that anyway
+            return future.get(connTimeOutInMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException tex) {
+            future.cancel(false);
             throw new ConnectTimeoutException("Session created timeout");
+        } catch (InterruptedException iex) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Connect " + address + " interrupted");
+        } catch (ExecutionException eex) {
+            Throwable cause = eex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Connect " + address + " failed", cause);
         }
-        return session;
+    }
+
+    /**
+     * Connect to the remote address without blocking, the future is completed by the selector
+     * thread once the session is created, or failed on connect timeout or failure
+     */
+    public ListenableFuture<INioSession> connect(InetSocketAddress address, ISessionDataListener dataListener,
+        ISessionEventListener eventListener)
+    {
+        if (address == null) {
+            throw new IllegalArgumentException("Remote address cannot be empty");
+        }
+
+        return networkProvider.connect(address, eventListener, dataListener, connTimeOutInMillis,
+            processorGroup, socketConfig);
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public long getConnTimeOutInMillis()
+    {
+        return connTimeOutInMillis;
     }
 
 
@@ -62,80 +128,21 @@ public abstract class AbstractNioClient
         this.networkProvider = networkProvider;
     }
 
-    private class NioConnectFactory implements ISessionEventListener
+    /**
+     * Processor group handling the client sessions, the provider default group by default
+     */
+    @SuppressWarnings("unused")
+    public void setProcessorGroup(String processorGroup)
     {
-        private volatile INioSession session;
-
-        private final ReentrantLock lock = new ReentrantLock();
-
-        /** Condition for waiting takes */
-        private final Condition hasSession = lock.newCondition();
-
-        @Override
-        public void onSessionCreated(INioSession session)
-        {
-            final ReentrantLock lock = this.lock;
-            try {
-                lock.lockInterruptibly();
-
-                try {
-                    this.session = session;
-                    hasSession.signalAll();
-                } finally {
-                    lock.unlock();
-                }
-            } catch (InterruptedException iex) {
-                LOG.error("onSessionCreated thread interrupted");
-            }
-        }
-
-        public INioSession createSession(ISessionDataListener dataListener) throws IOException
-        {
-            if (StringUtils.isBlank(host) || port <= 1024) {
-                throw new IllegalArgumentException("Invalid host and port: " + host + "," + port);
-            }
-
-            InetSocketAddress address = new InetSocketAddress(host, port);
-            networkProvider.registerConnection(address, this,  dataListener, connTimeOutInMillis);
-
-            final ReentrantLock lock = this.lock;
-            try {
-                lock.lockInterruptibly();
-                try {
-                    if (session == null) {
-                        hasSession.await(connTimeOutInMillis, TimeUnit.MILLISECONDS);
-                    }
-                } finally {
-                    lock.unlock();
-                }
-            } catch (InterruptedException iex) {
-                LOG.error("createSession thread interrupted");
-            }
-
-            return session;
-        }
-
-        @Override
-        public void onSessionClosed(INioSession session)
-        {
-            // Ignore closed event
-        }
+        this.processorGroup = processorGroup;
+    }
 
-        @Override
-        public void onSocketConnectTimeout()
-        {
-            final ReentrantLock lock = this.lock;
-            try {
-                lock.lockInterruptibly();
-
-                try {
-                    hasSession.signalAll();
-                } finally {
-                    lock.unlock();
-                }
-            } catch (InterruptedException iex) {
-                LOG.error("onSocketConnectTimeout thread interrupted");
-            }
-        }
+    /**
+     * Socket options overriding the provider socket options
+     */
+    @SuppressWarnings("unused")
+    public void setSocketConfig(SocketConfig socketConfig)
+    {
+        this.socketConfig = socketConfig;
     }
 }
@@ -5,6 +5,7 @@ import java.util.concurrent.TimeUnit;
 
 import com.openjava.nio.infrastructure.LifeCycle;
 import com.openjava.nio.provider.NioNetworkProvider;
+import com.openjava.nio.provider.SocketConfig;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import com.openjava.nio.provider.session.listener.ISessionEventListener;
 import com.openjava.nio.provider.session.pool.NioSessionPool;
@@ -25,6 +26,9 @@ public abstract class AbstractNioServer extends LifeCycle implements ISessionEve
     private int port;
 
     private NioNetworkProvider networkProvider;
+    private String acceptGroup;
+    private String workerGroup;
+    private SocketConfig socketConfig;
     private long sessionScanPeriodMillis = 5000;
     private long sessionTimeOutInMillis = 15 * 1000;
     private NioSessionPool pool = NioSessionPool.create();
@@ -80,6 +84,42 @@ public abstract class AbstractNioServer extends LifeCycle implements ISessionEve
         this.networkProvider = networkProvider;
     }
 
+    /**
+     * Processor group accepting the connections, the provider accept group by default
+     */
+    @SuppressWarnings("unused")
+    public void setAcceptGroup(String acceptGroup)
+    {
+        this.acceptGroup = acceptGroup;
+    }
+
+    /**
+     * Processor group handling the accepted sessions, the provider default group by default
+     */
+    @SuppressWarnings("unused")
+    public void setWorkerGroup(String workerGroup)
+    {
+        this.workerGroup = workerGroup;
+    }
+
+    /**
+     * Socket options overriding the provider socket options
+     */
+    @SuppressWarnings("unused")
+    public void setSocketConfig(SocketConfig socketConfig)
+    {
+        this.socketConfig = socketConfig;
+    }
+
+    /**
+     * Thread pool running sessionReceived, a QueuedThreadPool by default
+     */
+    @SuppressWarnings("unused")
+    public void setThreadPool(ThreadPool threadPool)
+    {
+        this.threadPool = threadPool;
+    }
+
     @SuppressWarnings("unused")
     public void setSessionScanPeriodMillis(long sessionScanPeriodMillis)
     {
@@ -103,7 +143,7 @@ public abstract class AbstractNioServer extends LifeCycle implements ISessionEve
         threadPool.start();
 
         InetSocketAddress address = new InetSocketAddress(host, port);
-        networkProvider.registerServer(address, this, this);
+        networkProvider.registerServer(address, this, this, acceptGroup, workerGroup, socketConfig);
         scheduler.schedule(new Scavenger(), sessionScanPeriodMillis, TimeUnit.MILLISECONDS);
     }
     
@@ -111,6 +151,7 @@ public abstract class AbstractNioServer extends LifeCycle implements ISessionEve
     protected void doStop() throws Exception
     {
         pool.stop();
+        threadPool.stop();
         scheduler.shutdown();
     }
     
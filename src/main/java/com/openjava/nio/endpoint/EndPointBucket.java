@@ -1,25 +1,31 @@
 package com.openjava.nio.endpoint;
 
-import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openjava.nio.endpoint.bucket.BoundedLoadRing;
+import com.openjava.nio.endpoint.bucket.HashRing;
+import com.openjava.nio.endpoint.bucket.INodeLoad;
+import com.openjava.nio.endpoint.bucket.IPlacement;
+import com.openjava.nio.endpoint.bucket.IRingHash;
+import com.openjava.nio.endpoint.bucket.JumpPlacement;
+import com.openjava.nio.endpoint.bucket.MaglevPlacement;
+import com.openjava.nio.endpoint.bucket.PlacementStrategy;
+import com.openjava.nio.endpoint.bucket.RingDiff;
+import com.openjava.nio.endpoint.bucket.RingHashes;
 import com.openjava.nio.util.Constants;
 import com.openjava.nio.util.StringUtils;
 
@@ -30,35 +36,31 @@ public class EndPointBucket
 {
     private static Logger logger = LoggerFactory.getLogger(EndPointBucket.class);
     
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    // MD5 by default for the compatibility with the existing rings
+    private IRingHash ringHash = RingHashes.Md5.create();
 
-    // avoid recurring construction
-    private static ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
-        @Override
-        protected MessageDigest initialValue() {
-            try {
-                return MessageDigest.getInstance( "MD5" );
-            } catch (NoSuchAlgorithmException nae) {
-                throw new IllegalStateException( "no md5 algorythm found");            
-            }
-        }
-    };
-    
-    private TreeMap<Long, SocketAddress> consistentBuckets = new TreeMap<Long, SocketAddress>();
+    private PlacementStrategy strategy = PlacementStrategy.RING;
+    private INodeLoad nodeLoad;
+    private double loadFactor = 0.25;
+
+    // Immutable snapshot replaced on refresh, lookups never block
+    private volatile Snapshot snapshot = new Snapshot(HashRing.EMPTY, ringHash);
+
+    // Writer side state guarded by this, the ring points and the nodes in endpoint order
+    private final TreeMap<Long, SocketAddress> consistentBuckets = new TreeMap<Long, SocketAddress>();
+    private final Map<String, EndPoint> endPoints = new LinkedHashMap<String, EndPoint>();
+    private HashRing ring = HashRing.EMPTY;
     
     /**
      * endPointList:  HOST:PORT:WEIGHT(192.168.1.154:9091:1)
      * if no weight provided, 1 by default
      */
-    public Set<SocketAddress> refreshConsistentBuckets(List<String> endPointList)
+    public synchronized Set<SocketAddress> refreshConsistentBuckets(List<String> endPointList)
     {
-        Lock writeLock = lock.writeLock();
-        
         if (endPointList == null || endPointList.isEmpty()) {
-            writeLock.lock();
             consistentBuckets.clear();
-            writeLock.unlock();
-            
+            endPoints.clear();
+            publish();
             return Collections.emptySet();
         }
         
@@ -105,68 +107,279 @@ public class EndPointBucket
             totalWeight += weights[i];
         }
 
-        MessageDigest md5 = MD5.get();
         Set<SocketAddress> addresses = new HashSet<SocketAddress>();
-        
-        writeLock.lock();
+        // Rebuild the ring points, the later point wins on collision as before
         consistentBuckets.clear();
-        try {
-            for (int i = 0; i < hosts.length; i ++ ) {
-                if (StringUtils.isBlank(hosts[i]) || ports[i] <= 0) {
-                    continue;
-                }
-                
-                double factor = Math.floor(((double)(40 * hosts.length * weights[i])) / (double) totalWeight);
-                String hostInfo = hosts[i] + Constants.COLON_CHAR + ports[i];
-                SocketAddress address = new InetSocketAddress(hosts[i], ports[i]);
-                addresses.add(address);
-                for (long j = 0; j < factor; j++) {
-                    try {
-                        byte[] d = md5.digest((hostInfo + "-" + j).getBytes("UTF-8"));
-                        for (int h = 0; h < 4; h ++) {
-                            Long k = ((long)(d[3 + h * 4] & 0xFF) << 24) | ((long)(d[2 + h * 4] & 0xFF) << 16)
-                                | ((long)(d[1 + h * 4] & 0xFF) << 8) | ((long)(d[0 + h * 4] & 0xFF));
-                            consistentBuckets.put(k, address);
-                        }
-                    } catch (UnsupportedEncodingException e) {
-                        // Never happen for UTF-8
-                    }
-                                
-                }
+        endPoints.clear();
+        for (int i = 0; i < hosts.length; i ++ ) {
+            if (StringUtils.isBlank(hosts[i]) || ports[i] <= 0) {
+                continue;
+            }
+            
+            double factor = Math.floor(((double)(40 * hosts.length * weights[i])) / (double) totalWeight);
+            String hostInfo = hosts[i] + Constants.COLON_CHAR + ports[i];
+            SocketAddress address = new InetSocketAddress(hosts[i], ports[i]);
+            addresses.add(address);
+            EndPoint endPoint = endPoints.get(hostInfo);
+            if (endPoint == null) {
+                endPoints.put(hostInfo, new EndPoint(hostInfo, address, weights[i], (int) factor));
+            } else {
+                endPoint.replicas = Math.max(endPoint.replicas, (int) factor);
+            }
+            for (long point : ringHash.points(hostInfo, 0, (int) factor)) {
+                consistentBuckets.put(point, address);
             }
-        } finally {
-            writeLock.unlock();
         }
+        publish();
         
         return addresses;
     }
-    
-    public SocketAddress getBucket(String key)
+
+    /**
+     * Add the endpoint HOST:PORT:WEIGHT, or change its weight if present, only the virtual nodes
+     * of the changed replica counts are recomputed. Returns the hash ranges changing owner.
+     */
+    public synchronized RingDiff addEndPoint(String endPointAddress)
     {
-        Lock readLock = lock.readLock();
-        readLock.lock();
-        
+        EndPoint endPoint = parse(endPointAddress);
+        HashRing previous = ring;
+        EndPoint present = endPoints.get(endPoint.name);
+        if (present == null) {
+            endPoints.put(endPoint.name, endPoint);
+        } else {
+            present.weight = endPoint.weight;
+        }
+        rebalance();
+        publish();
+        return diff(previous);
+    }
+
+    /**
+     * Remove the endpoint HOST:PORT, the weight is ignored if provided. Returns the hash ranges
+     * changing owner, empty if the endpoint is unknown.
+     */
+    public synchronized RingDiff removeEndPoint(String endPointAddress)
+    {
+        EndPoint endPoint = endPoints.remove(parse(endPointAddress).name);
+        HashRing previous = ring;
+        if (endPoint != null) {
+            removePoints(endPoint, 0, endPoint.replicas);
+            rebalance();
+            publish();
+        }
+        return diff(previous);
+    }
+
+    /**
+     * The nodes in endpoint order
+     */
+    public synchronized List<SocketAddress> getEndPoints()
+    {
+        List<SocketAddress> addresses = new ArrayList<SocketAddress>(endPoints.size());
+        for (EndPoint endPoint : endPoints.values()) {
+            addresses.add(endPoint.address);
+        }
+        return addresses;
+    }
+
+    /**
+     * The endpoints HOST:PORT:WEIGHT in endpoint order, the list refreshConsistentBuckets rebuilds
+     * the same ring from
+     */
+    public synchronized List<String> getEndPointAddresses()
+    {
+        List<String> addresses = new ArrayList<String>(endPoints.size());
+        for (EndPoint endPoint : endPoints.values()) {
+            addresses.add(endPoint.name + Constants.COLON_CHAR + endPoint.weight);
+        }
+        return addresses;
+    }
+
+    /**
+     * Adjust the replicas of every node to its weight share, a replica owns the same points
+     * whatever the other replicas, so only the added or removed replicas are hashed
+     */
+    private void rebalance()
+    {
+        int totalWeight = 0;
+        for (EndPoint endPoint : endPoints.values()) {
+            totalWeight += endPoint.weight;
+        }
+
+        for (EndPoint endPoint : endPoints.values()) {
+            int replicas = totalWeight <= 0 ? 0 : (int) Math.floor(
+                ((double)(40 * endPoints.size() * endPoint.weight)) / (double) totalWeight);
+            if (replicas > endPoint.replicas) {
+                for (long point : ringHash.points(endPoint.name, endPoint.replicas, replicas)) {
+                    consistentBuckets.put(point, endPoint.address);
+                }
+            } else if (replicas < endPoint.replicas) {
+                removePoints(endPoint, replicas, endPoint.replicas);
+            }
+            endPoint.replicas = replicas;
+        }
+    }
+
+    private void removePoints(EndPoint endPoint, int from, int to)
+    {
+        for (long point : ringHash.points(endPoint.name, from, to)) {
+            // Keep the point if it was taken over by another node on collision
+            if (endPoint.address.equals(consistentBuckets.get(point))) {
+                consistentBuckets.remove(point);
+            }
+        }
+    }
+
+    private void publish()
+    {
+        ring = HashRing.create(consistentBuckets);
+        snapshot = new Snapshot(createPlacement(ring), ringHash);
+    }
+
+    private RingDiff diff(HashRing previous)
+    {
+        // The other placements may move any key on a node change
+        return strategy == PlacementStrategy.RING ? RingDiff.between(previous, ring, ringHash) : RingDiff.all(ringHash);
+    }
+
+    private IPlacement createPlacement(HashRing ring)
+    {
+        String[] names = new String[endPoints.size()];
+        SocketAddress[] nodes = new SocketAddress[endPoints.size()];
+        int[] weights = new int[endPoints.size()];
+        int i = 0;
+        for (EndPoint endPoint : endPoints.values()) {
+            names[i] = endPoint.name;
+            nodes[i] = endPoint.address;
+            weights[i] = endPoint.weight;
+            i ++;
+        }
+
+        switch (strategy) {
+            case BOUNDED_LOAD:
+                if (nodeLoad == null) {
+                    logger.warn("No node load provided, fall back to the ring placement");
+                    return ring;
+                }
+                return new BoundedLoadRing(ring, nodes, nodeLoad, loadFactor);
+            case JUMP:
+                return JumpPlacement.create(nodes, weights);
+            case MAGLEV:
+                return MaglevPlacement.create(names, nodes, weights, ringHash);
+            default:
+                return ring;
+        }
+    }
+
+    private static EndPoint parse(String endPointAddress)
+    {
+        String[] addressInfo = StringUtils.isBlank(endPointAddress) ? new String[0]
+            : endPointAddress.split("" + Constants.COLON_CHAR);
+        if (addressInfo.length < 2 || StringUtils.isBlank(addressInfo[0])) {
+            throw new IllegalArgumentException("Illegal endpoint address: " + endPointAddress);
+        }
+
         try {
-            // Get hash using hash consistent algorithm
-            MessageDigest md5 = MD5.get();
-            md5.reset();
-            md5.update(key.getBytes("UTF-8"));
-            byte[] bKey = md5.digest();
-            long hash = ((long)(bKey[3]&0xFF) << 24) | ((long)(bKey[2]&0xFF) << 16) | ((long)(bKey[1]&0xFF) << 8) | (long)(bKey[0]&0xFF);
-            
-            Long bucket = this.consistentBuckets.ceilingKey(hash);
-            bucket = (bucket == null) ? this.consistentBuckets.firstKey() : bucket;
-            return consistentBuckets.get(bucket);
-        } catch (UnsupportedEncodingException e) {
-            // Never happen for UTF-8
-            return null;
-        } catch (NoSuchElementException nse) {
-            return null;
-        } finally {
-            readLock.unlock();
+            int port = Integer.parseInt(addressInfo[1]);
+            int weight = addressInfo.length > 2 ? Integer.parseInt(addressInfo[2]) : 1;
+            if (port <= 0 || weight < 0) {
+                throw new IllegalArgumentException("Illegal endpoint address: " + endPointAddress);
+            }
+            return new EndPoint(addressInfo[0] + Constants.COLON_CHAR + port,
+                new InetSocketAddress(addressInfo[0], port), weight, 0);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Illegal endpoint address: " + endPointAddress);
         }
     }
+
+    public SocketAddress getBucket(String key)
+    {
+        return getBucket((CharSequence) key);
+    }
+
+    public SocketAddress getBucket(CharSequence key)
+    {
+        Snapshot current = snapshot;
+        return current.placement.get(current.ringHash.hash(key));
+    }
+
+    /**
+     * Bucket of the UTF-8 key bytes between the buffer position and limit, the position is unchanged
+     */
+    public SocketAddress getBucket(ByteBuffer key)
+    {
+        Snapshot current = snapshot;
+        return current.placement.get(current.ringHash.hash(key));
+    }
+
+    /**
+     * The ring hash function, the ring is rebuilt by the next refreshConsistentBuckets, the
+     * lookups keep hashing with the previous function until then
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setRingHash(IRingHash ringHash)
+    {
+        this.ringHash = ringHash;
+    }
+
+    /**
+     * The key placement strategy, RING by default, effective on the next refreshConsistentBuckets
+     */
+    @SuppressWarnings("unused")
+    public void setStrategy(PlacementStrategy strategy)
+    {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Live node load for the BOUNDED_LOAD strategy
+     */
+    @SuppressWarnings("unused")
+    public void setNodeLoad(INodeLoad nodeLoad)
+    {
+        this.nodeLoad = nodeLoad;
+    }
+
+    /**
+     * The epsilon of the BOUNDED_LOAD strategy, a node takes at most (1 + epsilon) times the average load
+     */
+    @SuppressWarnings("unused")
+    public void setLoadFactor(double loadFactor)
+    {
+        this.loadFactor = loadFactor;
+    }
     
+    /**
+     * The placement with the hash function its ring was built with, published together
+     */
+    private static class Snapshot
+    {
+        private final IPlacement placement;
+        private final IRingHash ringHash;
+
+        Snapshot(IPlacement placement, IRingHash ringHash)
+        {
+            this.placement = placement;
+            this.ringHash = ringHash;
+        }
+    }
+
+    private static class EndPoint
+    {
+        private final String name;
+        private final SocketAddress address;
+        private int weight;
+        private int replicas;
+
+        EndPoint(String name, SocketAddress address, int weight, int replicas)
+        {
+            this.name = name;
+            this.address = address;
+            this.weight = weight;
+            this.replicas = replicas;
+        }
+    }
+
     public static void main(String[] args)
     {
         List<String> endPointList = new ArrayList<String>();
@@ -0,0 +1,42 @@
+package com.openjava.nio.endpoint;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Frame of a multiplexed session: an 8 bytes little endian correlation id followed by the
+ * payload, the response of a request carries the correlation id of the request.
+ */
+public class MultiplexFrame
+{
+    public static final int HEADER_SIZE = 8;
+
+    public static byte[] encode(long correlationId, byte[] payload)
+    {
+        int length = payload == null ? 0 : payload.length;
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putLong(correlationId);
+        if (payload != null) {
+            frame.put(payload);
+        }
+        return frame.array();
+    }
+
+    public static long correlationId(byte[] frame)
+    {
+        if (frame == null || frame.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid multiplex frame");
+        }
+        return ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+    }
+
+    public static byte[] payload(byte[] frame)
+    {
+        if (frame == null || frame.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid multiplex frame");
+        }
+        byte[] payload = new byte[frame.length - HEADER_SIZE];
+        System.arraycopy(frame, HEADER_SIZE, payload, 0, payload.length);
+        return payload;
+    }
+}
@@ -0,0 +1,114 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consistent hashing with bounded loads: a key goes to the first node clockwise whose live load
+ * stays within ceil((1 + epsilon) * (totalLoad + 1) / nodes), so a hot node spills over to its
+ * successors instead of being overloaded. Without load the placement equals the ring placement.
+ */
+public class BoundedLoadRing implements IPlacement
+{
+    // Per thread scratch, the node loads are read once per lookup as INodeLoad may take a lock
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final HashRing ring;
+    private final SocketAddress[] nodes;
+    // Index in nodes of the owner of every ring point, -1 if not a known node
+    private final int[] owners;
+    private final INodeLoad nodeLoad;
+    private final double epsilon;
+
+    public BoundedLoadRing(HashRing ring, SocketAddress[] nodes, INodeLoad nodeLoad, double epsilon)
+    {
+        this.ring = ring;
+        this.nodes = nodes;
+        this.nodeLoad = nodeLoad;
+        this.epsilon = epsilon;
+
+        Map<SocketAddress, Integer> indexes = new HashMap<SocketAddress, Integer>();
+        for (int i = 0; i < nodes.length; i ++) {
+            indexes.put(nodes[i], i);
+        }
+        this.owners = new int[ring.size()];
+        for (int i = 0; i < owners.length; i ++) {
+            Integer index = indexes.get(ring.node(i));
+            owners[i] = index == null ? -1 : index;
+        }
+    }
+
+    @Override
+    public SocketAddress get(long hash)
+    {
+        int index = ring.ceiling(hash);
+        if (index < 0) {
+            return null;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        int[] loads = scratch.loads(nodes.length);
+        long totalLoad = 0;
+        for (int i = 0; i < nodes.length; i ++) {
+            loads[i] = nodeLoad.getLoad(nodes[i]);
+            totalLoad += loads[i];
+        }
+        double capacity = Math.ceil((1 + epsilon) * (totalLoad + 1) / nodes.length);
+
+        // Stop once every distinct node has been checked, the later points add nothing
+        int[] seen = scratch.seen;
+        int stamp = scratch.next();
+        int visited = 0;
+        int size = ring.size();
+        for (int i = 0; i < size && visited < nodes.length; i ++) {
+            int point = (index + i) % size;
+            int owner = owners[point];
+            if (owner < 0 || seen[owner] == stamp) {
+                continue;
+            }
+            if (loads[owner] + 1 <= capacity) {
+                return ring.node(point);
+            }
+            seen[owner] = stamp;
+            visited ++;
+        }
+        // No node within the capacity, e.g. some nodes own no point
+        return ring.node(index);
+    }
+
+    private static class Scratch
+    {
+        private int[] loads = new int[0];
+        private int[] seen = new int[0];
+        private int stamp = 0;
+
+        int[] loads(int nodes)
+        {
+            if (loads.length < nodes) {
+                loads = new int[nodes];
+                seen = new int[nodes];
+                stamp = 0;
+            }
+            return loads;
+        }
+
+        /**
+         * Stamp of the lookup, a node is seen if its slot holds the current stamp
+         */
+        int next()
+        {
+            if (++ stamp == 0) {
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Immutable snapshot of the consistent hash ring, the points are sorted in a primitive array
+ * with the owner nodes in a parallel array, so the lookups need no lock, boxing or allocation.
+ * A new snapshot is built for every change and published by the owner with a volatile write.
+ */
+public final class HashRing implements IPlacement
+{
+    public static final HashRing EMPTY = new HashRing(new long[0], new SocketAddress[0]);
+
+    private final long[] points;
+    private final SocketAddress[] nodes;
+
+    private HashRing(long[] points, SocketAddress[] nodes)
+    {
+        this.points = points;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Build the snapshot from the sorted buckets, the map is not referenced afterwards
+     */
+    public static HashRing create(SortedMap<Long, SocketAddress> buckets)
+    {
+        if (buckets.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] points = new long[buckets.size()];
+        SocketAddress[] nodes = new SocketAddress[buckets.size()];
+        int i = 0;
+        for (Map.Entry<Long, SocketAddress> entry : buckets.entrySet()) {
+            points[i] = entry.getKey();
+            nodes[i] = entry.getValue();
+            i ++;
+        }
+        return new HashRing(points, nodes);
+    }
+
+    /**
+     * The node of the first point not less than the hash, wrapping around to the first point,
+     * null if the ring is empty
+     */
+    @Override
+    public SocketAddress get(long hash)
+    {
+        int index = ceiling(hash);
+        return index < 0 ? null : nodes[index];
+    }
+
+    /**
+     * Index of the first point not less than the hash with wrap around, -1 if the ring is empty
+     */
+    public int ceiling(long hash)
+    {
+        int length = points.length;
+        if (length == 0) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long point = points[mid];
+            if (point < hash) {
+                low = mid + 1;
+            } else if (point > hash) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return low == length ? 0 : low;
+    }
+
+    public int size()
+    {
+        return points.length;
+    }
+
+    public long point(int index)
+    {
+        return points[index];
+    }
+
+    public SocketAddress node(int index)
+    {
+        return nodes[index];
+    }
+}
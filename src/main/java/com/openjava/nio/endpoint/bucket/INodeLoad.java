@@ -0,0 +1,11 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+
+/**
+ * Live load of the cluster nodes for the bounded load placement, such as the requests in flight
+ */
+public interface INodeLoad
+{
+    int getLoad(SocketAddress node);
+}
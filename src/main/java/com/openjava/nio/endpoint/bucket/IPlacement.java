@@ -0,0 +1,14 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+
+/**
+ * Immutable placement of the keys on the cluster nodes, built by EndPointBucket on refresh
+ */
+public interface IPlacement
+{
+    /**
+     * The node of the key hash, null if no node available
+     */
+    SocketAddress get(long hash);
+}
@@ -0,0 +1,27 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hash function of the consistent hash ring, see RingHashes
+ */
+public interface IRingHash
+{
+    /**
+     * Hash of the UTF-8 encoded key, same as hash(ByteBuffer) of the encoded bytes. The key
+     * is encoded into a reused buffer so no byte array is allocated.
+     */
+    long hash(CharSequence key);
+
+    /**
+     * Hash of the bytes between the position and the limit, the buffer position is unchanged
+     */
+    long hash(ByteBuffer key);
+
+    /**
+     * Ring points of the node replicas in [from, to), four points per replica as the legacy
+     * MD5 ring does. The points of a replica never depend on the other replicas, so the ring
+     * can be grown or shrunk incrementally.
+     */
+    long[] points(String node, int from, int to);
+}
@@ -0,0 +1,49 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Jump consistent hash (Lamping and Veach), no memory but the bucket list and perfectly even
+ * distribution. The buckets are numbered in endpoint order, so the keys move minimally only when
+ * the nodes are appended or removed from the tail. A node takes weight consecutive buckets.
+ */
+public class JumpPlacement implements IPlacement
+{
+    private final SocketAddress[] buckets;
+
+    private JumpPlacement(SocketAddress[] buckets)
+    {
+        this.buckets = buckets;
+    }
+
+    public static JumpPlacement create(SocketAddress[] nodes, int[] weights)
+    {
+        List<SocketAddress> buckets = new ArrayList<SocketAddress>();
+        for (int i = 0; i < nodes.length; i ++) {
+            for (int w = 0; w < weights[i]; w ++) {
+                buckets.add(nodes[i]);
+            }
+        }
+        return new JumpPlacement(buckets.toArray(new SocketAddress[buckets.size()]));
+    }
+
+    @Override
+    public SocketAddress get(long hash)
+    {
+        return buckets.length == 0 ? null : buckets[jump(hash, buckets.length)];
+    }
+
+    public static int jump(long key, int buckets)
+    {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
@@ -0,0 +1,73 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+/**
+ * Maglev lookup table (Eisenbud et al.): every node fills the table slots in its own permutation
+ * order by turns, so each node owns nearly M / nodes slots and a lookup is one array access.
+ * A node takes weight turns per round.
+ */
+public class MaglevPlacement implements IPlacement
+{
+    public static final int TABLE_SIZE = 65537;
+
+    private final SocketAddress[] table;
+
+    private MaglevPlacement(SocketAddress[] table)
+    {
+        this.table = table;
+    }
+
+    public static MaglevPlacement create(String[] names, SocketAddress[] nodes, int[] weights, IRingHash hash)
+    {
+        int backends = 0;
+        for (int weight : weights) {
+            backends += weight;
+        }
+        if (backends == 0) {
+            return new MaglevPlacement(new SocketAddress[0]);
+        }
+
+        int[] owners = new int[backends];
+        int[] cursors = new int[backends];
+        int[] skips = new int[backends];
+        int b = 0;
+        for (int i = 0; i < nodes.length; i ++) {
+            for (int w = 0; w < weights[i]; w ++) {
+                String name = names[i] + "#" + w;
+                owners[b] = i;
+                cursors[b] = (int) ((hash.hash(name + "-offset") & Long.MAX_VALUE) % TABLE_SIZE);
+                skips[b] = (int) ((hash.hash(name + "-skip") & Long.MAX_VALUE) % (TABLE_SIZE - 1)) + 1;
+                b ++;
+            }
+        }
+
+        int[] entries = new int[TABLE_SIZE];
+        Arrays.fill(entries, -1);
+        int filled = 0;
+        while (true) {
+            for (b = 0; b < backends; b ++) {
+                int slot = cursors[b];
+                while (entries[slot] >= 0) {
+                    slot = (slot + skips[b]) % TABLE_SIZE;
+                }
+                entries[slot] = owners[b];
+                cursors[b] = (slot + skips[b]) % TABLE_SIZE;
+                if (++ filled == TABLE_SIZE) {
+                    SocketAddress[] table = new SocketAddress[TABLE_SIZE];
+                    for (int i = 0; i < TABLE_SIZE; i ++) {
+                        table[i] = nodes[entries[i]];
+                    }
+                    return new MaglevPlacement(table);
+                }
+            }
+        }
+    }
+
+    @Override
+    public SocketAddress get(long hash)
+    {
+        return table.length == 0 ? null : table[(int) ((hash & Long.MAX_VALUE) % TABLE_SIZE)];
+    }
+}
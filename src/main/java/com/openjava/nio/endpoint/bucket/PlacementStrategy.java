@@ -0,0 +1,19 @@
+package com.openjava.nio.endpoint.bucket;
+
+/**
+ * Key placement strategies of EndPointBucket
+ */
+public enum PlacementStrategy
+{
+    /** Classic consistent hashing with the weighted virtual nodes */
+    RING,
+
+    /** Consistent hashing with bounded loads, no node takes more than (1+e) times the average load */
+    BOUNDED_LOAD,
+
+    /** Jump consistent hash, new nodes must be appended to the endpoint list */
+    JUMP,
+
+    /** Maglev lookup table of 65537 entries */
+    MAGLEV
+}
@@ -0,0 +1,184 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hash ranges changing owner between two ring snapshots, so only the user routes and sessions
+ * of the affected keys need migrating. A diff of the non ring placements is ALL: any key may move.
+ */
+public class RingDiff
+{
+    private final boolean all;
+    private final List<Range> ranges;
+    private final IRingHash ringHash;
+
+    private RingDiff(boolean all, List<Range> ranges, IRingHash ringHash)
+    {
+        this.all = all;
+        this.ranges = ranges;
+        this.ringHash = ringHash;
+    }
+
+    public static RingDiff all(IRingHash ringHash)
+    {
+        return new RingDiff(true, Collections.<Range>emptyList(), ringHash);
+    }
+
+    /**
+     * Compare the owner of every elementary interval of the union of both ring points
+     */
+    public static RingDiff between(HashRing previous, HashRing current, IRingHash ringHash)
+    {
+        long[] points = union(previous, current);
+        List<Range> ranges = new ArrayList<Range>();
+        Range last = null;
+        for (int i = 0; i < points.length; i ++) {
+            long to = points[i];
+            long from = points[i == 0 ? points.length - 1 : i - 1];
+            SocketAddress before = previous.get(to);
+            SocketAddress after = current.get(to);
+            if (same(before, after)) {
+                last = null;
+                continue;
+            }
+
+            if (last != null && same(last.previous, before) && same(last.current, after)) {
+                // Coalesce the adjacent intervals moving between the same nodes
+                last = new Range(last.from, to, before, after);
+                ranges.set(ranges.size() - 1, last);
+            } else {
+                last = new Range(from, to, before, after);
+                ranges.add(last);
+            }
+        }
+        return new RingDiff(false, Collections.unmodifiableList(ranges), ringHash);
+    }
+
+    private static boolean same(SocketAddress a, SocketAddress b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static long[] union(HashRing previous, HashRing current)
+    {
+        long[] points = new long[previous.size() + current.size()];
+        int i = 0, j = 0, k = 0;
+        while (i < previous.size() || j < current.size()) {
+            long point;
+            if (j == current.size() || (i < previous.size() && previous.point(i) <= current.point(j))) {
+                point = previous.point(i ++);
+            } else {
+                point = current.point(j ++);
+            }
+            if (k == 0 || points[k - 1] != point) {
+                points[k ++] = point;
+            }
+        }
+        long[] union = new long[k];
+        System.arraycopy(points, 0, union, 0, k);
+        return union;
+    }
+
+    public boolean isAll()
+    {
+        return all;
+    }
+
+    public boolean isEmpty()
+    {
+        return !all && ranges.isEmpty();
+    }
+
+    public List<Range> getRanges()
+    {
+        return ranges;
+    }
+
+    public boolean affects(CharSequence key)
+    {
+        return all || find(ringHash.hash(key)) != null;
+    }
+
+    public boolean affects(long hash)
+    {
+        return all || find(hash) != null;
+    }
+
+    /**
+     * The moved range containing the hash, null if not moved or the diff is ALL
+     */
+    public Range find(long hash)
+    {
+        for (Range range : ranges) {
+            if (range.contains(hash)) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return all ? "RingDiff[ALL]" : "RingDiff" + ranges;
+    }
+
+    /**
+     * Hash range (from, to], wrapping around the ring if from is not less than to
+     */
+    public static class Range
+    {
+        private final long from;
+        private final long to;
+        private final SocketAddress previous;
+        private final SocketAddress current;
+
+        Range(long from, long to, SocketAddress previous, SocketAddress current)
+        {
+            this.from = from;
+            this.to = to;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public boolean contains(long hash)
+        {
+            return from < to ? hash > from && hash <= to : hash > from || hash <= to;
+        }
+
+        public long getFrom()
+        {
+            return from;
+        }
+
+        public long getTo()
+        {
+            return to;
+        }
+
+        /**
+         * The owner before the change, null if the ring was empty
+         */
+        public SocketAddress getPrevious()
+        {
+            return previous;
+        }
+
+        /**
+         * The owner after the change, null if the ring is empty
+         */
+        public SocketAddress getCurrent()
+        {
+            return current;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + from + "," + to + "]:" + previous + "->" + current;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.openjava.nio.endpoint.bucket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Ring hash functions. Md5 is the legacy hash of EndPointBucket, kept for the compatibility with
+ * the existing rings, it uses 32 bits of the digest. Murmur3 and XxHash64 are much faster
+ * non-cryptographic hashes. Every hash encodes a CharSequence to UTF-8 in a thread local buffer,
+ * so hash(key) equals the hash of a buffer holding the UTF-8 encoded key.
+ */
+public final class RingHashes
+{
+    private static final ThreadLocal<Utf8Buffer> UTF8 = new ThreadLocal<Utf8Buffer>() {
+        @Override
+        protected Utf8Buffer initialValue() {
+            return new Utf8Buffer();
+        }
+    };
+
+    private RingHashes()
+    {
+    }
+
+    public static IRingHash forName(String name)
+    {
+        if ("md5".equalsIgnoreCase(name)) {
+            return Md5.create();
+        } else if ("murmur3".equalsIgnoreCase(name)) {
+            return Murmur3.create();
+        } else if ("xxhash64".equalsIgnoreCase(name)) {
+            return XxHash64.create();
+        }
+        throw new IllegalArgumentException("Unknown ring hash: " + name);
+    }
+
+    private static abstract class AbstractRingHash implements IRingHash
+    {
+        @Override
+        public long hash(CharSequence key)
+        {
+            return hash(UTF8.get().encode(key));
+        }
+
+        @Override
+        public long[] points(String node, int from, int to)
+        {
+            long[] points = new long[Math.max(0, to - from) * 4];
+            for (int i = 0; i < points.length; i ++) {
+                points[i] = hash(node + "-" + (from * 4 + i));
+            }
+            return points;
+        }
+    }
+
+    /**
+     * Legacy MD5 hash, the digest reuses a thread local buffer
+     */
+    public static class Md5 implements IRingHash
+    {
+        private static final ThreadLocal<Md5Context> CONTEXT = new ThreadLocal<Md5Context>() {
+            @Override
+            protected Md5Context initialValue() {
+                return new Md5Context();
+            }
+        };
+
+        private Md5()
+        {
+        }
+
+        public static Md5 create()
+        {
+            return new Md5();
+        }
+
+        @Override
+        public long hash(CharSequence key)
+        {
+            Md5Context context = CONTEXT.get();
+            context.md5.update(UTF8.get().encode(key));
+            return context.digest(0);
+        }
+
+        @Override
+        public long hash(ByteBuffer key)
+        {
+            Md5Context context = CONTEXT.get();
+            int position = key.position();
+            context.md5.update(key);
+            key.position(position);
+            return context.digest(0);
+        }
+
+        @Override
+        public long[] points(String node, int from, int to)
+        {
+            Md5Context context = CONTEXT.get();
+            Utf8Buffer utf8 = UTF8.get();
+            long[] points = new long[Math.max(0, to - from) * 4];
+            for (int j = from; j < to; j ++) {
+                context.md5.update(utf8.encode(node + "-" + j));
+                context.digest();
+                for (int h = 0; h < 4; h ++) {
+                    points[(j - from) * 4 + h] = context.point(h);
+                }
+            }
+            return points;
+        }
+    }
+
+    private static class Md5Context
+    {
+        private final MessageDigest md5;
+        private final byte[] digest = new byte[16];
+
+        Md5Context()
+        {
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException nae) {
+                throw new IllegalStateException("no md5 algorythm found");
+            }
+        }
+
+        void digest()
+        {
+            try {
+                md5.digest(digest, 0, digest.length);
+            } catch (java.security.DigestException dex) {
+                throw new IllegalStateException("md5 digest exception", dex);
+            }
+        }
+
+        long digest(int h)
+        {
+            digest();
+            return point(h);
+        }
+
+        long point(int h)
+        {
+            return ((long)(digest[3 + h * 4] & 0xFF) << 24) | ((long)(digest[2 + h * 4] & 0xFF) << 16)
+                | ((long)(digest[1 + h * 4] & 0xFF) << 8) | ((long)(digest[h * 4] & 0xFF));
+        }
+    }
+
+    /**
+     * Reused UTF-8 encoding of the keys, viewed as a little endian buffer for the 64 bits hashes
+     */
+    private static class Utf8Buffer
+    {
+        private byte[] bytes = new byte[64];
+        private ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * The encoded key between the buffer position and limit, valid until the next encode
+         */
+        ByteBuffer encode(CharSequence key)
+        {
+            int length = encode0(key);
+            buffer.clear();
+            buffer.limit(length);
+            return buffer;
+        }
+
+        /**
+         * UTF-8 encode the key into the reused buffer, same bytes as String.getBytes("UTF-8")
+         */
+        private int encode0(CharSequence key)
+        {
+            int length = key.length();
+            if (bytes.length < length * 3) {
+                bytes = new byte[length * 3];
+                buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            int index = 0;
+            for (int i = 0; i < length; i ++) {
+                char c = key.charAt(i);
+                if (c < 0x80) {
+                    bytes[index ++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[index ++] = (byte) (0xC0 | (c >> 6));
+                    bytes[index ++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(key.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, key.charAt(++ i));
+                    bytes[index ++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[index ++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[index ++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[index ++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // Malformed surrogate, replaced with '?' as the String encoder does
+                    bytes[index ++] = (byte) '?';
+                } else {
+                    bytes[index ++] = (byte) (0xE0 | (c >> 12));
+                    bytes[index ++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[index ++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * MurmurHash3 x64 128 bits with seed 0, the lower 64 bits are used
+     */
+    public static class Murmur3 extends AbstractRingHash
+    {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private Murmur3()
+        {
+        }
+
+        public static Murmur3 create()
+        {
+            return new Murmur3();
+        }
+
+        @Override
+        public long hash(ByteBuffer key)
+        {
+            return hash(Bytes.BUFFER, key, key.position(), key.remaining());
+        }
+
+        private static long hash(Bytes bytes, Object source, int base, int length)
+        {
+            long h1 = 0;
+            long h2 = 0;
+
+            int blocks = length >>> 4;
+            for (int i = 0; i < blocks; i ++) {
+                long k1 = bytes.getLong(source, base, i << 4);
+                long k2 = bytes.getLong(source, base, (i << 4) + 8);
+
+                h1 ^= mixK1(k1);
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+
+                h2 ^= mixK2(k2);
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+
+            int offset = blocks << 4;
+            long k1 = 0;
+            long k2 = 0;
+            switch (length & 15) {
+                case 15: k2 ^= (long) bytes.getByte(source, base, offset + 14) << 48;
+                case 14: k2 ^= (long) bytes.getByte(source, base, offset + 13) << 40;
+                case 13: k2 ^= (long) bytes.getByte(source, base, offset + 12) << 32;
+                case 12: k2 ^= (long) bytes.getByte(source, base, offset + 11) << 24;
+                case 11: k2 ^= (long) bytes.getByte(source, base, offset + 10) << 16;
+                case 10: k2 ^= (long) bytes.getByte(source, base, offset + 9) << 8;
+                case 9: k2 ^= (long) bytes.getByte(source, base, offset + 8);
+                    h2 ^= mixK2(k2);
+                case 8: k1 ^= (long) bytes.getByte(source, base, offset + 7) << 56;
+                case 7: k1 ^= (long) bytes.getByte(source, base, offset + 6) << 48;
+                case 6: k1 ^= (long) bytes.getByte(source, base, offset + 5) << 40;
+                case 5: k1 ^= (long) bytes.getByte(source, base, offset + 4) << 32;
+                case 4: k1 ^= (long) bytes.getByte(source, base, offset + 3) << 24;
+                case 3: k1 ^= (long) bytes.getByte(source, base, offset + 2) << 16;
+                case 2: k1 ^= (long) bytes.getByte(source, base, offset + 1) << 8;
+                case 1: k1 ^= (long) bytes.getByte(source, base, offset);
+                    h1 ^= mixK1(k1);
+                default:
+                    break;
+            }
+
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            return h1 + h2;
+        }
+
+        private static long mixK1(long k1)
+        {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            return k1 * C2;
+        }
+
+        private static long mixK2(long k2)
+        {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            return k2 * C1;
+        }
+
+        private static long fmix(long k)
+        {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            return k ^ (k >>> 33);
+        }
+    }
+
+    /**
+     * XXH64 with seed 0
+     */
+    public static class XxHash64 extends AbstractRingHash
+    {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        private XxHash64()
+        {
+        }
+
+        public static XxHash64 create()
+        {
+            return new XxHash64();
+        }
+
+        @Override
+        public long hash(ByteBuffer key)
+        {
+            return hash(Bytes.BUFFER, key, key.position(), key.remaining());
+        }
+
+        private static long hash(Bytes bytes, Object source, int base, int length)
+        {
+            int offset = 0;
+            long h;
+
+            if (length >= 32) {
+                long v1 = P1 + P2;
+                long v2 = P2;
+                long v3 = 0;
+                long v4 = -P1;
+                do {
+                    v1 = round(v1, bytes.getLong(source, base, offset));
+                    v2 = round(v2, bytes.getLong(source, base, offset + 8));
+                    v3 = round(v3, bytes.getLong(source, base, offset + 16));
+                    v4 = round(v4, bytes.getLong(source, base, offset + 24));
+                    offset += 32;
+                } while (offset <= length - 32);
+
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                    + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = P5;
+            }
+
+            h += length;
+            while (offset + 8 <= length) {
+                h ^= round(0, bytes.getLong(source, base, offset));
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+                offset += 8;
+            }
+            if (offset + 4 <= length) {
+                h ^= (bytes.getInt(source, base, offset) & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+                offset += 4;
+            }
+            while (offset < length) {
+                h ^= bytes.getByte(source, base, offset) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+                offset ++;
+            }
+
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            return h ^ (h >>> 32);
+        }
+
+        private static long round(long acc, long input)
+        {
+            acc += input * P2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * P1;
+        }
+
+        private static long merge(long acc, long value)
+        {
+            acc ^= round(0, value);
+            return acc * P1 + P4;
+        }
+    }
+
+    /**
+     * Little endian view of the hashed source without copying it
+     */
+    private static abstract class Bytes
+    {
+        static final Bytes BUFFER = new Bytes() {
+            @Override
+            long getLong(Object source, int base, int offset)
+            {
+                ByteBuffer buffer = (ByteBuffer) source;
+                long value = buffer.getLong(base + offset);
+                return buffer.order() == ByteOrder.LITTLE_ENDIAN ? value : Long.reverseBytes(value);
+            }
+
+            @Override
+            int getInt(Object source, int base, int offset)
+            {
+                ByteBuffer buffer = (ByteBuffer) source;
+                int value = buffer.getInt(base + offset);
+                return buffer.order() == ByteOrder.LITTLE_ENDIAN ? value : Integer.reverseBytes(value);
+            }
+
+            @Override
+            int getByte(Object source, int base, int offset)
+            {
+                return ((ByteBuffer) source).get(base + offset) & 0xFF;
+            }
+        };
+
+        abstract long getLong(Object source, int base, int offset);
+
+        abstract int getInt(Object source, int base, int offset);
+
+        abstract int getByte(Object source, int base, int offset);
+    }
+}
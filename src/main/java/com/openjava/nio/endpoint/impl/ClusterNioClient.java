@@ -0,0 +1,203 @@
+package com.openjava.nio.endpoint.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.cluster.ClusterMember;
+import com.openjava.nio.cluster.IMembershipListener;
+import com.openjava.nio.endpoint.EndPointBucket;
+import com.openjava.nio.endpoint.bucket.INodeLoad;
+import com.openjava.nio.endpoint.bucket.PlacementStrategy;
+import com.openjava.nio.endpoint.bucket.RingDiff;
+import com.openjava.nio.endpoint.pool.ClientSessionPool;
+
+/**
+ * Client routing the requests to the cluster nodes by consistent hashing of the key, such
+ * as the user id, each node has its own session pool so the warm sessions are reused.
+ */
+public class ClusterNioClient extends PooledNioClient implements IMembershipListener
+{
+    private Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private final EndPointBucket bucket = new EndPointBucket();
+    {
+        // The sessions in use are the live load of the BOUNDED_LOAD strategy
+        bucket.setNodeLoad(new INodeLoad() {
+            @Override
+            public int getLoad(SocketAddress node)
+            {
+                ClientSessionPool pool = findPool((InetSocketAddress) node);
+                return pool == null ? 0 : pool.getActiveCount();
+            }
+        });
+    }
+    private final AtomicInteger roundRobin = new AtomicInteger(0);
+
+    private List<String> endPoints = Collections.emptyList();
+    private volatile List<InetSocketAddress> nodes = Collections.emptyList();
+
+    /**
+     * Requests without key are balanced round robin on the nodes
+     */
+    @Override
+    public byte[] sendAndReceived(byte[] packet, long receivedTimeOutInMillis) throws IOException, InterruptedException
+    {
+        return sendAndReceived(nextNode(), packet, receivedTimeOutInMillis);
+    }
+
+    public byte[] sendAndReceived(String key, byte[] packet, long receivedTimeOutInMillis)
+        throws IOException, InterruptedException
+    {
+        return sendAndReceived(route(key), packet, receivedTimeOutInMillis);
+    }
+
+    public void send(String key, byte[] packet) throws IOException, InterruptedException
+    {
+        send(route(key), packet);
+    }
+
+    /**
+     * The node responsible for the key
+     */
+    public InetSocketAddress route(String key) throws IOException
+    {
+        SocketAddress address = bucket.getBucket(key);
+        if (address == null) {
+            throw new IOException("No cluster node available for key: " + key);
+        }
+        return (InetSocketAddress) address;
+    }
+
+    /**
+     * Rebalance the nodes, endPointList: HOST:PORT:WEIGHT(192.168.1.154:9091:1). The pools of the
+     * new nodes are created, and the pools of the nodes left the cluster are closed.
+     */
+    public synchronized void refreshEndPoints(List<String> endPointList)
+    {
+        this.endPoints = endPointList;
+        bucket.refreshConsistentBuckets(endPointList);
+        syncPools();
+    }
+
+    /**
+     * Add a node or change its weight, returns the hash ranges changing owner so only the
+     * routes of the affected keys need migrating
+     */
+    public synchronized RingDiff addEndPoint(String endPoint)
+    {
+        RingDiff diff = bucket.addEndPoint(endPoint);
+        // Kept in sync so a restart rebuilds the current nodes
+        this.endPoints = bucket.getEndPointAddresses();
+        syncPools();
+        return diff;
+    }
+
+    public synchronized RingDiff removeEndPoint(String endPoint)
+    {
+        RingDiff diff = bucket.removeEndPoint(endPoint);
+        this.endPoints = bucket.getEndPointAddresses();
+        syncPools();
+        return diff;
+    }
+
+    /**
+     * Eject the member suspected by the cluster membership
+     */
+    @Override
+    public void onMemberDown(ClusterMember member)
+    {
+        removeEndPoint(member.getEndPoint());
+    }
+
+    @Override
+    public void onMemberUp(ClusterMember member)
+    {
+        addEndPoint(member.getEndPoint());
+    }
+
+    private void syncPools()
+    {
+        List<InetSocketAddress> newNodes = new ArrayList<InetSocketAddress>();
+        for (SocketAddress address : bucket.getEndPoints()) {
+            newNodes.add((InetSocketAddress) address);
+        }
+        nodes = Collections.unmodifiableList(newNodes);
+
+        if (!isRunning()) {
+            return;
+        }
+
+        for (InetSocketAddress address : getPoolAddresses()) {
+            if (!newNodes.contains(address)) {
+                try {
+                    removePool(address);
+                    LOG.info("Cluster node {} removed", address);
+                } catch (Exception ex) {
+                    LOG.warn("Close the session pool exception: " + address, ex);
+                }
+            }
+        }
+        for (InetSocketAddress address : newNodes) {
+            try {
+                // Warm up the min idle sessions of the new node
+                getPool(address);
+            } catch (IOException iex) {
+                LOG.warn("Create the session pool exception: " + address, iex);
+            }
+        }
+    }
+
+    public List<InetSocketAddress> getNodes()
+    {
+        return nodes;
+    }
+
+    private InetSocketAddress nextNode() throws IOException
+    {
+        List<InetSocketAddress> nodes = this.nodes;
+        if (nodes.isEmpty()) {
+            throw new IOException("No cluster node available");
+        }
+        int index = (roundRobin.getAndIncrement() & Integer.MAX_VALUE) % nodes.size();
+        return nodes.get(index);
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        refreshEndPoints(endPoints);
+    }
+
+    /**
+     * Key placement strategy, effective on the next refreshEndPoints
+     */
+    @SuppressWarnings("unused")
+    public void setStrategy(PlacementStrategy strategy)
+    {
+        bucket.setStrategy(strategy);
+    }
+
+    @SuppressWarnings("unused")
+    public void setLoadFactor(double loadFactor)
+    {
+        bucket.setLoadFactor(loadFactor);
+    }
+
+    /**
+     * Initial cluster nodes, HOST:PORT:WEIGHT(192.168.1.154:9091:1)
+     */
+    @SuppressWarnings("unused")
+    public void setEndPoints(List<String> endPoints)
+    {
+        this.endPoints = endPoints;
+    }
+}
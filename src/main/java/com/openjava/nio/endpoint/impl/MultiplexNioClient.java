@@ -0,0 +1,253 @@
+package com.openjava.nio.endpoint.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.endpoint.AbstractNioClient;
+import com.openjava.nio.endpoint.MultiplexFrame;
+import com.openjava.nio.exception.RequestTimeoutException;
+import com.openjava.nio.exception.SessionClosedException;
+import com.openjava.nio.exception.SessionPoolExhaustedException;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.SessionState;
+import com.openjava.nio.provider.session.listener.ISessionDataListener;
+import com.openjava.nio.provider.session.listener.ISessionEventListener;
+import com.openjava.nio.util.ListenableFuture;
+import com.openjava.nio.util.ScheduledExecutor;
+import com.openjava.nio.util.Scheduler;
+import com.openjava.nio.util.StringUtils;
+
+/**
+ * Asynchronous client pipelining the concurrent requests over one session, each request is
+ * tagged with a correlation id and completed when the response with the same id arrives.
+ * The server must answer with the request correlation id, see AbstractMultiplexNioServer.
+ */
+public class MultiplexNioClient extends AbstractNioClient implements ISessionDataListener, ISessionEventListener
+{
+    private Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private final AtomicLong idGenerator = new AtomicLong(0);
+    private final ConcurrentMap<Long, PendingRequest> pending = new ConcurrentHashMap<Long, PendingRequest>();
+    private final Object connectLock = new Object();
+
+    private int maxPendingRequests = 10000;
+    private volatile INioSession session;
+    private ScheduledExecutor scheduler;
+
+    @Override
+    public byte[] sendAndReceived(byte[] packet, long receivedTimeOutInMillis) throws IOException, InterruptedException
+    {
+        ListenableFuture<byte[]> future = send(packet, receivedTimeOutInMillis);
+        try {
+            return future.get();
+        } catch (ExecutionException eex) {
+            Throwable cause = eex.getCause();
+            if (cause instanceof RequestTimeoutException) {
+                // Same as the other clients, null if no response received before the timeout
+                return null;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request failed", cause);
+        }
+    }
+
+    /**
+     * Send a request without waiting, the future is completed with the response, or failed
+     * with a RequestTimeoutException or a SessionClosedException
+     */
+    public ListenableFuture<byte[]> send(byte[] packet, long receivedTimeOutInMillis) throws IOException
+    {
+        checkState();
+        if (pending.size() >= maxPendingRequests) {
+            throw new SessionPoolExhaustedException("Exceed max pending requests: " + maxPendingRequests);
+        }
+
+        INioSession session = session();
+        long id = idGenerator.incrementAndGet();
+        PendingRequest request = new PendingRequest(id, session);
+        pending.put(id, request);
+        request.timeout = scheduler.schedule(new RequestTimeout(id), receivedTimeOutInMillis, TimeUnit.MILLISECONDS);
+
+        try {
+            session.send(MultiplexFrame.encode(id, packet));
+        } catch (IllegalStateException ise) {
+            // The session was closed concurrently
+            complete(id, null, new SessionClosedException("Nio session[SID=" + session.getId() + "] closed"));
+        }
+        return request.future;
+    }
+
+    public void send(byte[] packet, long receivedTimeOutInMillis, ListenableFuture.Listener<byte[]> callback)
+        throws IOException
+    {
+        send(packet, receivedTimeOutInMillis).addListener(callback);
+    }
+
+    public int getPendingRequests()
+    {
+        return pending.size();
+    }
+
+    @Override
+    public void onDataReceived(INioSession session, byte[] packet)
+    {
+        long id;
+        try {
+            id = MultiplexFrame.correlationId(packet);
+        } catch (IllegalArgumentException iex) {
+            LOG.error("Invalid multiplex frame received from session[SID={}]", session.getId());
+            return;
+        }
+
+        if (!complete(id, MultiplexFrame.payload(packet), null)) {
+            LOG.debug("Late response received, correlation id={}", id);
+        }
+    }
+
+    @Override
+    public void onSessionCreated(INioSession session)
+    {
+    }
+
+    @Override
+    public void onSessionClosed(INioSession session)
+    {
+        synchronized (connectLock) {
+            if (this.session == session) {
+                this.session = null;
+            }
+        }
+
+        // Fail the requests in flight on the closed session
+        Iterator<PendingRequest> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingRequest request = iterator.next();
+            if (request.session == session) {
+                complete(request.id, null, new SessionClosedException("Nio session[SID=" + session.getId() + "] closed"));
+            }
+        }
+    }
+
+    @Override
+    public void onSocketConnectTimeout()
+    {
+    }
+
+    private boolean complete(long id, byte[] response, Throwable failure)
+    {
+        PendingRequest request = pending.remove(id);
+        if (request == null) {
+            return false;
+        }
+
+        if (request.timeout != null) {
+            request.timeout.cancel();
+        }
+        if (failure == null) {
+            request.future.complete(response);
+        } else {
+            request.future.fail(failure);
+        }
+        return true;
+    }
+
+    private INioSession session() throws IOException
+    {
+        INioSession current = session;
+        if (current != null && current.getState() == SessionState.CONNECTED) {
+            return current;
+        }
+
+        synchronized (connectLock) {
+            current = session;
+            if (current == null || current.getState() != SessionState.CONNECTED) {
+                if (StringUtils.isBlank(getHost()) || getPort() <= 1024) {
+                    throw new IllegalArgumentException("Invalid host and port: " + getHost() + "," + getPort());
+                }
+                current = getSession(new InetSocketAddress(getHost(), getPort()), this, this);
+                session = current;
+            }
+            return current;
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        scheduler = new ScheduledExecutor(this.getClass().getSimpleName() + "-Timer", true);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        INioSession current;
+        synchronized (connectLock) {
+            current = session;
+            session = null;
+        }
+        if (current != null) {
+            current.destroy();
+        }
+        for (Long id : pending.keySet()) {
+            complete(id, null, new SessionClosedException("Multiplex client stopped"));
+        }
+        scheduler.shutdown();
+    }
+
+    private void checkState()
+    {
+        if (!isRunning()) {
+            throw new IllegalStateException("Invalid client state, state:" + getState());
+        }
+    }
+
+    /**
+     * Maximum requests in flight, new requests fail fast once exceeded
+     */
+    @SuppressWarnings("unused")
+    public void setMaxPendingRequests(int maxPendingRequests)
+    {
+        this.maxPendingRequests = maxPendingRequests;
+    }
+
+    private static class PendingRequest
+    {
+        private final long id;
+        private final INioSession session;
+        private final ListenableFuture<byte[]> future = new ListenableFuture<byte[]>();
+        private volatile Scheduler.Task timeout;
+
+        public PendingRequest(long id, INioSession session)
+        {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    private class RequestTimeout implements Runnable
+    {
+        private final long id;
+
+        public RequestTimeout(long id)
+        {
+            this.id = id;
+        }
+
+        @Override
+        public void run()
+        {
+            complete(id, null, new RequestTimeoutException("Request timeout, correlation id=" + id));
+        }
+    }
+}
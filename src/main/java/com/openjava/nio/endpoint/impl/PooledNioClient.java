@@ -0,0 +1,179 @@
+package com.openjava.nio.endpoint.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.openjava.nio.endpoint.AbstractNioClient;
+import com.openjava.nio.endpoint.pool.ClientSessionPool;
+import com.openjava.nio.endpoint.pool.PoolConfig;
+import com.openjava.nio.endpoint.pool.PooledSession;
+import com.openjava.nio.exception.MultiException;
+import com.openjava.nio.util.ScheduledExecutor;
+import com.openjava.nio.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client keeping a bounded pool of long-lived sessions per remote address, a request
+ * borrows a connected session instead of connecting and closing a new one
+ */
+public class PooledNioClient extends AbstractNioClient
+{
+    private Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private PoolConfig poolConfig = new PoolConfig();
+    private final ConcurrentMap<InetSocketAddress, ClientSessionPool> pools =
+        new ConcurrentHashMap<InetSocketAddress, ClientSessionPool>();
+    private ScheduledExecutor scheduler;
+
+    @Override
+    public byte[] sendAndReceived(byte[] packet, long receivedTimeOutInMillis) throws IOException, InterruptedException
+    {
+        if (StringUtils.isBlank(getHost()) || getPort() <= 1024) {
+            throw new IllegalArgumentException("Invalid host and port: " + getHost() + "," + getPort());
+        }
+        return sendAndReceived(new InetSocketAddress(getHost(), getPort()), packet, receivedTimeOutInMillis);
+    }
+
+    public byte[] sendAndReceived(InetSocketAddress address, byte[] packet, long receivedTimeOutInMillis)
+        throws IOException, InterruptedException
+    {
+        ClientSessionPool pool = getPool(address);
+        PooledSession session = pool.borrow();
+        boolean reusable = false;
+
+        try {
+            byte[] response = session.sendAndReceived(packet, receivedTimeOutInMillis);
+            // A late response would be read by the next borrower, so never reuse a timed out session
+            reusable = response != null;
+            return response;
+        } finally {
+            if (reusable) {
+                pool.release(session);
+            } else {
+                pool.invalidate(session);
+            }
+        }
+    }
+
+    /**
+     * Send a packet without waiting for any response over a pooled session
+     */
+    public void send(InetSocketAddress address, byte[] packet) throws IOException, InterruptedException
+    {
+        ClientSessionPool pool = getPool(address);
+        PooledSession session = pool.borrow();
+        boolean reusable = false;
+
+        try {
+            session.send(packet);
+            reusable = true;
+        } finally {
+            if (reusable) {
+                pool.release(session);
+            } else {
+                pool.invalidate(session);
+            }
+        }
+    }
+
+    /**
+     * The session pool of the remote address, created on first use
+     */
+    public ClientSessionPool getPool(InetSocketAddress address) throws IOException
+    {
+        checkState();
+        ClientSessionPool pool = pools.get(address);
+        if (pool == null) {
+            ClientSessionPool newPool = new ClientSessionPool(this, address, scheduler, poolConfig);
+            try {
+                newPool.start();
+            } catch (Exception ex) {
+                throw new IOException("Start the session pool exception: " + address, ex);
+            }
+
+            pool = pools.putIfAbsent(address, newPool);
+            if (pool == null) {
+                pool = newPool;
+            } else {
+                // Another thread won the race, discard this one
+                stopQuietly(newPool);
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Close the session pool of the remote address, e.g when the remote node left the cluster
+     */
+    public void removePool(InetSocketAddress address) throws Exception
+    {
+        ClientSessionPool pool = pools.remove(address);
+        if (pool != null) {
+            pool.stop();
+        }
+    }
+
+    /**
+     * The session pool of the remote address, null if not created yet
+     */
+    protected ClientSessionPool findPool(InetSocketAddress address)
+    {
+        return pools.get(address);
+    }
+
+    /**
+     * Remote addresses having a session pool
+     */
+    public Set<InetSocketAddress> getPoolAddresses()
+    {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        scheduler = new ScheduledExecutor(this.getClass().getSimpleName() + "-Evictor", true);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        MultiException exception = new MultiException();
+        for (InetSocketAddress address : pools.keySet()) {
+            try {
+                removePool(address);
+            } catch (Exception ex) {
+                exception.add(ex);
+            }
+        }
+        scheduler.shutdown();
+        exception.ifExceptionThrow();
+    }
+
+    private void stopQuietly(ClientSessionPool pool)
+    {
+        try {
+            pool.stop();
+        } catch (Exception ex) {
+            LOG.warn("Stop the session pool exception: " + pool.getAddress(), ex);
+        }
+    }
+
+    private void checkState()
+    {
+        if (!isRunning()) {
+            throw new IllegalStateException("Invalid client state, state:" + getState());
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void setPoolConfig(PoolConfig poolConfig)
+    {
+        this.poolConfig = poolConfig;
+    }
+}
@@ -0,0 +1,358 @@
+package com.openjava.nio.endpoint.pool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.endpoint.AbstractNioClient;
+import com.openjava.nio.exception.SessionPoolExhaustedException;
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.util.ListenableFuture;
+import com.openjava.nio.util.Scheduler;
+
+/**
+ * Bounded pool of long-lived client sessions to one remote address. Sessions are validated
+ * when borrowed, and an evictor closes the sessions idle for too long above minIdle and
+ * connects new ones to keep at least minIdle sessions warm.
+ */
+public class ClientSessionPool extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(ClientSessionPool.class);
+
+    private final AbstractNioClient client;
+    private final InetSocketAddress address;
+    private final Scheduler scheduler;
+    private final PoolConfig config;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Condition for waiting borrows */
+    private final Condition available = lock.newCondition();
+    // Most recently used first, so that the surplus sessions become idle and get evicted
+    private final Deque<PooledSession> idle = new ArrayDeque<PooledSession>();
+    // Sessions created or being created, guarded by lock
+    private int total = 0;
+    // Sessions being connected by the evictor to reach minIdle, guarded by lock
+    private int warming = 0;
+
+    public ClientSessionPool(AbstractNioClient client, InetSocketAddress address, Scheduler scheduler, PoolConfig config)
+    {
+        config.validate();
+        this.client = client;
+        this.address = address;
+        this.scheduler = scheduler;
+        this.config = config;
+    }
+
+    public PooledSession borrow() throws IOException, InterruptedException
+    {
+        checkState();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getMaxWaitMillis());
+        for (;;) {
+            PooledSession session = null;
+            boolean create = false;
+
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                while (session == null && !create) {
+                    if ((session = idle.pollFirst()) == null) {
+                        if (total < config.getMaxTotal()) {
+                            total ++;
+                            create = true;
+                        } else {
+                            long nanos = deadline - System.nanoTime();
+                            if (nanos <= 0) {
+                                throw new SessionPoolExhaustedException("No session available in the pool: " + address);
+                            }
+                            available.awaitNanos(nanos);
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                return create();
+            }
+            if (session.validate()) {
+                return session;
+            }
+            LOG.debug("Invalid pooled session found, close it: {}", address);
+            invalidate(session);
+        }
+    }
+
+    /**
+     * Return a healthy session to the pool, the session is closed if it is invalid or the pool is full
+     */
+    public void release(PooledSession session)
+    {
+        if (isRunning() && session.validate()) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                if (idle.size() < config.getMaxIdle()) {
+                    session.setIdleSince(System.currentTimeMillis());
+                    idle.addFirst(session);
+                    available.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        invalidate(session);
+    }
+
+    /**
+     * Close a session in an unknown state, e.g a request timed out and a late response may arrive
+     */
+    public void invalidate(PooledSession session)
+    {
+        session.destroy();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            total --;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleCount()
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sessions borrowed and not yet returned
+     */
+    public int getActiveCount()
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return total - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotalCount()
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    private PooledSession create() throws IOException
+    {
+        boolean result = false;
+        PooledSession session = new PooledSession();
+        try {
+            session.attach(client.getSession(address, session));
+            result = true;
+            return session;
+        } finally {
+            if (!result) {
+                final ReentrantLock lock = this.lock;
+                lock.lock();
+                try {
+                    total --;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (config.getMinIdle() > 0) {
+            scheduler.schedule(new Evictor(), 0, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.schedule(new Evictor(), config.getEvictionPeriodMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        List<PooledSession> sessions;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            sessions = new ArrayList<PooledSession>(idle);
+            idle.clear();
+            total -= sessions.size();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledSession session : sessions) {
+            session.destroy();
+        }
+    }
+
+    private void checkState()
+    {
+        if (!isRunning()) {
+            throw new IllegalStateException("Invalid session pool state, state:" + getState());
+        }
+    }
+
+    private class Evictor implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isRunning()) {
+                return;
+            }
+
+            try {
+                evict();
+                ensureMinIdle();
+            } catch (Throwable ex) {
+                LOG.warn("Evict pooled sessions exception: " + address, ex);
+            } finally {
+                if (isRunning()) {
+                    scheduler.schedule(this, config.getEvictionPeriodMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private void evict()
+        {
+            List<PooledSession> expired = new ArrayList<PooledSession>();
+            long now = System.currentTimeMillis();
+
+            final ReentrantLock lock = ClientSessionPool.this.lock;
+            lock.lock();
+            try {
+                // Idle sessions are ordered from the most to the least recently used
+                int surplus = idle.size() - config.getMinIdle();
+                Iterator<PooledSession> iterator = idle.descendingIterator();
+                while (iterator.hasNext()) {
+                    PooledSession session = iterator.next();
+                    boolean timeout = surplus > 0 && now - session.getIdleSince() > config.getIdleTimeoutMillis();
+                    if (timeout || !session.validate()) {
+                        iterator.remove();
+                        expired.add(session);
+                        surplus --;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (PooledSession session : expired) {
+                LOG.debug("Close the idle or broken pooled session: {}", address);
+                invalidate(session);
+            }
+        }
+
+        /**
+         * Connect the missing idle sessions without blocking the shared scheduler thread, the
+         * sessions join the pool from the selector thread once connected
+         */
+        private void ensureMinIdle()
+        {
+            int missing;
+            final ReentrantLock lock = ClientSessionPool.this.lock;
+            lock.lock();
+            try {
+                missing = Math.min(config.getMinIdle() - idle.size() - warming, config.getMaxTotal() - total);
+                if (missing <= 0) {
+                    return;
+                }
+                total += missing;
+                warming += missing;
+            } finally {
+                lock.unlock();
+            }
+
+            for (int i = 0; i < missing; i ++) {
+                final PooledSession session = new PooledSession();
+                ListenableFuture<INioSession> future;
+                try {
+                    future = client.connect(address, session, null);
+                } catch (RuntimeException ex) {
+                    warmed(missing - i);
+                    throw ex;
+                }
+
+                future.addListener(new ListenableFuture.Listener<INioSession>() {
+                    @Override
+                    public void onSuccess(INioSession result)
+                    {
+                        session.attach(result);
+                        lock.lock();
+                        try {
+                            warming --;
+                        } finally {
+                            lock.unlock();
+                        }
+                        release(session);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable cause)
+                    {
+                        LOG.debug("Connect the min idle session failed: " + address, cause);
+                        warmed(1);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Give back the slots of the warming sessions which failed to connect
+         */
+        private void warmed(int count)
+        {
+            final ReentrantLock lock = ClientSessionPool.this.lock;
+            lock.lock();
+            try {
+                total -= count;
+                warming -= count;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
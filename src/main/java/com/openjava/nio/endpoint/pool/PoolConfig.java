@@ -0,0 +1,101 @@
+package com.openjava.nio.endpoint.pool;
+
+public class PoolConfig
+{
+    private int maxTotal = 8;
+    private int maxIdle = 8;
+    private int minIdle = 0;
+    private long maxWaitMillis = 5 * 1000;
+    private long idleTimeoutMillis = 60 * 1000;
+    private long evictionPeriodMillis = 10 * 1000;
+
+    /**
+     * Check 0 <= minIdle <= maxIdle <= maxTotal, a pool keeping more idle sessions warm than it
+     * may hold would close and reconnect them forever
+     */
+    public void validate()
+    {
+        if (maxTotal <= 0) {
+            throw new IllegalArgumentException("Invalid pool config, maxTotal must be positive: " + maxTotal);
+        }
+        if (minIdle < 0 || minIdle > maxIdle || maxIdle > maxTotal) {
+            throw new IllegalArgumentException("Invalid pool config, minIdle <= maxIdle <= maxTotal expected: "
+                + minIdle + "," + maxIdle + "," + maxTotal);
+        }
+    }
+
+    public int getMaxTotal()
+    {
+        return maxTotal;
+    }
+
+    public int getMaxIdle()
+    {
+        return maxIdle;
+    }
+
+    public int getMinIdle()
+    {
+        return minIdle;
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return maxWaitMillis;
+    }
+
+    public long getIdleTimeoutMillis()
+    {
+        return idleTimeoutMillis;
+    }
+
+    public long getEvictionPeriodMillis()
+    {
+        return evictionPeriodMillis;
+    }
+
+    /**
+     * Maximum sessions, borrowed or idle, to one remote address
+     */
+    @SuppressWarnings("unused")
+    public void setMaxTotal(int maxTotal)
+    {
+        this.maxTotal = maxTotal;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxIdle(int maxIdle)
+    {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Sessions kept connected even when idle longer than the idle timeout
+     */
+    @SuppressWarnings("unused")
+    public void setMinIdle(int minIdle)
+    {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * Maximum time to wait for a session when the pool is exhausted
+     */
+    @SuppressWarnings("unused")
+    public void setMaxWaitMillis(long maxWaitMillis)
+    {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setIdleTimeoutMillis(long idleTimeoutMillis)
+    {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setEvictionPeriodMillis(long evictionPeriodMillis)
+    {
+        this.evictionPeriodMillis = evictionPeriodMillis;
+    }
+}
@@ -0,0 +1,93 @@
+package com.openjava.nio.endpoint.pool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.SessionState;
+import com.openjava.nio.provider.session.listener.ISessionDataListener;
+
+/**
+ * A long-lived client session of the pool, only used by the borrower until it is returned
+ */
+public class PooledSession implements ISessionDataListener
+{
+    private static Logger LOG = LoggerFactory.getLogger(PooledSession.class);
+
+    private final BlockingQueue<byte[]> data = new ArrayBlockingQueue<byte[]>(8);
+
+    private volatile INioSession session;
+
+    private volatile long idleSince;
+
+    PooledSession()
+    {
+    }
+
+    @Override
+    public void onDataReceived(INioSession session, byte[] packet)
+    {
+        if (!data.offer(packet)) {
+            LOG.error("onDataReceived: Exceed max data buffer size");
+        }
+    }
+
+    /**
+     * Send the request and wait for the response, null if no response received before the timeout
+     */
+    public byte[] sendAndReceived(byte[] packet, long receivedTimeOutInMillis) throws InterruptedException
+    {
+        // Drop the unsolicited packets received while the session was idle
+        data.clear();
+        session.send(packet);
+        return data.poll(receivedTimeOutInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void send(byte[] packet)
+    {
+        session.send(packet);
+    }
+
+    public byte[] read(long receivedTimeOutInMillis) throws InterruptedException
+    {
+        return data.poll(receivedTimeOutInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public INioSession session()
+    {
+        return session;
+    }
+
+    void attach(INioSession session)
+    {
+        this.session = session;
+    }
+
+    boolean validate()
+    {
+        INioSession session = this.session;
+        return session != null && session.getState() == SessionState.CONNECTED && session.getChannel().isConnected();
+    }
+
+    void destroy()
+    {
+        INioSession session = this.session;
+        if (session != null) {
+            session.destroy();
+        }
+    }
+
+    long getIdleSince()
+    {
+        return idleSince;
+    }
+
+    void setIdleSince(long idleSince)
+    {
+        this.idleSince = idleSince;
+    }
+}
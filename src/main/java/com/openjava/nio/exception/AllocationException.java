@@ -0,0 +1,27 @@
+package com.openjava.nio.exception;
+
+/**
+ * A conversation allocation refused, the error code is one of ErrorCode
+ */
+public class AllocationException extends Exception
+{
+    private final int errorCode;
+
+    public AllocationException(int errorCode, String message)
+    {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode()
+    {
+        return errorCode;
+    }
+
+    @Override
+    public Throwable fillInStackTrace()
+    {
+        // No need fill stack trace here for performance purpose
+        return this;
+    }
+}
@@ -0,0 +1,18 @@
+package com.openjava.nio.exception;
+
+import java.io.IOException;
+
+public class SessionPoolExhaustedException extends IOException
+{
+    public SessionPoolExhaustedException(String message)
+    {
+        super(message);
+    }
+
+    @Override
+    public Throwable fillInStackTrace()
+    {
+        // No need fill stack trace here for performance purpose
+        return this;
+    }
+}
@@ -0,0 +1,95 @@
+package com.openjava.nio.frontdesk;
+
+/**
+ * A customer conversation served by a front desk agent, a transfer gives a new allocation
+ */
+public class Allocation
+{
+    private final String sessionId;
+    private final String customerId;
+    private final String agentId;
+    private final int businessType;
+    private final long serviceNo;
+    private final long allocatedTime;
+    // Registration of the agent the conversation is loaded on, an agent registered again has a new one
+    private final long agentEpoch;
+
+    private Allocation(String sessionId, String customerId, String agentId, int businessType, long serviceNo,
+        long allocatedTime, long agentEpoch)
+    {
+        this.sessionId = sessionId;
+        this.customerId = customerId;
+        this.agentId = agentId;
+        this.businessType = businessType;
+        this.serviceNo = serviceNo;
+        this.allocatedTime = allocatedTime;
+        this.agentEpoch = agentEpoch;
+    }
+
+    public String getSessionId()
+    {
+        return sessionId;
+    }
+
+    public String getCustomerId()
+    {
+        return customerId;
+    }
+
+    public String getAgentId()
+    {
+        return agentId;
+    }
+
+    public int getBusinessType()
+    {
+        return businessType;
+    }
+
+    /**
+     * The number taken by the customer in the queue of the business type
+     */
+    public long getServiceNo()
+    {
+        return serviceNo;
+    }
+
+    public long getAllocatedTime()
+    {
+        return allocatedTime;
+    }
+
+    public static Allocation create(String sessionId, String customerId, String agentId, int businessType,
+        long serviceNo)
+    {
+        return create(sessionId, customerId, agentId, businessType, serviceNo, 0);
+    }
+
+    static Allocation create(String sessionId, String customerId, String agentId, int businessType,
+        long serviceNo, long agentEpoch)
+    {
+        return new Allocation(sessionId, customerId, agentId, businessType, serviceNo, System.currentTimeMillis(),
+            agentEpoch);
+    }
+
+    long getAgentEpoch()
+    {
+        return agentEpoch;
+    }
+
+    Allocation transfer(String toAgentId, long toAgentEpoch)
+    {
+        return new Allocation(sessionId, customerId, toAgentId, businessType, serviceNo, System.currentTimeMillis(),
+            toAgentEpoch);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("sessionId: ").append(sessionId).append(", customerId: ").append(customerId)
+            .append(", agentId: ").append(agentId).append(", businessType: ").append(businessType)
+            .append(", serviceNo: ").append(serviceNo);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,584 @@
+package com.openjava.nio.frontdesk;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.exception.AllocationException;
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.infrastructure.type.ErrorCode;
+import com.openjava.nio.util.ListenableFuture;
+import com.openjava.nio.util.ScheduledExecutor;
+
+/**
+ * Allocate the customer conversations to the least loaded available front desk agent of the business
+ * type, for MSG_REGISTER_FRONT_DESK, MSG_ALLOCATE_CONVERSATION, MSG_TRANSFER_CONVERSATION and
+ * MSG_SEEK_CURRENT_SERVICENO. No global lock.
+ *
+ * The state of an agent is one AtomicLong: [32 bits version][1 bit available][31 bits load], every change
+ * is a CAS bumping the version. Each business type keeps a bucket queue per load, the change of an agent
+ * publishes a (agent, version) entry in the bucket of its new load in the queues of its business types
+ * and the entries of the older versions become stale. An allocation polls the lowest non empty bucket,
+ * drops the stale entries and CAS the load of the agent found: the equally loaded agents take their turn.
+ *
+ * Without agent available the customer waits in the FIFO queue of the business type with its service
+ * number, a released or newly available agent serves the waiting customers first. A customer waiting
+ * longer than the wait timeout fails with ERROR_EXPIRED_ALLOCATION.
+ */
+public class ConversationAllocator extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(ConversationAllocator.class);
+
+    private static final long AVAILABLE = 1L << 31;
+    private static final long LOAD_MASK = AVAILABLE - 1;
+
+    private int maxCapacity = 64;
+    private long waitTimeoutMillis = 60 * 1000;
+    private long sweepIntervalMillis = 1000;
+
+    private final ConcurrentMap<String, Agent> agents = new ConcurrentHashMap<String, Agent>();
+    private final ConcurrentMap<Integer, BusinessQueue> queues = new ConcurrentHashMap<Integer, BusinessQueue>();
+    private final ConcurrentMap<String, Allocation> allocations = new ConcurrentHashMap<String, Allocation>();
+    private final AtomicLong epochs = new AtomicLong();
+    private ScheduledExecutor scheduler;
+
+    /**
+     * Register an agent serving the business types, at most capacity conversations at once. The agent
+     * starts available unless already registered.
+     */
+    public void registerAgent(String agentId, int[] businessTypes, int capacity)
+    {
+        checkState();
+        if (capacity <= 0 || capacity > maxCapacity) {
+            throw new IllegalArgumentException("Invalid agent capacity: " + capacity);
+        }
+        BusinessQueue[] agentQueues = new BusinessQueue[businessTypes.length];
+        for (int i = 0; i < businessTypes.length; i ++) {
+            agentQueues[i] = queue(businessTypes[i]);
+        }
+        Agent agent = new Agent(agentId, agentQueues, capacity, epochs.incrementAndGet());
+        if (agents.putIfAbsent(agentId, agent) == null) {
+            setAvailable(agent, true);
+        }
+    }
+
+    /**
+     * The agent goes away, its conversations stay allocated until released or transferred
+     */
+    public void unregisterAgent(String agentId)
+    {
+        Agent agent = agents.remove(agentId);
+        if (agent != null) {
+            setAvailable(agent, false);
+        }
+    }
+
+    /**
+     * Pause or resume the allocations to the agent, the conversations allocated stay
+     */
+    public void setAvailable(String agentId, boolean available)
+    {
+        Agent agent = agents.get(agentId);
+        if (agent == null) {
+            throw new IllegalArgumentException("Unknown agent: " + agentId);
+        }
+        setAvailable(agent, available);
+    }
+
+    /**
+     * Allocate the conversation to an agent, completed at once if one is available, once served from
+     * the waiting queue otherwise
+     */
+    public ListenableFuture<Allocation> allocate(String customerId, String sessionId, int businessType)
+    {
+        checkState();
+        ListenableFuture<Allocation> future = new ListenableFuture<Allocation>();
+        Allocation allocated = allocations.get(sessionId);
+        if (allocated != null) {
+            future.complete(allocated);
+            return future;
+        }
+
+        BusinessQueue queue = queue(businessType);
+        long serviceNo = queue.nextServiceNo.incrementAndGet();
+        // The waiting customers go first
+        if (queue.waitingCount.get() == 0) {
+            Agent agent = reserve(queue);
+            if (agent != null) {
+                if (!serve(queue, new Waiting(customerId, sessionId, serviceNo, future), agent)) {
+                    unload(agent);
+                }
+                return future;
+            }
+        }
+
+        queue.waiting.offer(new Waiting(customerId, sessionId, serviceNo, future));
+        queue.waitingCount.incrementAndGet();
+        // An agent released since the reserve above must not miss this customer
+        dispatch(queue);
+        return future;
+    }
+
+    /**
+     * The conversation is over, false if not allocated
+     */
+    public boolean release(String sessionId)
+    {
+        Allocation allocation = allocations.remove(sessionId);
+        if (allocation == null) {
+            return false;
+        }
+        unload(allocation);
+        return true;
+    }
+
+    /**
+     * Move the conversation to another agent of its business type having room
+     */
+    public Allocation transfer(String sessionId, String toAgentId) throws AllocationException
+    {
+        checkState();
+        Agent target = agents.get(toAgentId);
+        while (true) {
+            Allocation allocation = allocations.get(sessionId);
+            if (allocation == null) {
+                throw new AllocationException(ErrorCode.ERROR_EXPIRED_ALLOCATION, "Conversation not allocated: " + sessionId);
+            }
+            if (allocation.getAgentId().equals(toAgentId) && (target == null || target.epoch == allocation.getAgentEpoch())) {
+                return allocation;
+            }
+            if (target == null || !target.serves(allocation.getBusinessType())) {
+                throw new AllocationException(ErrorCode.ERROR_NO_RESOURCE_FOUND, "No agent " + toAgentId
+                    + " for business type " + allocation.getBusinessType());
+            }
+            if (!load(target)) {
+                throw new AllocationException(ErrorCode.ERROR_NO_RESOURCE_FOUND, "Agent unavailable or full: " + toAgentId);
+            }
+
+            Allocation transferred = allocation.transfer(toAgentId, target.epoch);
+            if (allocations.replace(sessionId, allocation, transferred)) {
+                unload(allocation);
+                return transferred;
+            }
+            // Released or transferred meanwhile
+            unload(target);
+        }
+    }
+
+    public Allocation getAllocation(String sessionId)
+    {
+        return allocations.get(sessionId);
+    }
+
+    /**
+     * The last service number served of the business type
+     */
+    public long getCurrentServiceNo(int businessType)
+    {
+        BusinessQueue queue = queues.get(businessType);
+        return queue == null ? 0 : queue.currentServiceNo.get();
+    }
+
+    public int getWaitingCount(int businessType)
+    {
+        BusinessQueue queue = queues.get(businessType);
+        return queue == null ? 0 : queue.waitingCount.get();
+    }
+
+    /**
+     * The number of conversations of the agent, -1 if unknown
+     */
+    public int getLoad(String agentId)
+    {
+        Agent agent = agents.get(agentId);
+        return agent == null ? -1 : load(agent.state.get());
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        scheduler = new ScheduledExecutor("ConversationAllocator-Sweeper", true);
+        scheduler.schedule(new Sweeper(), sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        scheduler.shutdown();
+        for (BusinessQueue queue : queues.values()) {
+            Waiting waiting;
+            while ((waiting = queue.waiting.poll()) != null) {
+                waiting.future.fail(new AllocationException(ErrorCode.ERROR_INTERNAL_EXCEPTION, "Allocator stopped"));
+            }
+        }
+        queues.clear();
+        agents.clear();
+        allocations.clear();
+    }
+
+    /**
+     * Take one conversation on the least loaded available agent of the queue, null if none
+     */
+    private Agent reserve(BusinessQueue queue)
+    {
+        for (int load = 0; load < maxCapacity; load ++) {
+            Queue<Entry> bucket = queue.buckets[load];
+            Entry entry;
+            while ((entry = bucket.poll()) != null) {
+                queue.bucketSizes[load].decrementAndGet();
+                Agent agent = entry.agent;
+                long state = agent.state.get();
+                if (version(state) != entry.version || (state & AVAILABLE) == 0 || load(state) >= agent.capacity) {
+                    // Stale, the agent was published again at its current state if it can take more
+                    continue;
+                }
+                long next = state(version(state) + 1, true, load(state) + 1);
+                if (agent.state.compareAndSet(state, next)) {
+                    publish(agent, next);
+                    return agent;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take one more conversation on the agent, false if unavailable or full
+     */
+    private boolean load(Agent agent)
+    {
+        while (true) {
+            long state = agent.state.get();
+            if ((state & AVAILABLE) == 0 || load(state) >= agent.capacity) {
+                return false;
+            }
+            long next = state(version(state) + 1, true, load(state) + 1);
+            if (agent.state.compareAndSet(state, next)) {
+                publish(agent, next);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back the room of the conversation to the agent registration it was loaded on, nothing if
+     * the agent went away or registered again since
+     */
+    private void unload(Allocation allocation)
+    {
+        Agent agent = agents.get(allocation.getAgentId());
+        if (agent != null && agent.epoch == allocation.getAgentEpoch()) {
+            unload(agent);
+        }
+    }
+
+    /**
+     * One conversation less on the agent, then serve the waiting customers
+     */
+    private void unload(Agent agent)
+    {
+        decrement(agent);
+        for (BusinessQueue queue : agent.queues) {
+            dispatch(queue);
+        }
+    }
+
+    private void decrement(Agent agent)
+    {
+        while (true) {
+            long state = agent.state.get();
+            long next = state(version(state) + 1, (state & AVAILABLE) != 0, Math.max(0, load(state) - 1));
+            if (agent.state.compareAndSet(state, next)) {
+                publish(agent, next);
+                return;
+            }
+        }
+    }
+
+    private void setAvailable(Agent agent, boolean available)
+    {
+        while (true) {
+            long state = agent.state.get();
+            long next = state(version(state) + 1, available, load(state));
+            if (agent.state.compareAndSet(state, next)) {
+                publish(agent, next);
+                break;
+            }
+        }
+        if (available) {
+            for (BusinessQueue queue : agent.queues) {
+                dispatch(queue);
+            }
+        }
+    }
+
+    /**
+     * Put the agent in the bucket of its load in its queues if it can take more
+     */
+    private void publish(Agent agent, long state)
+    {
+        int load = load(state);
+        if ((state & AVAILABLE) == 0 || load >= agent.capacity || agents.get(agent.agentId) != agent) {
+            return;
+        }
+        Entry entry = new Entry(agent, version(state));
+        for (BusinessQueue queue : agent.queues) {
+            queue.buckets[load].offer(entry);
+            if (queue.bucketSizes[load].incrementAndGet() > 2 * agents.size() + 16) {
+                purge(queue, load);
+            }
+        }
+    }
+
+    /**
+     * Drop the stale entries of a bucket rarely polled
+     */
+    private void purge(BusinessQueue queue, int load)
+    {
+        for (Iterator<Entry> it = queue.buckets[load].iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (version(entry.agent.state.get()) != entry.version) {
+                it.remove();
+                queue.bucketSizes[load].decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Serve the waiting customers of the queue while agents have room
+     */
+    private void dispatch(BusinessQueue queue)
+    {
+        while (queue.waitingCount.get() > 0) {
+            Agent agent = reserve(queue);
+            if (agent == null) {
+                return;
+            }
+
+            Waiting waiting;
+            while ((waiting = queue.waiting.poll()) != null) {
+                queue.waitingCount.decrementAndGet();
+                if (!waiting.future.isDone()) {
+                    break;
+                }
+            }
+            if (waiting == null || !serve(queue, waiting, agent)) {
+                // Give the room back and look again, a customer may have queued since the poll
+                decrement(agent);
+            }
+        }
+    }
+
+    /**
+     * Allocate the customer to the agent reserved, false if its wait expired meanwhile
+     */
+    private boolean serve(BusinessQueue queue, Waiting waiting, Agent agent)
+    {
+        Allocation allocation = Allocation.create(waiting.sessionId, waiting.customerId, agent.agentId,
+            queue.businessType, waiting.serviceNo, agent.epoch);
+        // Visible before the customer hears of it, a release may follow at once
+        if (allocations.putIfAbsent(waiting.sessionId, allocation) != null) {
+            // Allocated by a duplicate request meanwhile
+            waiting.future.complete(allocations.get(waiting.sessionId));
+            return false;
+        }
+        if (!waiting.future.complete(allocation)) {
+            allocations.remove(waiting.sessionId, allocation);
+            return false;
+        }
+
+        long current;
+        while ((current = queue.currentServiceNo.get()) < waiting.serviceNo) {
+            if (queue.currentServiceNo.compareAndSet(current, waiting.serviceNo)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private void expire(long now)
+    {
+        for (BusinessQueue queue : queues.values()) {
+            for (Iterator<Waiting> it = queue.waiting.iterator(); it.hasNext(); ) {
+                Waiting waiting = it.next();
+                if (now - waiting.createTime < waitTimeoutMillis && !waiting.future.isDone()) {
+                    continue;
+                }
+                if (queue.waiting.remove(waiting)) {
+                    queue.waitingCount.decrementAndGet();
+                    if (waiting.future.fail(new AllocationException(ErrorCode.ERROR_EXPIRED_ALLOCATION,
+                        "No agent available in time, service no " + waiting.serviceNo))) {
+                        LOG.debug("Allocation of {} expired, business type {}", waiting.sessionId, queue.businessType);
+                    }
+                }
+            }
+        }
+    }
+
+    private BusinessQueue queue(int businessType)
+    {
+        BusinessQueue queue = queues.get(businessType);
+        if (queue == null) {
+            BusinessQueue created = new BusinessQueue(businessType, maxCapacity);
+            queue = queues.putIfAbsent(businessType, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    private static long state(int version, boolean available, int load)
+    {
+        return ((long) version << 32) | (available ? AVAILABLE : 0) | load;
+    }
+
+    private static int version(long state)
+    {
+        return (int) (state >>> 32);
+    }
+
+    private static int load(long state)
+    {
+        return (int) (state & LOAD_MASK);
+    }
+
+    private void checkState()
+    {
+        if (!isRunning()) {
+            throw new IllegalStateException("Invalid conversation allocator state, state:" + getState());
+        }
+    }
+
+    /**
+     * Conversations of an agent at most, 64 by default
+     */
+    @SuppressWarnings("unused")
+    public void setMaxCapacity(int maxCapacity)
+    {
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * Wait of a customer before ERROR_EXPIRED_ALLOCATION, 60 seconds by default
+     */
+    @SuppressWarnings("unused")
+    public void setWaitTimeoutMillis(long waitTimeoutMillis)
+    {
+        this.waitTimeoutMillis = waitTimeoutMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setSweepIntervalMillis(long sweepIntervalMillis)
+    {
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    private class Sweeper implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isRunning()) {
+                return;
+            }
+
+            try {
+                expire(System.currentTimeMillis());
+            } catch (Throwable ex) {
+                LOG.error("Expire waiting customers exception", ex);
+            } finally {
+                if (isRunning()) {
+                    scheduler.schedule(this, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private static class Agent
+    {
+        final String agentId;
+        final BusinessQueue[] queues;
+        final int capacity;
+        final long epoch;
+        final AtomicLong state = new AtomicLong();
+
+        Agent(String agentId, BusinessQueue[] queues, int capacity, long epoch)
+        {
+            this.agentId = agentId;
+            this.queues = queues;
+            this.capacity = capacity;
+            this.epoch = epoch;
+        }
+
+        boolean serves(int businessType)
+        {
+            for (BusinessQueue queue : queues) {
+                if (queue.businessType == businessType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Entry
+    {
+        final Agent agent;
+        final int version;
+
+        Entry(Agent agent, int version)
+        {
+            this.agent = agent;
+            this.version = version;
+        }
+    }
+
+    private static class Waiting
+    {
+        final String customerId;
+        final String sessionId;
+        final long serviceNo;
+        final ListenableFuture<Allocation> future;
+        final long createTime = System.currentTimeMillis();
+
+        Waiting(String customerId, String sessionId, long serviceNo, ListenableFuture<Allocation> future)
+        {
+            this.customerId = customerId;
+            this.sessionId = sessionId;
+            this.serviceNo = serviceNo;
+            this.future = future;
+        }
+    }
+
+    private static class BusinessQueue
+    {
+        final int businessType;
+        final Queue<Entry>[] buckets;
+        final AtomicInteger[] bucketSizes;
+        final Queue<Waiting> waiting = new ConcurrentLinkedQueue<Waiting>();
+        final AtomicInteger waitingCount = new AtomicInteger();
+        final AtomicLong nextServiceNo = new AtomicLong();
+        final AtomicLong currentServiceNo = new AtomicLong();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BusinessQueue(int businessType, int maxCapacity)
+        {
+            this.businessType = businessType;
+            this.buckets = new Queue[maxCapacity];
+            this.bucketSizes = new AtomicInteger[maxCapacity];
+            for (int i = 0; i < maxCapacity; i ++) {
+                buckets[i] = new ConcurrentLinkedQueue<Entry>();
+                bucketSizes[i] = new AtomicInteger();
+            }
+        }
+    }
+}
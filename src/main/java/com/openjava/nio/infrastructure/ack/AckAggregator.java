@@ -0,0 +1,316 @@
+package com.openjava.nio.infrastructure.ack;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.infrastructure.type.Message;
+import com.openjava.nio.infrastructure.type.SequenceAck;
+import com.openjava.nio.util.ScheduledExecutor;
+
+/**
+ * Merge the acknowledgements of each user and conversation into its SequenceWindow and hand one
+ * SequenceAck per changed window to the listener every flush interval, instead of one ack per message.
+ * The sequence numbers of a conversation start at 1 unless open() says otherwise, the windows
+ * untouched for the idle time are dropped.
+ */
+public class AckAggregator extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(AckAggregator.class);
+
+    private long flushIntervalMillis = 50;
+    private long idleMillis = 10 * 60 * 1000;
+    private int windowCapacity = SequenceWindow.DEFAULT_CAPACITY;
+    private int maxWindowCapacity = SequenceWindow.DEFAULT_MAX_CAPACITY;
+    private IAckListener listener;
+
+    private final ConcurrentMap<Key, Window> windows = new ConcurrentHashMap<Key, Window>();
+    private final Queue<Window> dirty = new ConcurrentLinkedQueue<Window>();
+    private ScheduledExecutor scheduler;
+    private long lastSweepTime;
+
+    public static AckAggregator create(IAckListener listener)
+    {
+        AckAggregator aggregator = new AckAggregator();
+        aggregator.setListener(listener);
+        return aggregator;
+    }
+
+    /**
+     * Start the window of a conversation whose sequences up to cumulative are acknowledged, on a resumed
+     * conversation for instance
+     */
+    public void open(String userId, String sessionId, int cumulative)
+    {
+        Key key = new Key(userId, sessionId);
+        Window window = new Window(key, SequenceWindow.create(cumulative, windowCapacity, maxWindowCapacity));
+        window.accessTime = System.currentTimeMillis();
+        windows.put(key, window);
+    }
+
+    /**
+     * Acknowledge one message of the conversation by its sequence number
+     */
+    public void ack(String userId, String sessionId, int sequenceNo)
+    {
+        Window window = window(userId, sessionId);
+        boolean changed;
+        synchronized (window) {
+            changed = window.sequences.ack(sequenceNo);
+        }
+        if (changed) {
+            dirty(window);
+        }
+    }
+
+    public void ack(String userId, Message message)
+    {
+        ack(userId, message.getSessionId(), message.getSequenceNo());
+    }
+
+    /**
+     * Merge an ack frame of the peer
+     */
+    public void ack(SequenceAck ack)
+    {
+        Window window = window(ack.getUserId(), ack.getSessionId());
+        int count;
+        synchronized (window) {
+            count = window.sequences.ack(ack);
+        }
+        if (count > 0) {
+            dirty(window);
+        }
+    }
+
+    /**
+     * Record a message sent to the user, see getUnacked()
+     */
+    public void delivered(String userId, String sessionId, int sequenceNo)
+    {
+        Window window = window(userId, sessionId);
+        synchronized (window) {
+            window.sequences.delivered(sequenceNo);
+        }
+    }
+
+    public boolean isAcked(String userId, String sessionId, int sequenceNo)
+    {
+        Window window = windows.get(new Key(userId, sessionId));
+        if (window == null) {
+            return false;
+        }
+        synchronized (window) {
+            return window.sequences.isAcked(sequenceNo);
+        }
+    }
+
+    /**
+     * The delivered sequences of the conversation not acknowledged yet, at most max of them
+     */
+    public int[] getUnacked(String userId, String sessionId, int max)
+    {
+        Window window = windows.get(new Key(userId, sessionId));
+        if (window == null) {
+            return new int[0];
+        }
+        synchronized (window) {
+            return window.sequences.getUnacked(max);
+        }
+    }
+
+    /**
+     * Forget the window of a closed conversation
+     */
+    public void remove(String userId, String sessionId)
+    {
+        windows.remove(new Key(userId, sessionId));
+    }
+
+    public int getWindowCount()
+    {
+        return windows.size();
+    }
+
+    /**
+     * Hand the changed windows to the listener now
+     */
+    public void flush()
+    {
+        Window window;
+        while ((window = dirty.poll()) != null) {
+            SequenceAck ack;
+            synchronized (window) {
+                window.dirty = false;
+                ack = window.sequences.toAck(window.key.userId, window.key.sessionId);
+            }
+            try {
+                listener.onAck(ack);
+            } catch (Exception ex) {
+                LOG.error("Ack listener exception: " + ack, ex);
+            }
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (listener == null) {
+            throw new IllegalArgumentException("Ack listener not set");
+        }
+        lastSweepTime = System.currentTimeMillis();
+        scheduler = new ScheduledExecutor("AckAggregator-Flusher", true);
+        scheduler.schedule(new Flusher(), flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        scheduler.shutdown();
+        flush();
+        windows.clear();
+    }
+
+    private Window window(String userId, String sessionId)
+    {
+        Key key = new Key(userId, sessionId);
+        Window window = windows.get(key);
+        if (window == null) {
+            window = new Window(key, SequenceWindow.create(0, windowCapacity, maxWindowCapacity));
+            Window previous = windows.putIfAbsent(key, window);
+            if (previous != null) {
+                window = previous;
+            }
+        }
+        window.accessTime = System.currentTimeMillis();
+        return window;
+    }
+
+    private void dirty(Window window)
+    {
+        synchronized (window) {
+            if (window.dirty) {
+                return;
+            }
+            window.dirty = true;
+        }
+        dirty.offer(window);
+    }
+
+    private void sweep(long now)
+    {
+        for (Iterator<Window> it = windows.values().iterator(); it.hasNext(); ) {
+            Window window = it.next();
+            if (now - window.accessTime > idleMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void setListener(IAckListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Delay of the acknowledgements, 50ms by default
+     */
+    @SuppressWarnings("unused")
+    public void setFlushIntervalMillis(long flushIntervalMillis)
+    {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Drop the windows untouched for so long, 10 minutes by default
+     */
+    @SuppressWarnings("unused")
+    public void setIdleMillis(long idleMillis)
+    {
+        this.idleMillis = idleMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setWindowCapacity(int windowCapacity, int maxWindowCapacity)
+    {
+        this.windowCapacity = windowCapacity;
+        this.maxWindowCapacity = maxWindowCapacity;
+    }
+
+    private class Flusher implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isRunning()) {
+                return;
+            }
+
+            try {
+                flush();
+                long now = System.currentTimeMillis();
+                if (now - lastSweepTime > idleMillis / 2) {
+                    lastSweepTime = now;
+                    sweep(now);
+                }
+            } catch (Throwable ex) {
+                LOG.error("Flush acks exception", ex);
+            } finally {
+                if (isRunning()) {
+                    scheduler.schedule(this, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private static class Key
+    {
+        final String userId;
+        final String sessionId;
+
+        Key(String userId, String sessionId)
+        {
+            this.userId = userId;
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (userId == null ? 0 : userId.hashCode()) + (sessionId == null ? 0 : sessionId.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (userId == null ? other.userId == null : userId.equals(other.userId))
+                && (sessionId == null ? other.sessionId == null : sessionId.equals(other.sessionId));
+        }
+    }
+
+    private static class Window
+    {
+        final Key key;
+        final SequenceWindow sequences;
+        volatile long accessTime;
+        boolean dirty;
+
+        Window(Key key, SequenceWindow sequences)
+        {
+            this.key = key;
+            this.sequences = sequences;
+        }
+    }
+}
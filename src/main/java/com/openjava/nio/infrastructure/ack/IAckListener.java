@@ -0,0 +1,12 @@
+package com.openjava.nio.infrastructure.ack;
+
+import com.openjava.nio.infrastructure.type.SequenceAck;
+
+public interface IAckListener
+{
+    /**
+     * Fired on the flush timer with the window of a conversation acknowledged since the last flush.
+     * The frames are cumulative, applying one twice is harmless.
+     */
+    void onAck(SequenceAck ack);
+}
@@ -0,0 +1,269 @@
+package com.openjava.nio.infrastructure.ack;
+
+import java.util.Arrays;
+
+import com.openjava.nio.infrastructure.type.SequenceAck;
+
+/**
+ * Sliding window of the acknowledged sequence numbers of one conversation: the cumulative sequence
+ * below which everything is acknowledged and a ring bitset of the sequences acknowledged above it.
+ * The window grows up to the max capacity, a sequence further than that slides the window and gives
+ * up the holes left behind, so a frame costs at most the max capacity whatever its ranges. The
+ * distances are computed on longs: the sequences near Integer.MAX_VALUE do not wrap. Not thread safe.
+ */
+public class SequenceWindow
+{
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_CAPACITY = SequenceAck.MAX_SPAN;
+
+    private final int maxCapacity;
+    private long[] words;
+    private int mask;
+    private int cumulative;
+    private int highestAcked;
+    private int highestDelivered;
+
+    private SequenceWindow(int cumulative, int capacity, int maxCapacity)
+    {
+        this.maxCapacity = maxCapacity;
+        this.words = new long[capacity >>> 6];
+        this.mask = capacity - 1;
+        this.cumulative = cumulative;
+        this.highestAcked = cumulative;
+        this.highestDelivered = cumulative;
+    }
+
+    /**
+     * The window of a conversation whose sequences up to cumulative are acknowledged
+     */
+    public static SequenceWindow create(int cumulative)
+    {
+        return create(cumulative, DEFAULT_CAPACITY, DEFAULT_MAX_CAPACITY);
+    }
+
+    public static SequenceWindow create(int cumulative, int capacity, int maxCapacity)
+    {
+        if (Integer.bitCount(capacity) != 1 || capacity < 64 || Integer.bitCount(maxCapacity) != 1
+            || maxCapacity < capacity || maxCapacity > SequenceAck.MAX_SPAN) {
+            throw new IllegalArgumentException("Invalid window capacity: " + capacity + "/" + maxCapacity);
+        }
+        return new SequenceWindow(cumulative, capacity, maxCapacity);
+    }
+
+    /**
+     * Acknowledge one sequence, false if it was already
+     */
+    public boolean ack(int sequenceNo)
+    {
+        if (sequenceNo <= cumulative) {
+            return false;
+        }
+        ensure(sequenceNo);
+        int index = sequenceNo & mask;
+        long bit = 1L << index;
+        if ((words[index >>> 6] & bit) != 0) {
+            return false;
+        }
+        words[index >>> 6] |= bit;
+        highestAcked = Math.max(highestAcked, sequenceNo);
+        if (sequenceNo == cumulative + 1) {
+            advance();
+        }
+        return true;
+    }
+
+    /**
+     * Acknowledge the sequences of the frame, the number newly acknowledged
+     */
+    public int ack(SequenceAck ack)
+    {
+        int count = ackUpTo(ack.getCumulative());
+        int[] ranges = ack.getRanges();
+        for (int i = 0; i < ranges.length; i += 2) {
+            int to = ranges[i + 1];
+            if ((long) to - cumulative > maxCapacity) {
+                // Slide first so the range walk below stays within the window
+                count += ackUpTo(to - maxCapacity);
+            }
+            if (to <= cumulative) {
+                continue;
+            }
+            for (int sequenceNo = Math.max(ranges[i], cumulative + 1); ; sequenceNo ++) {
+                if (ack(sequenceNo)) {
+                    count ++;
+                }
+                if (sequenceNo == to) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Acknowledge every sequence up to the given one, the number newly acknowledged
+     */
+    public int ackUpTo(int sequenceNo)
+    {
+        if (sequenceNo <= cumulative) {
+            return 0;
+        }
+        int count = 0;
+        if ((long) sequenceNo - cumulative > mask + 1) {
+            // Beyond the window, the bits set are all below the new cumulative
+            count = (int) Math.min(Integer.MAX_VALUE, (long) sequenceNo - cumulative - cardinality());
+            Arrays.fill(words, 0);
+            cumulative = sequenceNo;
+            highestAcked = Math.max(highestAcked, sequenceNo);
+        } else {
+            while (cumulative < sequenceNo) {
+                int index = (cumulative + 1) & mask;
+                long bit = 1L << index;
+                if ((words[index >>> 6] & bit) == 0) {
+                    count ++;
+                } else {
+                    words[index >>> 6] &= ~bit;
+                }
+                cumulative ++;
+            }
+            highestAcked = Math.max(highestAcked, sequenceNo);
+        }
+        advance();
+        return count;
+    }
+
+    /**
+     * Record a sequence sent to the peer, see getUnacked()
+     */
+    public void delivered(int sequenceNo)
+    {
+        highestDelivered = Math.max(highestDelivered, sequenceNo);
+    }
+
+    public boolean isAcked(int sequenceNo)
+    {
+        if (sequenceNo <= cumulative) {
+            return true;
+        }
+        if (sequenceNo > highestAcked) {
+            return false;
+        }
+        int index = sequenceNo & mask;
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * The sequences delivered but not acknowledged yet, at most max of them
+     */
+    public int[] getUnacked(int max)
+    {
+        int[] result = new int[(int) Math.min(max, Math.max(0, (long) highestDelivered - cumulative))];
+        int count = 0;
+        for (long sequenceNo = cumulative + 1L; sequenceNo <= highestDelivered && count < result.length; sequenceNo ++) {
+            if (!isAcked((int) sequenceNo)) {
+                result[count ++] = (int) sequenceNo;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    public int getCumulative()
+    {
+        return cumulative;
+    }
+
+    public int getHighestAcked()
+    {
+        return highestAcked;
+    }
+
+    public int getHighestDelivered()
+    {
+        return highestDelivered;
+    }
+
+    /**
+     * The cumulative sequence and the selective ranges of the window
+     */
+    public SequenceAck toAck(String userId, String sessionId)
+    {
+        int[] ranges = new int[8];
+        int count = 0;
+        long sequenceNo = cumulative + 2L;
+        while (sequenceNo <= highestAcked) {
+            if (!isAcked((int) sequenceNo)) {
+                sequenceNo ++;
+                continue;
+            }
+            long from = sequenceNo;
+            while (sequenceNo + 1 <= highestAcked && isAcked((int) (sequenceNo + 1))) {
+                sequenceNo ++;
+            }
+            if (count == ranges.length) {
+                ranges = Arrays.copyOf(ranges, count * 2);
+            }
+            ranges[count ++] = (int) from;
+            ranges[count ++] = (int) sequenceNo;
+            sequenceNo += 2;
+        }
+        return SequenceAck.create(userId, sessionId, cumulative, Arrays.copyOf(ranges, count));
+    }
+
+    /**
+     * Move the cumulative sequence over the acknowledged ones right above it
+     */
+    private void advance()
+    {
+        while (cumulative != Integer.MAX_VALUE) {
+            int index = (cumulative + 1) & mask;
+            long bit = 1L << index;
+            if ((words[index >>> 6] & bit) == 0) {
+                return;
+            }
+            words[index >>> 6] &= ~bit;
+            cumulative ++;
+        }
+    }
+
+    /**
+     * Room in the window for the sequence, grow or slide
+     */
+    private void ensure(int sequenceNo)
+    {
+        int capacity = mask + 1;
+        long distance = (long) sequenceNo - cumulative;
+        if (distance <= capacity) {
+            return;
+        }
+        if (capacity < maxCapacity) {
+            int newCapacity = capacity;
+            while (newCapacity < maxCapacity && distance > newCapacity) {
+                newCapacity <<= 1;
+            }
+            long[] newWords = new long[newCapacity >>> 6];
+            int newMask = newCapacity - 1;
+            for (long s = cumulative + 1L; s <= highestAcked; s ++) {
+                if (isAcked((int) s)) {
+                    int index = (int) s & newMask;
+                    newWords[index >>> 6] |= 1L << index;
+                }
+            }
+            words = newWords;
+            mask = newMask;
+            capacity = newCapacity;
+        }
+        if (distance > capacity) {
+            // Give up the oldest holes
+            ackUpTo(sequenceNo - capacity);
+        }
+    }
+
+    private int cardinality()
+    {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
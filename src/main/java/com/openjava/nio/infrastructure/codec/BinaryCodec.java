@@ -0,0 +1,561 @@
+package com.openjava.nio.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.openjava.nio.infrastructure.type.AckRequest;
+import com.openjava.nio.infrastructure.type.ConversationEvent;
+import com.openjava.nio.infrastructure.type.Message;
+import com.openjava.nio.infrastructure.type.SequenceAck;
+import com.openjava.nio.infrastructure.type.UserAnnouncement;
+import com.openjava.nio.infrastructure.type.UserEvent;
+import com.openjava.nio.infrastructure.type.UserNotification;
+import com.openjava.nio.util.IdGenerator;
+
+/**
+ * Compact binary form of the message types: [byte type][varint presence bits][present fields].
+ * The null strings and the zero numbers are absent, the numbers are varints, the strings are
+ * length prefixed UTF-8 and the ids of IdGenerator are sent as numbers.
+ *
+ * The user ids and names, session ids and business ids may be sent once per connection then
+ * referenced through a StringDictionary. Such a codec is stateful: create one per connection,
+ * encode and decode in the send order, one thread encoding and one thread decoding at a time.
+ * The codec without dictionary is stateless and thread safe.
+ */
+public class BinaryCodec
+{
+    public static final int TYPE_MESSAGE = 1;
+    public static final int TYPE_USER_NOTIFICATION = 2;
+    public static final int TYPE_USER_EVENT = 3;
+    public static final int TYPE_CONVERSATION_EVENT = 4;
+    public static final int TYPE_ACK_REQUEST = 5;
+    public static final int TYPE_USER_ANNOUNCEMENT = 6;
+    public static final int TYPE_SEQUENCE_ACK = 7;
+
+    private static final BinaryCodec STATELESS = new BinaryCodec(null, null);
+
+    private final StringDictionary outgoing;
+    private final StringDictionary incoming;
+
+    private BinaryCodec(StringDictionary outgoing, StringDictionary incoming)
+    {
+        this.outgoing = outgoing;
+        this.incoming = incoming;
+    }
+
+    /**
+     * The codec without dictionary
+     */
+    public static BinaryCodec create()
+    {
+        return STATELESS;
+    }
+
+    /**
+     * The codec of one connection, the peer must use a dictionary of the same limits
+     */
+    public static BinaryCodec create(StringDictionary outgoing, StringDictionary incoming)
+    {
+        return new BinaryCodec(outgoing, incoming);
+    }
+
+    public byte[] encode(Object value)
+    {
+        BinaryWriter out = BinaryWriter.create(256);
+        encode(value, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Nothing is written and the dictionary is left as it was if the encoding fails, so the peer
+     * dictionary stays in step
+     */
+    public void encode(Object value, BinaryWriter out)
+    {
+        int position = out.position();
+        int mark = outgoing == null ? 0 : outgoing.mark();
+        try {
+            write(value, out);
+        } catch (RuntimeException ex) {
+            out.position(position);
+            if (outgoing != null) {
+                outgoing.rollback(mark);
+            }
+            throw ex;
+        }
+    }
+
+    private void write(Object value, BinaryWriter out)
+    {
+        if (value instanceof Message) {
+            out.writeByte(TYPE_MESSAGE);
+            writeMessage((Message) value, out);
+        } else if (value instanceof UserNotification) {
+            out.writeByte(TYPE_USER_NOTIFICATION);
+            writeUserNotification((UserNotification) value, out);
+        } else if (value instanceof ConversationEvent) {
+            out.writeByte(TYPE_CONVERSATION_EVENT);
+            writeConversationEvent((ConversationEvent) value, out);
+        } else if (value instanceof UserEvent) {
+            out.writeByte(TYPE_USER_EVENT);
+            writeUserEvent((UserEvent) value, out);
+        } else if (value instanceof AckRequest) {
+            out.writeByte(TYPE_ACK_REQUEST);
+            writeAckRequest((AckRequest) value, out);
+        } else if (value instanceof UserAnnouncement) {
+            out.writeByte(TYPE_USER_ANNOUNCEMENT);
+            writeUserAnnouncement((UserAnnouncement) value, out);
+        } else if (value instanceof SequenceAck) {
+            out.writeByte(TYPE_SEQUENCE_ACK);
+            writeSequenceAck((SequenceAck) value, out);
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + (value == null ? null : value.getClass()));
+        }
+    }
+
+    public Object decode(byte[] data)
+    {
+        return decode(BinaryReader.wrap(data));
+    }
+
+    public Object decode(ByteBuffer data)
+    {
+        return decode(BinaryReader.wrap(data));
+    }
+
+    public Object decode(BinaryReader in)
+    {
+        int type = in.readByte();
+        switch (type) {
+        case TYPE_MESSAGE:
+            return readMessage(in);
+        case TYPE_USER_NOTIFICATION:
+            return readUserNotification(in);
+        case TYPE_USER_EVENT:
+            return readUserEvent(in);
+        case TYPE_CONVERSATION_EVENT:
+            return readConversationEvent(in);
+        case TYPE_ACK_REQUEST:
+            return readAckRequest(in);
+        case TYPE_USER_ANNOUNCEMENT:
+            return readUserAnnouncement(in);
+        case TYPE_SEQUENCE_ACK:
+            return readSequenceAck(in);
+        default:
+            throw new IllegalArgumentException("Unknown binary type: " + type);
+        }
+    }
+
+    private void writeMessage(Message message, BinaryWriter out)
+    {
+        out.writeVarInt(bits(message.getSessionId(), message.getMessageId(), message.getFromUser(),
+            message.getFromRealName(), message.getFromNickName(), message.getToUser(), message.getToUserName(),
+            message.getMessage(), message.getStyle()) | bit(9, message.getBusinessType())
+            | bit(10, message.getBusinessId()) | bit(11, message.getSequenceNo()) | bit(12, message.getTimestamp())
+            | bit(13, message.getState()));
+        writeShared(message.getSessionId(), out);
+        writeId(message.getMessageId(), out);
+        writeShared(message.getFromUser(), out);
+        writeShared(message.getFromRealName(), out);
+        writeShared(message.getFromNickName(), out);
+        writeShared(message.getToUser(), out);
+        writeShared(message.getToUserName(), out);
+        writeString(message.getMessage(), out);
+        writeShared(message.getStyle(), out);
+        writeInt(message.getBusinessType(), out);
+        writeShared(message.getBusinessId(), out);
+        writeInt(message.getSequenceNo(), out);
+        writeLong(message.getTimestamp(), out);
+        writeInt(message.getState(), out);
+    }
+
+    private Message readMessage(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        String sessionId = readShared(bits, 0, in);
+        String messageId = readId(bits, 1, in);
+        String fromUser = readShared(bits, 2, in);
+        String fromRealName = readShared(bits, 3, in);
+        String fromNickName = readShared(bits, 4, in);
+        String toUser = readShared(bits, 5, in);
+        String toUserName = readShared(bits, 6, in);
+        String text = readString(bits, 7, in);
+        String style = readShared(bits, 8, in);
+        int businessType = readInt(bits, 9, in);
+        String businessId = readShared(bits, 10, in);
+        int sequenceNo = readInt(bits, 11, in);
+        long timestamp = readLong(bits, 12, in);
+        int state = readInt(bits, 13, in);
+
+        Message message = Message.create(sessionId, messageId, fromUser, toUser, text, style, businessType,
+            businessId, sequenceNo, timestamp, state, fromRealName, fromNickName, toUserName);
+        // The factory always creates unread messages
+        message.setState(state);
+        return message;
+    }
+
+    private void writeUserNotification(UserNotification notification, BinaryWriter out)
+    {
+        out.writeVarInt(bit(0, notification.getId()) | bit(1, notification.getType())
+            | bit(2, notification.getSessionId()) | bit(3, notification.getFromUser())
+            | bit(4, notification.getToUser()) | bit(5, notification.getBusinessId())
+            | bit(6, notification.getMessage()) | bit(7, notification.getSentTime())
+            | bit(8, notification.getFromRealName()) | bit(9, notification.getFromNickName())
+            | bit(10, notification.getToUserName()));
+        writeId(notification.getId(), out);
+        writeInt(notification.getType(), out);
+        writeShared(notification.getSessionId(), out);
+        writeShared(notification.getFromUser(), out);
+        writeShared(notification.getToUser(), out);
+        writeShared(notification.getBusinessId(), out);
+        writeString(notification.getMessage(), out);
+        writeLong(notification.getSentTime(), out);
+        writeShared(notification.getFromRealName(), out);
+        writeShared(notification.getFromNickName(), out);
+        writeShared(notification.getToUserName(), out);
+    }
+
+    private UserNotification readUserNotification(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        String id = readId(bits, 0, in);
+        int type = readInt(bits, 1, in);
+        String sessionId = readShared(bits, 2, in);
+        String fromUser = readShared(bits, 3, in);
+        String toUser = readShared(bits, 4, in);
+        String businessId = readShared(bits, 5, in);
+        String message = readString(bits, 6, in);
+        long sentTime = readLong(bits, 7, in);
+        String fromRealName = readShared(bits, 8, in);
+        String fromNickName = readShared(bits, 9, in);
+        String toUserName = readShared(bits, 10, in);
+        return UserNotification.create(id, type, sessionId, fromUser, toUser, businessId, message, sentTime,
+            fromRealName, fromNickName, toUserName);
+    }
+
+    private void writeUserEvent(UserEvent event, BinaryWriter out)
+    {
+        out.writeVarInt(userEventBits(event));
+        writeUserEventFields(event, out);
+    }
+
+    private UserEvent readUserEvent(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        int type = readInt(bits, 0, in);
+        String sessionId = readShared(bits, 1, in);
+        String fromUserId = readShared(bits, 2, in);
+        String toUserId = readShared(bits, 3, in);
+        String fromUserName = readShared(bits, 4, in);
+        String toUserName = readShared(bits, 5, in);
+        return UserEvent.create(type, sessionId, fromUserId, toUserId, fromUserName, toUserName);
+    }
+
+    private void writeConversationEvent(ConversationEvent event, BinaryWriter out)
+    {
+        out.writeVarInt(userEventBits(event) | bit(6, event.getUserId()) | bit(7, event.getBusinessType())
+            | bit(8, event.getBusinessId()) | bit(9, event.getReason()));
+        writeUserEventFields(event, out);
+        writeShared(event.getUserId(), out);
+        writeInt(event.getBusinessType(), out);
+        writeShared(event.getBusinessId(), out);
+        writeString(event.getReason(), out);
+    }
+
+    private ConversationEvent readConversationEvent(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        int type = readInt(bits, 0, in);
+        String sessionId = readShared(bits, 1, in);
+        String fromUserId = readShared(bits, 2, in);
+        String toUserId = readShared(bits, 3, in);
+        String fromUserName = readShared(bits, 4, in);
+        String toUserName = readShared(bits, 5, in);
+        String userId = readShared(bits, 6, in);
+        int businessType = readInt(bits, 7, in);
+        String businessId = readShared(bits, 8, in);
+        String reason = readString(bits, 9, in);
+        return ConversationEvent.create(type, userId, fromUserId, fromUserName, toUserId, toUserName, sessionId,
+            businessType, businessId, reason);
+    }
+
+    private static int userEventBits(UserEvent event)
+    {
+        return bit(0, event.getType()) | bit(1, event.getSessionId()) | bit(2, event.getFromUserId())
+            | bit(3, event.getToUserId()) | bit(4, event.getFromUserName()) | bit(5, event.getToUserName());
+    }
+
+    private void writeUserEventFields(UserEvent event, BinaryWriter out)
+    {
+        writeInt(event.getType(), out);
+        writeShared(event.getSessionId(), out);
+        writeShared(event.getFromUserId(), out);
+        writeShared(event.getToUserId(), out);
+        writeShared(event.getFromUserName(), out);
+        writeShared(event.getToUserName(), out);
+    }
+
+    private void writeAckRequest(AckRequest request, BinaryWriter out)
+    {
+        List<String> ackIds = request.getAckIds();
+        if (ackIds != null && ackIds.contains(null)) {
+            throw new IllegalArgumentException("Null ack id of user: " + request.getUserId());
+        }
+        out.writeVarInt(bit(0, request.getUserId()) | (ackIds == null ? 0 : 1 << 1) | bit(2, request.getAckType()));
+        writeShared(request.getUserId(), out);
+        if (ackIds != null) {
+            out.writeVarInt(ackIds.size());
+            for (String ackId : ackIds) {
+                writeId(ackId, out);
+            }
+        }
+        writeInt(request.getAckType(), out);
+    }
+
+    private AckRequest readAckRequest(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        String userId = readShared(bits, 0, in);
+        List<String> ackIds = null;
+        if ((bits & (1 << 1)) != 0) {
+            int size = in.readVarInt();
+            // An id takes one byte at least
+            if (size < 0 || size > in.remaining()) {
+                throw new IllegalArgumentException("Malformed ack ids count: " + size);
+            }
+            ackIds = new ArrayList<String>(size);
+            for (int i = 0; i < size; i ++) {
+                ackIds.add(readId(in));
+            }
+        }
+        int ackType = readInt(bits, 2, in);
+        return AckRequest.create(userId, ackIds, ackType);
+    }
+
+    private void writeUserAnnouncement(UserAnnouncement announcement, BinaryWriter out)
+    {
+        out.writeVarInt(bit(0, announcement.getFromUser()) | bit(1, announcement.getToUser())
+            | bit(2, announcement.getType()) | bit(3, announcement.getUnreadNum())
+            | bit(4, announcement.getFromUserName()) | bit(5, announcement.getToUserName()));
+        writeShared(announcement.getFromUser(), out);
+        writeShared(announcement.getToUser(), out);
+        writeInt(announcement.getType(), out);
+        writeInt(announcement.getUnreadNum(), out);
+        writeShared(announcement.getFromUserName(), out);
+        writeShared(announcement.getToUserName(), out);
+    }
+
+    private UserAnnouncement readUserAnnouncement(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        String fromUser = readShared(bits, 0, in);
+        String toUser = readShared(bits, 1, in);
+        int type = readInt(bits, 2, in);
+        int unreadNum = readInt(bits, 3, in);
+        String fromUserName = readShared(bits, 4, in);
+        String toUserName = readShared(bits, 5, in);
+        return UserAnnouncement.create(fromUser, toUser, type, unreadNum, fromUserName, toUserName);
+    }
+
+    /**
+     * The ranges as gaps: [varint count][varint from - previous to][varint to - from]...
+     */
+    private void writeSequenceAck(SequenceAck ack, BinaryWriter out)
+    {
+        int[] ranges = ack.getRanges();
+        out.writeVarInt(bit(0, ack.getUserId()) | bit(1, ack.getSessionId()) | bit(2, ack.getCumulative())
+            | bit(3, ranges.length));
+        writeShared(ack.getUserId(), out);
+        writeShared(ack.getSessionId(), out);
+        writeInt(ack.getCumulative(), out);
+        if (ranges.length > 0) {
+            out.writeVarInt(ranges.length / 2);
+            int previous = ack.getCumulative();
+            for (int i = 0; i < ranges.length; i += 2) {
+                out.writeVarInt(ranges[i] - previous);
+                out.writeVarInt(ranges[i + 1] - ranges[i]);
+                previous = ranges[i + 1];
+            }
+        }
+    }
+
+    private SequenceAck readSequenceAck(BinaryReader in)
+    {
+        int bits = in.readVarInt();
+        String userId = readShared(bits, 0, in);
+        String sessionId = readShared(bits, 1, in);
+        int cumulative = readInt(bits, 2, in);
+        int[] ranges = null;
+        if (present(bits, 3)) {
+            int count = in.readVarInt();
+            // A range takes two bytes at least, which also keeps count * 2 from overflowing
+            if (count < 0 || count > in.remaining() / 2) {
+                throw new IllegalArgumentException("Malformed ack ranges count: " + count);
+            }
+            ranges = new int[count * 2];
+            long previous = cumulative;
+            for (int i = 0; i < ranges.length; i += 2) {
+                // Gaps and lengths of any size would wrap, the window takes MAX_SPAN at most
+                long from = previous + (in.readVarInt() & 0xFFFFFFFFL);
+                long to = from + (in.readVarInt() & 0xFFFFFFFFL);
+                if (to - cumulative > SequenceAck.MAX_SPAN) {
+                    throw new IllegalArgumentException("Ack ranges beyond the window: " + to + " above " + cumulative);
+                }
+                ranges[i] = (int) from;
+                ranges[i + 1] = (int) to;
+                previous = to;
+            }
+        }
+        return SequenceAck.create(userId, sessionId, cumulative, ranges);
+    }
+
+    /**
+     * Presence bits of the leading string fields
+     */
+    private static int bits(String... values)
+    {
+        int result = 0;
+        for (int i = 0; i < values.length; i ++) {
+            result |= bit(i, values[i]);
+        }
+        return result;
+    }
+
+    private static int bit(int index, String value)
+    {
+        return value == null ? 0 : 1 << index;
+    }
+
+    private static int bit(int index, long value)
+    {
+        return value == 0 ? 0 : 1 << index;
+    }
+
+    private static boolean present(int bits, int index)
+    {
+        return (bits & (1 << index)) != 0;
+    }
+
+    private static void writeInt(int value, BinaryWriter out)
+    {
+        if (value != 0) {
+            out.writeVarInt(value);
+        }
+    }
+
+    private static int readInt(int bits, int index, BinaryReader in)
+    {
+        return present(bits, index) ? in.readVarInt() : 0;
+    }
+
+    private static void writeLong(long value, BinaryWriter out)
+    {
+        if (value != 0) {
+            out.writeVarLong(value);
+        }
+    }
+
+    private static long readLong(int bits, int index, BinaryReader in)
+    {
+        return present(bits, index) ? in.readVarLong() : 0;
+    }
+
+    /**
+     * Never through the dictionary, like the message texts
+     */
+    private static void writeString(String value, BinaryWriter out)
+    {
+        if (value != null) {
+            int length = BinaryWriter.utf8Length(value);
+            out.writeVarInt(length << 1);
+            out.writeUtf8(value, length);
+        }
+    }
+
+    private static String readString(int bits, int index, BinaryReader in)
+    {
+        if (!present(bits, index)) {
+            return null;
+        }
+        int header = in.readVarInt();
+        if ((header & 1) != 0) {
+            throw new IllegalArgumentException("Unexpected dictionary reference");
+        }
+        return in.readUtf8(header >>> 1);
+    }
+
+    /**
+     * [varint index << 1 | 1] if in the dictionary, [varint length << 1][UTF-8] otherwise
+     */
+    private void writeShared(String value, BinaryWriter out)
+    {
+        if (value == null) {
+            return;
+        }
+        if (outgoing != null) {
+            int index = outgoing.indexOf(value);
+            if (index >= 0) {
+                out.writeVarInt((index << 1) | 1);
+                return;
+            }
+        }
+
+        writeString(value, out);
+        if (outgoing != null) {
+            outgoing.added(value);
+        }
+    }
+
+    private String readShared(int bits, int index, BinaryReader in)
+    {
+        if (!present(bits, index)) {
+            return null;
+        }
+        int header = in.readVarInt();
+        if ((header & 1) != 0) {
+            if (incoming == null) {
+                throw new IllegalArgumentException("Dictionary reference without dictionary");
+            }
+            return incoming.get(header >>> 1);
+        }
+
+        String value = in.readUtf8(header >>> 1);
+        if (incoming != null) {
+            incoming.received(value);
+        }
+        return value;
+    }
+
+    /**
+     * [varlong id << 1 | 1] for the ids of IdGenerator, [varlong length << 1][UTF-8] otherwise
+     */
+    private static void writeId(String value, BinaryWriter out)
+    {
+        if (value == null) {
+            return;
+        }
+        long id = IdGenerator.tryParse(value);
+        if (id >= 0) {
+            out.writeVarLong((id << 1) | 1);
+        } else {
+            int length = BinaryWriter.utf8Length(value);
+            out.writeVarLong((long) length << 1);
+            out.writeUtf8(value, length);
+        }
+    }
+
+    private static String readId(int bits, int index, BinaryReader in)
+    {
+        return present(bits, index) ? readId(in) : null;
+    }
+
+    private static String readId(BinaryReader in)
+    {
+        long header = in.readVarLong();
+        if ((header & 1) != 0) {
+            return IdGenerator.toString(header >>> 1);
+        }
+        return in.readUtf8((int) (header >>> 1));
+    }
+}
@@ -0,0 +1,107 @@
+package com.openjava.nio.infrastructure.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the values written by BinaryWriter from the buffer position on
+ */
+public class BinaryReader
+{
+    private final ByteBuffer buffer;
+
+    private char[] chars = new char[64];
+
+    private BinaryReader(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    public static BinaryReader wrap(ByteBuffer buffer)
+    {
+        return new BinaryReader(buffer);
+    }
+
+    public static BinaryReader wrap(byte[] data)
+    {
+        return new BinaryReader(ByteBuffer.wrap(data));
+    }
+
+    public int readByte()
+    {
+        return buffer.get() & 0xFF;
+    }
+
+    public int readVarInt()
+    {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public long readVarLong()
+    {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+
+    public String readUtf8(int utf8Length)
+    {
+        if (buffer.remaining() < utf8Length) {
+            throw new BufferUnderflowException();
+        }
+        if (chars.length < utf8Length) {
+            chars = new char[Math.max(utf8Length, chars.length * 2)];
+        }
+
+        int count = 0;
+        int end = buffer.position() + utf8Length;
+        while (buffer.position() < end) {
+            int b = buffer.get();
+            if (b >= 0) {
+                chars[count ++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count ++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+            } else if ((b & 0xF0) == 0xE0) {
+                chars[count ++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+            } else if ((b & 0xF8) == 0xF0) {
+                int codePoint = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12) | ((buffer.get() & 0x3F) << 6)
+                    | (buffer.get() & 0x3F);
+                chars[count ++] = Character.highSurrogate(codePoint);
+                chars[count ++] = Character.lowSurrogate(codePoint);
+            } else {
+                throw new IllegalArgumentException("Malformed UTF-8 at " + (buffer.position() - 1));
+            }
+        }
+        if (buffer.position() != end) {
+            throw new IllegalArgumentException("Malformed UTF-8, truncated character at " + end);
+        }
+        return new String(chars, 0, count);
+    }
+
+    public void skip(int length)
+    {
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    public int remaining()
+    {
+        return buffer.remaining();
+    }
+}
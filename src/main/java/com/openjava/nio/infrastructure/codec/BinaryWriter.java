@@ -0,0 +1,155 @@
+package com.openjava.nio.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the varints and the length prefixed UTF-8 strings straight into a heap ByteBuffer,
+ * the buffer is replaced by a larger copy when full
+ */
+public class BinaryWriter
+{
+    private ByteBuffer buffer;
+
+    private BinaryWriter(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    public static BinaryWriter create(int initialCapacity)
+    {
+        return new BinaryWriter(ByteBuffer.allocate(Math.max(16, initialCapacity)));
+    }
+
+    /**
+     * Write from the buffer position on, see getBuffer() for the buffer written at last
+     */
+    public static BinaryWriter wrap(ByteBuffer buffer)
+    {
+        return new BinaryWriter(buffer);
+    }
+
+    public void writeByte(int value)
+    {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Unsigned LEB128, 1 byte below 128, 5 bytes for the negative values
+     */
+    public void writeVarInt(int value)
+    {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public void writeVarLong(long value)
+    {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * UTF-8 bytes of the string without the length prefix, the lone surrogates become '?'
+     */
+    public void writeUtf8(String value, int utf8Length)
+    {
+        ensure(utf8Length);
+        int length = value.length();
+        for (int i = 0; i < length; i ++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++ i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static int utf8Length(String value)
+    {
+        int length = value.length();
+        int result = length;
+        for (int i = 0; i < length; i ++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    result += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // 4 bytes for the 2 chars
+                    result += 2;
+                    i ++;
+                } else if (!Character.isSurrogate(c)) {
+                    result += 2;
+                }
+            }
+        }
+        return result;
+    }
+
+    public void writeBytes(byte[] value, int offset, int length)
+    {
+        ensure(length);
+        buffer.put(value, offset, length);
+    }
+
+    public int position()
+    {
+        return buffer.position();
+    }
+
+    /**
+     * Move back to a previous position, the bytes after it are dropped
+     */
+    public void position(int position)
+    {
+        buffer.position(position);
+    }
+
+    public ByteBuffer getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Copy of the bytes written
+     */
+    public byte[] toByteArray()
+    {
+        byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), buffer.arrayOffset(), result, 0, result.length);
+        return result;
+    }
+
+    private void ensure(int size)
+    {
+        if (buffer.remaining() < size) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.openjava.nio.infrastructure.codec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strings already sent on one connection, referenced by index the next times. The encoder and
+ * the decoder make the same decisions from the same strings in the same order, so each side
+ * only keeps its own dictionary and the entries are never sent apart. The dictionary stops
+ * growing when full.
+ */
+public class StringDictionary
+{
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    private final int maxEntries;
+    private final int maxLength;
+
+    // Encoder side, in the index order for the rollbacks
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+    private final List<String> sent = new ArrayList<String>();
+    // Decoder side
+    private final List<String> entries = new ArrayList<String>();
+
+    private StringDictionary(int maxEntries, int maxLength)
+    {
+        this.maxEntries = maxEntries;
+        this.maxLength = maxLength;
+    }
+
+    public static StringDictionary create()
+    {
+        return new StringDictionary(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_LENGTH);
+    }
+
+    public static StringDictionary create(int maxEntries, int maxLength)
+    {
+        return new StringDictionary(maxEntries, maxLength);
+    }
+
+    /**
+     * Index of the string, -1 if not in the dictionary yet
+     */
+    int indexOf(String value)
+    {
+        Integer index = indexes.get(value);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Add the string sent as a literal if it qualifies
+     */
+    void added(String value)
+    {
+        if (value.length() <= maxLength && indexes.size() < maxEntries && !indexes.containsKey(value)) {
+            indexes.put(value, indexes.size());
+            sent.add(value);
+        }
+    }
+
+    /**
+     * The encoder side size to roll back to if the encoding fails
+     */
+    int mark()
+    {
+        return sent.size();
+    }
+
+    /**
+     * Forget the strings added since the mark, the peer never received them
+     */
+    void rollback(int mark)
+    {
+        while (sent.size() > mark) {
+            indexes.remove(sent.remove(sent.size() - 1));
+        }
+    }
+
+    /**
+     * Add the string received as a literal if it qualifies, the same way as the encoder did
+     */
+    void received(String value)
+    {
+        if (value.length() <= maxLength && entries.size() < maxEntries) {
+            entries.add(value);
+        }
+    }
+
+    String get(int index)
+    {
+        if (index >= entries.size()) {
+            throw new IllegalArgumentException("Unknown dictionary entry: " + index);
+        }
+        return entries.get(index);
+    }
+
+    public int size()
+    {
+        return Math.max(indexes.size(), entries.size());
+    }
+}
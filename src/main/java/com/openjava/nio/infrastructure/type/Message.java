@@ -1,7 +1,6 @@
 package com.openjava.nio.infrastructure.type;
 
-import java.util.UUID;
-
+import com.openjava.nio.util.IdGenerator;
 import com.openjava.nio.util.StringUtils;
 
 public class Message
@@ -83,6 +82,14 @@ public class Message
         return messageId;
     }
     
+    /**
+     * Numeric form of the message id for indexing, -1 if the id was not generated by IdGenerator
+     */
+    public long getNumericId()
+    {
+        return IdGenerator.tryParse(messageId);
+    }
+
     public String getFromUser()
     {
         return fromUser;
@@ -219,12 +226,6 @@ public class Message
     
     private static String newId()
     {
-        String uuid = UUID.randomUUID().toString();
-        String result = "";
-        for (int i = 0; i < uuid.length(); i++) {
-            char c = uuid.charAt(i);
-            result += (c == '-' ? "" : c);
-        }
-        return result;
+        return IdGenerator.getDefault().nextIdString();
     }
 }
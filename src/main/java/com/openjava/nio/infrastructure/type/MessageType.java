@@ -10,6 +10,11 @@ public class MessageType
     
     public static final int MSG_USER_NOTIFICATION_ACK = 3;
 
+    /**
+     * Idle session ping and pong of the provider, answered on the selector thread
+     */
+    public static final int MSG_SESSION_KEEP_ALIVE = 4;
+
     public static final int MSG_OFFLINE_MESSAGE_REQUEST = 10;
     
     public static final int MSG_CREATE_CHAT_SESSION = 11;
@@ -34,6 +39,8 @@ public class MessageType
     
     public static final int MSG_LOAD_CONVERSATION_MESSAGE_ACK = 21;
     
+    public static final int MSG_USER_SEQUENCE_ACK_REQUEST = 22;
+    
     public static final int MSG_LOCATE_USER_ROUTE = 100;
     
     public static final int MSG_LOCATE_USER_ROUTE_ACK = 101;
@@ -0,0 +1,107 @@
+package com.openjava.nio.infrastructure.type;
+
+import java.util.Arrays;
+
+/**
+ * Acknowledgement of the messages of one conversation by Message.sequenceNo: every sequence up to the
+ * cumulative one and the selective [from, to] ranges above it, replaces one AckRequest id per message
+ */
+public class SequenceAck
+{
+    /**
+     * The selective ranges end at most so far above the cumulative sequence
+     */
+    public static final int MAX_SPAN = 64 * 1024;
+
+    private static final int[] NO_RANGES = new int[0];
+
+    private String userId;
+    private String sessionId;
+    private int cumulative;
+    private int[] ranges;
+
+    private SequenceAck(String userId, String sessionId, int cumulative, int[] ranges)
+    {
+        this.userId = userId;
+        this.sessionId = sessionId;
+        this.cumulative = cumulative;
+        this.ranges = ranges;
+    }
+
+    public String getUserId()
+    {
+        return userId;
+    }
+
+    public String getSessionId()
+    {
+        return sessionId;
+    }
+
+    /**
+     * Every sequence up to this one included is acknowledged
+     */
+    public int getCumulative()
+    {
+        return cumulative;
+    }
+
+    /**
+     * The selective ranges above the cumulative sequence, from and to included, in order
+     */
+    public int[] getRanges()
+    {
+        return ranges;
+    }
+
+    public boolean isAcked(int sequenceNo)
+    {
+        if (sequenceNo <= cumulative) {
+            return true;
+        }
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (sequenceNo < ranges[i]) {
+                return false;
+            }
+            if (sequenceNo <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static SequenceAck create(String userId, String sessionId, int cumulative)
+    {
+        return new SequenceAck(userId, sessionId, cumulative, NO_RANGES);
+    }
+
+    public static SequenceAck create(String userId, String sessionId, int cumulative, int[] ranges)
+    {
+        if (ranges == null) {
+            ranges = NO_RANGES;
+        }
+        if ((ranges.length & 1) != 0) {
+            throw new IllegalArgumentException("Odd number of range bounds: " + ranges.length);
+        }
+        int previous = cumulative;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] <= previous || ranges[i + 1] < ranges[i]) {
+                throw new IllegalArgumentException("Unordered ack ranges: " + Arrays.toString(ranges));
+            }
+            previous = ranges[i + 1];
+        }
+        if (ranges.length > 0 && (long) previous - cumulative > MAX_SPAN) {
+            throw new IllegalArgumentException("Ack ranges beyond " + MAX_SPAN + " above " + cumulative);
+        }
+        return new SequenceAck(userId, sessionId, cumulative, ranges);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("userId: ").append(userId).append(", sessionId: ").append(sessionId)
+            .append(", cumulative: ").append(cumulative).append(", ranges: ").append(Arrays.toString(ranges));
+        return builder.toString();
+    }
+}
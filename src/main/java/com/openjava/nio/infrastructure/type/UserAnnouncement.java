@@ -9,7 +9,7 @@ public class UserAnnouncement
     private String fromUser;
     private String toUser;
     private int type;
-    private int unreadNum;
+    private volatile int unreadNum;
     private String fromUserName;
     private String toUserName;
     
@@ -43,7 +43,7 @@ public class UserAnnouncement
         return unreadNum;
     }
     
-    public void incUnreadNum()
+    public synchronized void incUnreadNum()
     {
         unreadNum = unreadNum + 1;
     }
@@ -1,6 +1,6 @@
 package com.openjava.nio.infrastructure.type;
 
-import java.util.UUID;
+import com.openjava.nio.util.IdGenerator;
 
 public class UserNotification
 {
@@ -43,6 +43,14 @@ public class UserNotification
         return id;
     }
 
+    /**
+     * Numeric form of the id for indexing, -1 if the id was not generated by IdGenerator
+     */
+    public long getNumericId()
+    {
+        return IdGenerator.tryParse(id);
+    }
+
     public int getType()
     {
         return type;
@@ -106,12 +114,6 @@ public class UserNotification
     
     private static String newId()
     {
-        String uuid = UUID.randomUUID().toString();
-        String result = "";
-        for (int i = 0; i < uuid.length(); i++) {
-            char c = uuid.charAt(i);
-            result += (c == '-' ? "" : c);
-        }
-        return result;
+        return IdGenerator.getDefault().nextIdString();
     }
 }
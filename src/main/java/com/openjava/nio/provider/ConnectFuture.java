@@ -0,0 +1,65 @@
+package com.openjava.nio.provider;
+
+import com.openjava.nio.exception.ConnectTimeoutException;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.listener.IConnectListener;
+import com.openjava.nio.provider.session.listener.ISessionEventListener;
+import com.openjava.nio.util.ListenableFuture;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * Future of a client connection, completed on the selector thread when the session is
+ * created, or failed when the connect times out or fails. The session closed event is
+ * forwarded to the optional event listener.
+ */
+class ConnectFuture extends ListenableFuture<INioSession> implements IConnectListener
+{
+    private final SocketAddress remoteAddress;
+    private final ISessionEventListener eventListener;
+
+    public ConnectFuture(SocketAddress remoteAddress, ISessionEventListener eventListener)
+    {
+        this.remoteAddress = remoteAddress;
+        this.eventListener = eventListener;
+    }
+
+    @Override
+    public void onSessionCreated(INioSession session)
+    {
+        if (eventListener != null) {
+            eventListener.onSessionCreated(session);
+        }
+        if (!complete(session)) {
+            // Nobody is waiting for a cancelled connect
+            session.destroy();
+        }
+    }
+
+    @Override
+    public void onSessionClosed(INioSession session)
+    {
+        if (eventListener != null) {
+            eventListener.onSessionClosed(session);
+        }
+    }
+
+    @Override
+    public void onSocketConnectTimeout()
+    {
+        if (eventListener != null) {
+            eventListener.onSocketConnectTimeout();
+        }
+        fail(new ConnectTimeoutException("Connect " + remoteAddress + " timeout"));
+    }
+
+    @Override
+    public void onSocketConnectFailed(Throwable cause)
+    {
+        if (eventListener instanceof IConnectListener) {
+            ((IConnectListener) eventListener).onSocketConnectFailed(cause);
+        }
+        fail(cause instanceof IOException ? cause : new IOException("Connect " + remoteAddress + " failed", cause));
+    }
+}
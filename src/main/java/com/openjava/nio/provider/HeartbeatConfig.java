@@ -0,0 +1,54 @@
+package com.openjava.nio.provider;
+
+/**
+ * Session heartbeat of the network provider: a PING control frame is sent on the sessions
+ * idle for writing, and the sessions idle for reading too long are closed as half open. All
+ * the sessions are checked by one shared timer every tick, on their own selector thread.
+ * The peers must enable the heartbeat too, see SessionDataChannel for the control frame.
+ */
+public class HeartbeatConfig
+{
+    private long writeIdleMillis = 10 * 1000;
+    private long readIdleMillis = 30 * 1000;
+    private long tickMillis = 1000;
+
+    public long getWriteIdleMillis()
+    {
+        return writeIdleMillis;
+    }
+
+    public long getReadIdleMillis()
+    {
+        return readIdleMillis;
+    }
+
+    public long getTickMillis()
+    {
+        return tickMillis;
+    }
+
+    /**
+     * Send a PING when nothing was written for so long, 0 to disable
+     */
+    @SuppressWarnings("unused")
+    public void setWriteIdleMillis(long writeIdleMillis)
+    {
+        this.writeIdleMillis = writeIdleMillis;
+    }
+
+    /**
+     * Close the session when nothing was read for so long, 0 to disable. It should be several
+     * times the write idle time of the peer.
+     */
+    @SuppressWarnings("unused")
+    public void setReadIdleMillis(long readIdleMillis)
+    {
+        this.readIdleMillis = readIdleMillis;
+    }
+
+    @SuppressWarnings("unused")
+    public void setTickMillis(long tickMillis)
+    {
+        this.tickMillis = tickMillis;
+    }
+}
@@ -1,7 +1,9 @@
 package com.openjava.nio.provider;
 
+import com.openjava.nio.provider.session.INioSession;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import com.openjava.nio.provider.session.listener.ISessionEventListener;
+import com.openjava.nio.util.ListenableFuture;
 
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -12,9 +14,42 @@ public interface INetworkProvider
     void registerConnection(SocketAddress remoteAddress, ISessionEventListener eventListener,
         ISessionDataListener dataListner, long timeoutInMillis) throws IOException;
 
+    /**
+     * Connect on a processor of the group, the default group if null. The socket config
+     * overrides the provider socket options if not null.
+     */
+    void registerConnection(SocketAddress remoteAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListner, long timeoutInMillis, String group, SocketConfig config) throws IOException;
+
+    ListenableFuture<INioSession> connect(SocketAddress remoteAddress, ISessionDataListener dataListener,
+        long timeoutInMillis);
+
+    /**
+     * Connect without blocking, the future is completed with the created session, or failed with
+     * a ConnectTimeoutException or the connect failure. The optional event listener is notified
+     * of the session events as with registerConnection.
+     */
+    ListenableFuture<INioSession> connect(SocketAddress remoteAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, long timeoutInMillis, String group, SocketConfig config);
+
     void registerServer(SocketAddress localAddress, ISessionEventListener eventListener,
         ISessionDataListener dataListner) throws IOException;
 
+    /**
+     * Accept on the acceptGroup and register the accepted sessions on the workerGroup, the
+     * provider defaults are used if null. The socket config overrides the provider socket
+     * options if not null, and applies to both the listening socket and the accepted sessions.
+     */
+    void registerServer(SocketAddress localAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListner, String acceptGroup, String workerGroup, SocketConfig config)
+        throws IOException;
+
     void registerSession(SocketChannel channel, ISessionEventListener eventListener,
         ISessionDataListener dataListener);
+
+    /**
+     * Register the session on a processor of the group, the default group if null
+     */
+    void registerSession(SocketChannel channel, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, String group);
 }
@@ -1,13 +1,18 @@
 package com.openjava.nio.provider;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.SocketAddress;
+import java.net.SocketOption;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import com.openjava.nio.provider.admission.AdmissionController;
 import com.openjava.nio.provider.processor.ProcessorUtils;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import org.slf4j.Logger;
@@ -16,9 +21,11 @@ import org.slf4j.LoggerFactory;
 import com.openjava.nio.infrastructure.LifeCycle;
 import com.openjava.nio.exception.MultiException;
 import com.openjava.nio.provider.processor.IProcessor;
-import com.openjava.nio.provider.processor.NioSessionProcessor;
+import com.openjava.nio.provider.processor.IProcessorSelector;
+import com.openjava.nio.provider.processor.ProcessorSelectors;
 import com.openjava.nio.provider.session.INioSession;
 import com.openjava.nio.provider.session.listener.ISessionEventListener;
+import com.openjava.nio.util.ListenableFuture;
 import com.openjava.nio.util.ScheduledExecutor;
 import com.openjava.nio.util.Scheduler;
 
@@ -27,27 +34,48 @@ public class NioNetworkProvider extends LifeCycle implements INetworkProvider
     private static Logger logger = LoggerFactory.getLogger(NioNetworkProvider.class);
 
     private static final int DEFAULT_SERVER_BACKLOG = 50;
-    
-    private volatile long pointer = 0L;
-    
+
+    // SO_REUSEPORT is only available since JDK 9, so resolve it at runtime
+    private static final SocketOption<Boolean> SO_REUSEPORT = SocketConfig.option("SO_REUSEPORT");
+
+    private SocketConfig socketConfig = new SocketConfig();
+    // Kept apart from the socket config so that setSocketConfig does not drop it
+    private int serverBacklog = DEFAULT_SERVER_BACKLOG;
+    private boolean reusePort = false;
+    private AdmissionController admission;
+    private HeartbeatConfig heartbeat;
+    private IProcessorSelector processorSelector = ProcessorSelectors.RoundRobin.create();
+
     private int processors = Runtime.getRuntime().availableProcessors();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
-    private final IProcessor<INioSession>[] pool =  new NioSessionProcessor[processors];
-    private final Scheduler scheduler = new ScheduledExecutor();
+    private String acceptGroup = ProcessorGroup.DEFAULT_GROUP;
+    private List<ProcessorGroup> processorGroups = Collections.emptyList();
+    private final Map<String, ProcessorGroup> groups = new LinkedHashMap<String, ProcessorGroup>();
+    // Created on start, stopped with the provider
+    private Scheduler scheduler;
 
     @Override
     public void registerConnection(SocketAddress remoteAddress, ISessionEventListener eventListener,
         ISessionDataListener dataListener, long timeoutInMillis) throws IOException
+    {
+        registerConnection(remoteAddress, eventListener, dataListener, timeoutInMillis, null, null);
+    }
+
+    @Override
+    public void registerConnection(SocketAddress remoteAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, long timeoutInMillis, String group, SocketConfig config) throws IOException
     {
         checkState();
+        IProcessor<INioSession> processor = group(group).next();
         boolean result = false;
         SocketChannel channel = null;
         
         try {
             channel = SocketChannel.open();
             channel.configureBlocking(false);
+            // Options like the buffer sizes must be set before connecting
+            socketConfig.override(config).apply(channel);
             channel.connect(remoteAddress);
-            nextProcessor().registerConnection(channel, eventListener, dataListener, timeoutInMillis);
+            processor.registerConnection(channel, eventListener, dataListener, timeoutInMillis);
             result = true;
         } finally {
             if (!result) {
@@ -56,20 +84,57 @@ public class NioNetworkProvider extends LifeCycle implements INetworkProvider
         }
     }
 
+    @Override
+    public ListenableFuture<INioSession> connect(SocketAddress remoteAddress, ISessionDataListener dataListener,
+        long timeoutInMillis)
+    {
+        return connect(remoteAddress, null, dataListener, timeoutInMillis, null, null);
+    }
+
+    @Override
+    public ListenableFuture<INioSession> connect(SocketAddress remoteAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, long timeoutInMillis, String group, SocketConfig config)
+    {
+        ConnectFuture future = new ConnectFuture(remoteAddress, eventListener);
+        try {
+            registerConnection(remoteAddress, future, dataListener, timeoutInMillis, group, config);
+        } catch (IOException iex) {
+            future.onSocketConnectFailed(iex);
+        }
+        return future;
+    }
+
     @Override
     public void registerServer(SocketAddress localAddress, ISessionEventListener eventListener,
         ISessionDataListener dataListener) throws IOException
+    {
+        registerServer(localAddress, eventListener, dataListener, null, null, null);
+    }
+
+    @Override
+    public void registerServer(SocketAddress localAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, String acceptGroup, String workerGroup, SocketConfig config) throws IOException
     {
         checkState();
+        ProcessorGroup acceptors = group(acceptGroup == null ? this.acceptGroup : acceptGroup);
+        ProcessorGroup workers = group(workerGroup);
+        SocketConfig serverConfig = socketConfig.override(config);
+        if (reusePort) {
+            if (isReusePortSupported()) {
+                registerReusePortServer(localAddress, eventListener, dataListener, acceptors, workers, serverConfig);
+                return;
+            }
+            logger.warn("SO_REUSEPORT not supported on this platform, fall back to single acceptor");
+        }
+
         ServerSocketChannel socketChannel = ServerSocketChannel.open();
         
         boolean result = false;
         try {
             socketChannel.configureBlocking(false);
-            ServerSocket serverSocket = socketChannel.socket();
-            serverSocket.setReuseAddress(true);
-            serverSocket.bind(localAddress, DEFAULT_SERVER_BACKLOG);
-            nextProcessor().registerServer(socketChannel, eventListener, dataListener);
+            serverConfig.applyServer(socketChannel);
+            socketChannel.bind(localAddress, serverConfig.getBacklog(serverBacklog));
+            acceptors.next().registerServer(socketChannel, eventListener, dataListener, workers.getName(), serverConfig);
             result = true;
         } finally {
             if (!result) {
@@ -78,61 +143,274 @@ public class NioNetworkProvider extends LifeCycle implements INetworkProvider
         }
     }
 
+    /**
+     * Open one SO_REUSEPORT listener per acceptor processor, the kernel then spreads incoming
+     * connections across the selectors. When the acceptor and worker groups are the same, each
+     * accepted session stays on the processor which accepted it.
+     */
+    private void registerReusePortServer(SocketAddress localAddress, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, ProcessorGroup acceptors, ProcessorGroup workers, SocketConfig config)
+        throws IOException
+    {
+        IProcessor<INioSession>[] pool = acceptors.processors();
+        ServerSocketChannel[] channels = new ServerSocketChannel[pool.length];
+        String workerGroup = acceptors == workers ? null : workers.getName();
+
+        boolean result = false;
+        try {
+            SocketAddress bindAddress = localAddress;
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = ServerSocketChannel.open();
+                channels[i].configureBlocking(false);
+                config.applyServer(channels[i]);
+                channels[i].setOption(SO_REUSEPORT, Boolean.TRUE);
+                channels[i].bind(bindAddress, config.getBacklog(serverBacklog));
+                // Make sure all listeners share the same port when an ephemeral port is requested
+                bindAddress = channels[i].getLocalAddress();
+            }
+            for (int i = 0; i < channels.length; i++) {
+                pool[i].registerServer(channels[i], eventListener, dataListener, workerGroup, config);
+            }
+            result = true;
+            logger.info("Server bound on {} with {} SO_REUSEPORT acceptors", bindAddress, channels.length);
+        } finally {
+            if (!result) {
+                for (ServerSocketChannel channel : channels) {
+                    ProcessorUtils.closeQuietly(channel);
+                }
+            }
+        }
+    }
+
     @Override
     public void registerSession(SocketChannel channel, ISessionEventListener eventListener, ISessionDataListener dataListener)
+    {
+        registerSession(channel, eventListener, dataListener, null);
+    }
+
+    @Override
+    public void registerSession(SocketChannel channel, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, String group)
     {
         checkState();
-        nextProcessor().registerSession(channel, eventListener, dataListener);
+        group(group).next().registerSession(channel, eventListener, dataListener);
     }
 
     @Override
     protected void doStart() throws Exception
     {
-        for (int i = 0; i < pool.length; i++) {
-            boolean result = false;
-            try {
-                pool[i] = new NioSessionProcessor(i, this, executor, scheduler);
-                pool[i].start();
-                result = true;
-            } finally {
-                if (!result) {
-                    pool[i].stop();
+        groups.clear();
+        for (ProcessorGroup group : processorGroups) {
+            if (groups.put(group.getName(), group) != null) {
+                throw new IllegalArgumentException("Duplicate processor group: " + group.getName());
+            }
+        }
+        if (!groups.containsKey(ProcessorGroup.DEFAULT_GROUP)) {
+            groups.put(ProcessorGroup.DEFAULT_GROUP, new ProcessorGroup(ProcessorGroup.DEFAULT_GROUP, processors));
+        }
+        if (!groups.containsKey(acceptGroup)) {
+            throw new IllegalArgumentException("Unknown accept processor group: " + acceptGroup);
+        }
+
+        scheduler = new ScheduledExecutor(getClass().getSimpleName() + "-Scheduler", true);
+        List<ProcessorGroup> started = new ArrayList<ProcessorGroup>();
+        boolean result = false;
+        try {
+            for (ProcessorGroup group : groups.values()) {
+                group.bind(this, scheduler, admission, processorSelector, heartbeat);
+                group.start();
+                started.add(group);
+            }
+            result = true;
+        } finally {
+            if (!result) {
+                for (ProcessorGroup group : started) {
+                    group.stop();
                 }
+                scheduler.shutdown();
             }
         }
-        logger.info("Socket processor manager started, pool size=" + pool.length);
+        if (heartbeat != null) {
+            scheduler.schedule(new HeartbeatTick(), heartbeat.getTickMillis(), TimeUnit.MILLISECONDS);
+        }
+        logger.info("Socket processor manager started, processor groups=" + groups.keySet());
     }
 
     @Override
     protected void doStop() throws Exception
     {
         MultiException exception = new MultiException();
-        for (IProcessor<INioSession> processor : pool) {
+        for (ProcessorGroup group : groups.values()) {
             try {
-                processor.stop();
+                group.stop();
             } catch (Exception ex) {
                 exception.add(ex);
             }
         }
+        scheduler.shutdown();
         exception.ifExceptionThrow();
-        executor.shutdown();
         logger.info("Socket processor manager stopped");
     }
-    
-    private IProcessor<INioSession> nextProcessor()
+
+    /**
+     * The processor group with the name, the default group if the name is null
+     */
+    public ProcessorGroup getProcessorGroup(String name)
     {
-        // The ++ increment here is not atomic, but it does not matter,
-        // so long as the value changes sometimes, then connections will
-        // be distributed over the available selectors.
-        long s = pointer++;
-        int index = (int)(s % pool.length);
-        return pool[index];
+        return groups.get(name == null ? ProcessorGroup.DEFAULT_GROUP : name);
+    }
+
+    private ProcessorGroup group(String name)
+    {
+        ProcessorGroup group = getProcessorGroup(name);
+        if (group == null) {
+            throw new IllegalArgumentException("Unknown processor group: " + name);
+        }
+        return group;
+    }
+
+    /**
+     * Sessions registered on each processor of the default group, including the pending registrations
+     */
+    public int[] getSessionCounts()
+    {
+        return group(null).getSessionCounts();
+    }
+
+    /**
+     * Recent load of each processor of the default group, the selected keys processed per second
+     */
+    public double[] getProcessorLoads()
+    {
+        return group(null).getProcessorLoads();
     }
     
+    /**
+     * One shared timer for all the sessions, each processor checks its own sessions on its selector thread
+     */
+    private class HeartbeatTick implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isRunning()) {
+                return;
+            }
+
+            try {
+                for (ProcessorGroup group : groups.values()) {
+                    for (IProcessor<INioSession> processor : group.processors()) {
+                        processor.checkIdle();
+                    }
+                }
+            } catch (Throwable ex) {
+                logger.warn("Check session heartbeat exception", ex);
+            } finally {
+                if (isRunning()) {
+                    scheduler.schedule(this, heartbeat.getTickMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
     private void checkState()
     {
         if (!isRunning()) {
             throw new IllegalStateException("Invalid processor pool state, state:" + getState());
         }
     }
+
+    /**
+     * Only Linux balances the incoming connections among the SO_REUSEPORT listeners
+     */
+    private static boolean isReusePortSupported()
+    {
+        String os = System.getProperty("os.name", "");
+        return SO_REUSEPORT != null && os.toLowerCase().startsWith("linux");
+    }
+
+    /**
+     * Listen backlog of the server sockets when neither the socket config nor the endpoint sets one
+     */
+    @SuppressWarnings("unused")
+    public void setServerBacklog(int serverBacklog)
+    {
+        this.serverBacklog = serverBacklog;
+    }
+
+    /**
+     * Default socket options, the options configured on an endpoint override them
+     */
+    @SuppressWarnings("unused")
+    public void setSocketConfig(SocketConfig socketConfig)
+    {
+        this.socketConfig = socketConfig == null ? new SocketConfig() : socketConfig;
+    }
+
+    @SuppressWarnings("unused")
+    public void setReusePort(boolean reusePort)
+    {
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Admission control for all the servers registered on this provider
+     */
+    @SuppressWarnings("unused")
+    public void setAdmissionController(AdmissionController admission)
+    {
+        this.admission = admission;
+    }
+
+    /**
+     * Session heartbeat of all the processor groups, disabled by default. The peers must enable it too.
+     */
+    @SuppressWarnings("unused")
+    public void setHeartbeatConfig(HeartbeatConfig heartbeat)
+    {
+        this.heartbeat = heartbeat;
+    }
+
+    public AdmissionController getAdmissionController()
+    {
+        return admission;
+    }
+
+    /**
+     * Processor selection strategy of the groups without their own strategy, atomic round robin by default
+     *
+     * @see ProcessorSelectors
+     */
+    @SuppressWarnings("unused")
+    public void setProcessorSelector(IProcessorSelector processorSelector)
+    {
+        this.processorSelector = processorSelector;
+    }
+
+    /**
+     * Processor count of the default group, the available processors by default
+     */
+    @SuppressWarnings("unused")
+    public void setProcessors(int processors)
+    {
+        this.processors = processors;
+    }
+
+    /**
+     * Additional processor groups, a group named "default" replaces the default group
+     */
+    @SuppressWarnings("unused")
+    public void setProcessorGroups(List<ProcessorGroup> processorGroups)
+    {
+        this.processorGroups = processorGroups;
+    }
+
+    /**
+     * Group accepting the connections of the servers without their own accept group
+     */
+    @SuppressWarnings("unused")
+    public void setAcceptGroup(String acceptGroup)
+    {
+        this.acceptGroup = acceptGroup;
+    }
 }
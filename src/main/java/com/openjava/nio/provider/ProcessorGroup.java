@@ -0,0 +1,187 @@
+package com.openjava.nio.provider;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.exception.MultiException;
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.provider.admission.AdmissionController;
+import com.openjava.nio.provider.processor.IProcessor;
+import com.openjava.nio.provider.processor.IProcessorSelector;
+import com.openjava.nio.provider.processor.NioSessionProcessor;
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.util.Scheduler;
+import com.openjava.nio.util.StringUtils;
+
+/**
+ * A named group of NIO session processors, each processor runs its selector on a thread
+ * created by the group thread factory. Servers may accept on one group and register the
+ * accepted sessions on another, and clients may connect on a dedicated group.
+ */
+public class ProcessorGroup extends LifeCycle
+{
+    private static Logger logger = LoggerFactory.getLogger(ProcessorGroup.class);
+
+    public static final String DEFAULT_GROUP = "default";
+
+    private String name;
+    private int size = Runtime.getRuntime().availableProcessors();
+    private ThreadFactory threadFactory;
+    private IProcessorSelector processorSelector;
+
+    private INetworkProvider provider;
+    private Scheduler scheduler;
+    private AdmissionController admission;
+    private HeartbeatConfig heartbeat;
+
+    private ExecutorService executor;
+    private IProcessor<INioSession>[] processors;
+
+    public ProcessorGroup()
+    {
+    }
+
+    public ProcessorGroup(String name, int size)
+    {
+        this.name = name;
+        this.size = size;
+    }
+
+    void bind(INetworkProvider provider, Scheduler scheduler, AdmissionController admission,
+        IProcessorSelector defaultSelector, HeartbeatConfig heartbeat)
+    {
+        this.provider = provider;
+        this.scheduler = scheduler;
+        this.admission = admission;
+        this.heartbeat = heartbeat;
+        if (processorSelector == null) {
+            processorSelector = defaultSelector;
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (StringUtils.isBlank(name) || size <= 0) {
+            throw new IllegalArgumentException("Invalid processor group name and size: " + name + "," + size);
+        }
+
+        executor = threadFactory == null ? Executors.newCachedThreadPool() : Executors.newCachedThreadPool(threadFactory);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        IProcessor<INioSession>[] pool = new IProcessor[size];
+        processors = pool;
+        for (int i = 0; i < pool.length; i++) {
+            boolean result = false;
+            try {
+                // Keep the thread names from the thread factory if provided
+                String threadName = threadFactory == null ? "nio-" + name + "-selector-" + i : null;
+                NioSessionProcessor processor = new NioSessionProcessor(i, threadName, provider, executor,
+                    scheduler, admission);
+                processor.setHeartbeatConfig(heartbeat);
+                pool[i] = processor;
+                processor.start();
+                result = true;
+            } finally {
+                if (!result && pool[i] != null) {
+                    pool[i].stop();
+                }
+            }
+        }
+        logger.info("Processor group {} started, pool size={}", name, pool.length);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        MultiException exception = new MultiException();
+        for (IProcessor<INioSession> processor : processors) {
+            try {
+                if (processor != null) {
+                    processor.stop();
+                }
+            } catch (Exception ex) {
+                exception.add(ex);
+            }
+        }
+        exception.ifExceptionThrow();
+        executor.shutdown();
+        logger.info("Processor group {} stopped", name);
+    }
+
+    public IProcessor<INioSession> next()
+    {
+        return processorSelector.select(processors);
+    }
+
+    IProcessor<INioSession>[] processors()
+    {
+        return processors;
+    }
+
+    /**
+     * Sessions registered on each processor, including the pending registrations
+     */
+    public int[] getSessionCounts()
+    {
+        IProcessor<INioSession>[] pool = processors;
+        int[] counts = new int[pool == null ? 0 : pool.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = pool[i] == null ? 0 : pool[i].getSessionCount();
+        }
+        return counts;
+    }
+
+    /**
+     * Recent load of each processor, the selected keys processed per second
+     */
+    public double[] getProcessorLoads()
+    {
+        IProcessor<INioSession>[] pool = processors;
+        double[] loads = new double[pool == null ? 0 : pool.length];
+        for (int i = 0; i < loads.length; i++) {
+            loads[i] = pool[i] == null ? 0 : pool[i].getLoad();
+        }
+        return loads;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    @SuppressWarnings("unused")
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    @SuppressWarnings("unused")
+    public void setSize(int size)
+    {
+        this.size = size;
+    }
+
+    @SuppressWarnings("unused")
+    public void setThreadFactory(ThreadFactory threadFactory)
+    {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Processor selection strategy of this group, the provider strategy by default
+     */
+    @SuppressWarnings("unused")
+    public void setProcessorSelector(IProcessorSelector processorSelector)
+    {
+        this.processorSelector = processorSelector;
+    }
+}
@@ -0,0 +1,204 @@
+package com.openjava.nio.provider;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Socket options of the client connections, the listening sockets and the accepted sessions.
+ * Options left null keep the OS defaults, extended options are looked up by name in
+ * StandardSocketOptions and jdk.net.ExtendedSocketOptions, e.g TCP_KEEPIDLE, TCP_KEEPINTERVAL,
+ * TCP_KEEPCOUNT or TCP_QUICKACK, and skipped if not supported by the running JDK.
+ */
+public class SocketConfig
+{
+    private static Logger logger = LoggerFactory.getLogger(SocketConfig.class);
+
+    private static final String[] OPTION_CLASSES = {"java.net.StandardSocketOptions", "jdk.net.ExtendedSocketOptions"};
+
+    private Boolean tcpNoDelay;
+    private Integer receiveBufferSize;
+    private Integer sendBufferSize;
+    private Boolean keepAlive;
+    private Integer soLinger;
+    private Boolean reuseAddress;
+    private Integer backlog;
+    private Map<String, Object> extendedOptions = Collections.emptyMap();
+
+    /**
+     * Create a new configuration, the options of the overrides win over the options of this one
+     */
+    public SocketConfig override(SocketConfig overrides)
+    {
+        if (overrides == null) {
+            return this;
+        }
+
+        SocketConfig config = new SocketConfig();
+        config.tcpNoDelay = overrides.tcpNoDelay != null ? overrides.tcpNoDelay : tcpNoDelay;
+        config.receiveBufferSize = overrides.receiveBufferSize != null ? overrides.receiveBufferSize : receiveBufferSize;
+        config.sendBufferSize = overrides.sendBufferSize != null ? overrides.sendBufferSize : sendBufferSize;
+        config.keepAlive = overrides.keepAlive != null ? overrides.keepAlive : keepAlive;
+        config.soLinger = overrides.soLinger != null ? overrides.soLinger : soLinger;
+        config.reuseAddress = overrides.reuseAddress != null ? overrides.reuseAddress : reuseAddress;
+        config.backlog = overrides.backlog != null ? overrides.backlog : backlog;
+        Map<String, Object> options = new LinkedHashMap<String, Object>(extendedOptions);
+        options.putAll(overrides.extendedOptions);
+        config.extendedOptions = options;
+        return config;
+    }
+
+    /**
+     * Apply the options of a listening socket, must be called before binding. The receive buffer
+     * size is set on the listening socket so that the accepted sockets inherit it before the
+     * TCP handshake, which is required for a window scale larger than 64K.
+     */
+    public void applyServer(ServerSocketChannel channel) throws IOException
+    {
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress == null ? Boolean.TRUE : reuseAddress);
+        if (receiveBufferSize != null) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+    }
+
+    /**
+     * Apply the options of a client socket before connecting, or of an accepted socket
+     */
+    public void apply(SocketChannel channel) throws IOException
+    {
+        if (tcpNoDelay != null) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        }
+        if (receiveBufferSize != null) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize != null) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+        if (keepAlive != null) {
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+        }
+        if (soLinger != null) {
+            channel.setOption(StandardSocketOptions.SO_LINGER, soLinger);
+        }
+        applyExtendedOptions(channel);
+    }
+
+    public int getBacklog(int defaultBacklog)
+    {
+        return backlog == null ? defaultBacklog : backlog;
+    }
+
+    private void applyExtendedOptions(NetworkChannel channel) throws IOException
+    {
+        for (Map.Entry<String, Object> entry : extendedOptions.entrySet()) {
+            SocketOption<Object> option = option(entry.getKey());
+            if (option == null || !channel.supportedOptions().contains(option)) {
+                logger.debug("Socket option {} not supported, ignore it", entry.getKey());
+                continue;
+            }
+            channel.setOption(option, convert(option, entry.getValue()));
+        }
+    }
+
+    private static Object convert(SocketOption<?> option, Object value)
+    {
+        // Values configured as text, e.g from a properties file
+        if (value instanceof String) {
+            if (option.type() == Integer.class) {
+                return Integer.valueOf(((String) value).trim());
+            }
+            if (option.type() == Boolean.class) {
+                return Boolean.valueOf(((String) value).trim());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Look up a socket option by name, null if the running JDK does not support it
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SocketOption<T> option(String name)
+    {
+        for (String className : OPTION_CLASSES) {
+            try {
+                Field field = Class.forName(className).getField(name);
+                Object option = field.get(null);
+                if (option instanceof SocketOption) {
+                    return (SocketOption<T>) option;
+                }
+            } catch (Exception ex) {
+                // Try the next one
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unused")
+    public void setTcpNoDelay(Boolean tcpNoDelay)
+    {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    @SuppressWarnings("unused")
+    public void setReceiveBufferSize(Integer receiveBufferSize)
+    {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    @SuppressWarnings("unused")
+    public void setSendBufferSize(Integer sendBufferSize)
+    {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    @SuppressWarnings("unused")
+    public void setKeepAlive(Boolean keepAlive)
+    {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * SO_LINGER in seconds, 0 closes the connections with a RST
+     */
+    @SuppressWarnings("unused")
+    public void setSoLinger(Integer soLinger)
+    {
+        this.soLinger = soLinger;
+    }
+
+    @SuppressWarnings("unused")
+    public void setReuseAddress(Boolean reuseAddress)
+    {
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * Listen backlog of the server sockets
+     */
+    @SuppressWarnings("unused")
+    public void setBacklog(Integer backlog)
+    {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Extended options by name, e.g TCP_KEEPIDLE=60
+     */
+    @SuppressWarnings("unused")
+    public void setExtendedOptions(Map<String, Object> extendedOptions)
+    {
+        this.extendedOptions = extendedOptions == null ? Collections.<String, Object>emptyMap() : extendedOptions;
+    }
+}
@@ -0,0 +1,336 @@
+package com.openjava.nio.provider.admission;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.openjava.nio.provider.session.INioSession;
+import com.openjava.nio.provider.session.listener.ISessionEventListener;
+
+/**
+ * Admission control for the accept path: a token bucket accept rate, a per remote IP
+ * concurrent connection cap and a global max sessions limit. Any limit less than or
+ * equal to zero means unlimited.
+ */
+public class AdmissionController
+{
+    public enum Decision
+    {
+        ACCEPT, DEFER, REJECT_RATE, REJECT_PER_IP, REJECT_MAX_SESSIONS
+    }
+
+    private double acceptRate = 0;
+    private int acceptBurst = 0;
+    private int maxSessionsPerIp = 0;
+    private int maxSessions = 0;
+    private boolean deferOnRateLimit = true;
+    private long deferIntervalMillis = 50;
+
+    // Token bucket state, guarded by this
+    private double tokens = -1;
+    private long lastRefillNanos;
+
+    private final AtomicInteger sessions = new AtomicInteger(0);
+    private final ConcurrentMap<InetAddress, AtomicInteger> addresses = new ConcurrentHashMap<InetAddress, AtomicInteger>();
+
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong deferred = new AtomicLong(0);
+    private final AtomicLong rejectedRate = new AtomicLong(0);
+    private final AtomicLong rejectedPerIp = new AtomicLong(0);
+    private final AtomicLong rejectedMaxSessions = new AtomicLong(0);
+    private final AtomicLong released = new AtomicLong(0);
+
+    /**
+     * Called before accepting a connection, returns ACCEPT if the accept rate allows one
+     * more connection, otherwise DEFER or REJECT_RATE according to the rate limit policy.
+     * The decision must be passed to admit() once a connection was accepted.
+     */
+    public Decision admitRate()
+    {
+        if (acceptRate <= 0 || tryAcquireToken()) {
+            return Decision.ACCEPT;
+        }
+
+        if (deferOnRateLimit) {
+            deferred.incrementAndGet();
+            return Decision.DEFER;
+        }
+        return Decision.REJECT_RATE;
+    }
+
+    /**
+     * Give back the token acquired by admitRate() when no connection was pending
+     */
+    public void refundRate()
+    {
+        if (acceptRate > 0) {
+            synchronized (this) {
+                tokens = Math.min(tokens + 1, burst());
+            }
+        }
+    }
+
+    /**
+     * Called once a connection was accepted, reserves a session slot for the remote address
+     * if both the global and the per IP limit allow it. An accepted session must be released
+     * through release(), see Permit for the session listener which does it automatically.
+     */
+    public Decision admit(InetAddress address, Decision rateDecision)
+    {
+        if (rateDecision == Decision.REJECT_RATE) {
+            rejectedRate.incrementAndGet();
+            return Decision.REJECT_RATE;
+        }
+
+        if (!acquireSession()) {
+            rejectedMaxSessions.incrementAndGet();
+            return Decision.REJECT_MAX_SESSIONS;
+        }
+
+        if (!acquireAddress(address)) {
+            sessions.decrementAndGet();
+            rejectedPerIp.incrementAndGet();
+            return Decision.REJECT_PER_IP;
+        }
+
+        accepted.incrementAndGet();
+        return Decision.ACCEPT;
+    }
+
+    public void release(InetAddress address)
+    {
+        released.incrementAndGet();
+        sessions.decrementAndGet();
+        if (maxSessionsPerIp > 0 && address != null) {
+            AtomicInteger counter = addresses.get(address);
+            if (counter != null && counter.decrementAndGet() == 0 && counter.compareAndSet(0, -1)) {
+                // Retire the counter, admit() will never use a retired counter
+                addresses.remove(address, counter);
+            }
+        }
+    }
+
+    public Permit permit(InetAddress address, ISessionEventListener listener)
+    {
+        return new Permit(address, listener);
+    }
+
+    private synchronized boolean tryAcquireToken()
+    {
+        long now = System.nanoTime();
+        int burst = burst();
+        if (tokens < 0) {
+            tokens = burst;
+        } else {
+            double elapsed = (double) (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1);
+            tokens = Math.min(burst, tokens + elapsed * acceptRate);
+        }
+        lastRefillNanos = now;
+
+        if (tokens >= 1) {
+            tokens = tokens - 1;
+            return true;
+        }
+        return false;
+    }
+
+    private int burst()
+    {
+        return acceptBurst > 0 ? acceptBurst : Math.max(1, (int) Math.ceil(acceptRate));
+    }
+
+    private boolean acquireSession()
+    {
+        for (;;) {
+            int count = sessions.get();
+            if (maxSessions > 0 && count >= maxSessions) {
+                return false;
+            }
+            if (sessions.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean acquireAddress(InetAddress address)
+    {
+        if (maxSessionsPerIp <= 0 || address == null) {
+            return true;
+        }
+
+        for (;;) {
+            AtomicInteger counter = addresses.get(address);
+            if (counter == null) {
+                counter = new AtomicInteger(0);
+                AtomicInteger previous = addresses.putIfAbsent(address, counter);
+                if (previous != null) {
+                    counter = previous;
+                }
+            }
+
+            int count = counter.get();
+            if (count < 0) {
+                // The counter was retired by release(), help removing it and retry
+                addresses.remove(address, counter);
+                continue;
+            }
+            if (count >= maxSessionsPerIp) {
+                return false;
+            }
+            if (counter.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public long getAcceptedCount()
+    {
+        return accepted.get();
+    }
+
+    public long getDeferredCount()
+    {
+        return deferred.get();
+    }
+
+    public long getRejectedRateCount()
+    {
+        return rejectedRate.get();
+    }
+
+    public long getRejectedPerIpCount()
+    {
+        return rejectedPerIp.get();
+    }
+
+    public long getRejectedMaxSessionsCount()
+    {
+        return rejectedMaxSessions.get();
+    }
+
+    public long getReleasedCount()
+    {
+        return released.get();
+    }
+
+    public int getSessionCount()
+    {
+        return sessions.get();
+    }
+
+    public boolean isDeferOnRateLimit()
+    {
+        return deferOnRateLimit;
+    }
+
+    public long getDeferIntervalMillis()
+    {
+        return deferIntervalMillis;
+    }
+
+    /**
+     * Accepted connections per second, less than or equal to zero means unlimited
+     */
+    @SuppressWarnings("unused")
+    public void setAcceptRate(double acceptRate)
+    {
+        this.acceptRate = acceptRate;
+    }
+
+    /**
+     * Maximum connections accepted in a burst, the accept rate rounded up by default
+     */
+    @SuppressWarnings("unused")
+    public void setAcceptBurst(int acceptBurst)
+    {
+        this.acceptBurst = acceptBurst;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxSessionsPerIp(int maxSessionsPerIp)
+    {
+        this.maxSessionsPerIp = maxSessionsPerIp;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxSessions(int maxSessions)
+    {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * When the accept rate is exceeded, stop accepting for deferIntervalMillis if true and
+     * leave the pending connections in the listen backlog, otherwise close them immediately
+     */
+    @SuppressWarnings("unused")
+    public void setDeferOnRateLimit(boolean deferOnRateLimit)
+    {
+        this.deferOnRateLimit = deferOnRateLimit;
+    }
+
+    @SuppressWarnings("unused")
+    public void setDeferIntervalMillis(long deferIntervalMillis)
+    {
+        this.deferIntervalMillis = deferIntervalMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("AdmissionController{sessions=%d,accepted=%d,released=%d,deferred=%d,rejectedRate=%d,"
+            + "rejectedPerIp=%d,rejectedMaxSessions=%d}", getSessionCount(), getAcceptedCount(), getReleasedCount(),
+            getDeferredCount(), getRejectedRateCount(), getRejectedPerIpCount(), getRejectedMaxSessionsCount());
+    }
+
+    /**
+     * Session listener of an admitted connection, gives the session slot back once closed
+     */
+    public class Permit implements ISessionEventListener
+    {
+        private final InetAddress address;
+        private final ISessionEventListener listener;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(InetAddress address, ISessionEventListener listener)
+        {
+            this.address = address;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onSessionCreated(INioSession session)
+        {
+            if (listener != null) {
+                listener.onSessionCreated(session);
+            }
+        }
+
+        @Override
+        public void onSessionClosed(INioSession session)
+        {
+            release();
+            if (listener != null) {
+                listener.onSessionClosed(session);
+            }
+        }
+
+        @Override
+        public void onSocketConnectTimeout()
+        {
+            if (listener != null) {
+                listener.onSocketConnectTimeout();
+            }
+        }
+
+        public void release()
+        {
+            if (released.compareAndSet(false, true)) {
+                AdmissionController.this.release(address);
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
 import com.openjava.nio.infrastructure.ILifeCycle;
+import com.openjava.nio.provider.SocketConfig;
 import com.openjava.nio.provider.session.INioSession;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import com.openjava.nio.provider.session.listener.ISessionEventListener;
@@ -14,6 +15,14 @@ public interface IProcessor<T extends INioSession> extends ILifeCycle
     
     void registerServer(ServerSocketChannel serverSocket, ISessionEventListener eventListener,
         ISessionDataListener dataListner);
+
+    /**
+     * Register a server socket, the accepted sessions are handed back to the network provider
+     * and registered on the worker group, or kept on this processor if the worker group is null.
+     * The socket config, if not null, is applied to the accepted sessions.
+     */
+    void registerServer(ServerSocketChannel serverSocket, ISessionEventListener eventListener,
+        ISessionDataListener dataListner, String workerGroup, SocketConfig config);
     
     void registerConnection(SocketChannel channel, ISessionEventListener eventListener,
         ISessionDataListener dataListner, long timeoutInMillis);
@@ -23,4 +32,19 @@ public interface IProcessor<T extends INioSession> extends ILifeCycle
     void registerWriter(INioSession session);
     
     void unregisterSession(T session);
+
+    /**
+     * Check the heartbeat of the sessions on the selector thread, nothing if the heartbeat is disabled
+     */
+    void checkIdle();
+
+    /**
+     * Sessions registered on this processor, including the pending registrations and connections
+     */
+    int getSessionCount();
+
+    /**
+     * Recent load of the processor, the selected keys processed per second
+     */
+    double getLoad();
 }
@@ -0,0 +1,11 @@
+package com.openjava.nio.provider.processor;
+
+import com.openjava.nio.provider.session.INioSession;
+
+/**
+ * Strategy choosing the processor a new session, connection or server is registered on
+ */
+public interface IProcessorSelector
+{
+    IProcessor<INioSession> select(IProcessor<INioSession>[] processors);
+}
@@ -2,10 +2,16 @@ package com.openjava.nio.provider.processor;
 
 import com.openjava.nio.exception.SessionClosedException;
 import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.provider.HeartbeatConfig;
 import com.openjava.nio.provider.INetworkProvider;
+import com.openjava.nio.provider.SocketConfig;
+import com.openjava.nio.provider.admission.AdmissionController;
 import com.openjava.nio.provider.session.INioSession;
 import com.openjava.nio.provider.session.NioSession;
 import com.openjava.nio.provider.session.SessionContext;
+import com.openjava.nio.provider.session.SessionState;
+import com.openjava.nio.provider.session.data.SessionDataChannel;
+import com.openjava.nio.provider.session.listener.IConnectListener;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import com.openjava.nio.provider.session.listener.ISessionEventListener;
 import com.openjava.nio.util.Scheduler;
@@ -14,7 +20,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.net.InetAddress;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.nio.channels.*;
 import java.util.Queue;
 import java.util.Set;
@@ -22,31 +30,54 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSession>
 {
     private static Logger LOG = LoggerFactory.getLogger(NioSessionProcessor.class);
+
+    private static final long LOAD_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
     
     private long id;
+    private String name;
     private Thread current;
     private Selector selector;
     private INetworkProvider provider;
     private final Executor executor;
     private final Scheduler scheduler;
+    private final AdmissionController admission;
+    private volatile HeartbeatConfig heartbeat;
     
     private final Queue<Runnable> changes = new ConcurrentLinkedQueue<Runnable>();
     private final AtomicReference<State> state = new AtomicReference<State>(State.PROCESS);
+
+    private final AtomicInteger sessions = new AtomicInteger(0);
+    // Load statistics, only updated by the selector thread
+    private long events = 0;
+    private volatile long lastTick = System.nanoTime();
+    private volatile double load = 0;
     
     public NioSessionProcessor(long id, INetworkProvider provider, Executor executor, Scheduler scheduler)
+    {
+        this(id, "nio-selector-" + id, provider, executor, scheduler, null);
+    }
+
+    /**
+     * The selector thread is renamed to the name during the processor life cycle, unless it is null
+     */
+    public NioSessionProcessor(long id, String name, INetworkProvider provider, Executor executor,
+        Scheduler scheduler, AdmissionController admission)
     {
         if (executor == null) {
             throw new IllegalArgumentException("Executor cannot be empty");
         }
         this.id = id;
+        this.name = name;
         this.provider = provider;
         this.executor = executor;
         this.scheduler = scheduler;
+        this.admission = admission;
     }
     
     @Override
@@ -54,7 +85,15 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         ISessionDataListener dataListener)
     {
         checkState();
-        submit(this.new Acceptor(serverSocket, eventListener, dataListener));
+        submit(this.new Acceptor(serverSocket, eventListener, dataListener, false, null, null));
+    }
+
+    @Override
+    public void registerServer(ServerSocketChannel serverSocket, ISessionEventListener eventListener,
+        ISessionDataListener dataListener, String workerGroup, SocketConfig config)
+    {
+        checkState();
+        submit(this.new Acceptor(serverSocket, eventListener, dataListener, workerGroup == null, workerGroup, config));
     }
     
     @Override
@@ -62,6 +101,7 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         ISessionDataListener dataListener, long timeoutInMillis)
     {
         checkState();
+        sessions.incrementAndGet();
         submit(this.new Connect(channel, eventListener, dataListener, timeoutInMillis));
     }
     
@@ -70,6 +110,7 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         ISessionDataListener dataListener)
     {
         checkState();
+        sessions.incrementAndGet();
         submit(this.new Register(channel, eventListener, dataListener));
     }
     
@@ -84,7 +125,23 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
     public void unregisterSession(INioSession session)
     {
         checkState();
-        submit(ProcessorUtils.CloseCommand.create(session));
+        submit(this.new Unregister(session));
+    }
+
+    @Override
+    public void checkIdle()
+    {
+        if (heartbeat != null && isRunning()) {
+            submit(this.new IdleCheck(heartbeat));
+        }
+    }
+
+    /**
+     * Enable the session heartbeat, must be set before the processor starts
+     */
+    public void setHeartbeatConfig(HeartbeatConfig heartbeat)
+    {
+        this.heartbeat = heartbeat;
     }
     
     public void submit(Runnable change)
@@ -132,6 +189,24 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
     {
         return id;
     }
+
+    @Override
+    public int getSessionCount()
+    {
+        return sessions.get();
+    }
+
+    @Override
+    public double getLoad()
+    {
+        double current = load;
+        long idle = System.nanoTime() - lastTick;
+        // Decay the load when the selector is blocked and no statistics were updated
+        if (idle > 2 * LOAD_INTERVAL_NANOS) {
+            current = current * LOAD_INTERVAL_NANOS / idle;
+        }
+        return current;
+    }
     
     private void wakeup()
     {
@@ -167,6 +242,19 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
             throw new IllegalStateException("Invalid processor state, state:" + getState());
         }
     }
+
+    private void destroy(SessionContext context)
+    {
+        INioSession session = context.session();
+        if (session.getState() == SessionState.CLOSED) {
+            return;
+        }
+        ProcessorUtils.CloseCommand.create(session).run();
+        sessions.decrementAndGet();
+        // fire session removed
+        context.fireSessionClosed();
+        LOG.info("Closed the session[SID={}]", session.getId());
+    }
     
     private class Processor implements Runnable 
     {
@@ -176,7 +264,9 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
             current = Thread.currentThread();
             String name = current.getName();
             try {
-                current.setName("nio-selector-" + NioSessionProcessor.this.id());
+                if (NioSessionProcessor.this.name != null) {
+                    current.setName(NioSessionProcessor.this.name);
+                }
                 LOG.debug("Starting the processor thread {}", current.getName());
                 while (isRunning()) {
                     select();
@@ -233,6 +323,7 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
                     }
                 }
                 selectedKeys.clear();
+                updateLoad(keys);
             } catch (Throwable x) {
                 if (isRunning()) {
                     LOG.warn("Selector failed", x);
@@ -240,6 +331,20 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
             }
         }
         
+        private void updateLoad(int keys)
+        {
+            events += keys;
+            long now = System.nanoTime();
+            long elapsed = now - lastTick;
+            if (elapsed >= LOAD_INTERVAL_NANOS) {
+                double rate = (double) events * LOAD_INTERVAL_NANOS / elapsed;
+                // Exponentially weighted moving average of the selected keys per second
+                load = (load + rate) / 2;
+                events = 0;
+                lastTick = now;
+            }
+        }
+
         private void processKey(SelectionKey key)
         {
             Object attachment = key.attachment();
@@ -276,13 +381,17 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         private void processSession(SessionContext context) throws IOException
         {
             INioSession session = context.session();
+            if (session.getState() != SessionState.CONNECTED) {
+                // Closed by a listener or another thread, the unregister task releases it
+                return;
+            }
             SelectionKey key = session.getSelectionKey();
             if (key.isReadable()) {
                 LOG.debug("Starting to read the session[SID={}]", session.getId());
 //                ByteBuffer packet = sessionHandler.processReadRequest(session);
                 byte[] packet = session.getDataChannel().read();
-                while (packet != null) { // Make sure we will have better socket IO usage
-                    // Retry until no data in socket
+                // Retry until no data in socket, a listener may have closed the session meanwhile
+                while (packet != null && session.getState() == SessionState.CONNECTED) {
                     packet = session.getDataChannel().read();
                 }
             } else if (key.isWritable()) {
@@ -299,14 +408,84 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
             
             Acceptor acceptor = (Acceptor) key.attachment();
             try {
-                while ((channel = serverSocket.accept()) != null) {
-                    provider.registerSession(channel, acceptor.eventListener, acceptor.dataListener);
+                while (true) {
+                    AdmissionController.Decision decision = AdmissionController.Decision.ACCEPT;
+                    if (admission != null && (decision = admission.admitRate()) == AdmissionController.Decision.DEFER) {
+                        deferAccept(key);
+                        break;
+                    }
+
+                    if ((channel = serverSocket.accept()) == null) {
+                        if (admission != null && decision == AdmissionController.Decision.ACCEPT) {
+                            admission.refundRate();
+                        }
+                        break;
+                    }
+
+                    ISessionEventListener eventListener = acceptor.eventListener;
+                    AdmissionController.Permit permit = null;
+                    if (admission != null) {
+                        InetAddress address = channel.socket().getInetAddress();
+                        decision = admission.admit(address, decision);
+                        if (decision != AdmissionController.Decision.ACCEPT) {
+                            LOG.debug("Connection from {} not admitted, {}", address, decision);
+                            reject(channel);
+                            continue;
+                        }
+                        eventListener = permit = admission.permit(address, eventListener);
+                    }
+
+                    // One failed connection neither keeps its session slot nor stops the accept loop
+                    try {
+                        if (acceptor.config != null) {
+                            acceptor.config.apply(channel);
+                        }
+
+                        if (acceptor.bindSessions) {
+                            registerSession(channel, eventListener, acceptor.dataListener);
+                        } else {
+                            provider.registerSession(channel, eventListener, acceptor.dataListener, acceptor.workerGroup);
+                        }
+                    } catch (Throwable ex) {
+                        if (permit != null) {
+                            permit.release();
+                        }
+                        ProcessorUtils.closeQuietly(channel);
+                        LOG.error("Register accepted channel failed " + channel, ex);
+                    }
                 }
             } catch (Throwable ex) {
                 ProcessorUtils.closeQuietly(channel);
                 LOG.error("Accept failed for channel " + channel, ex);
             }
         }
+
+        /**
+         * Stop accepting for a while and leave the pending connections in the listen backlog
+         */
+        private void deferAccept(final SelectionKey key)
+        {
+            key.interestOps(0);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    submit(new ResumeAccept(key));
+                }
+            }, admission.getDeferIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Close the connection with a RST, no TIME_WAIT and no session state allocated
+         */
+        private void reject(SocketChannel channel)
+        {
+            try {
+                channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            } catch (Throwable ex) {
+                // Ignore it, close it anyway
+            }
+            ProcessorUtils.closeQuietly(channel);
+        }
         
         private void processConnect(SelectionKey key)
         {
@@ -317,7 +496,8 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
                 if (connected) {
                     connect.timeout.cancel();
                     key.interestOps(0);
-                    registerSession(channel, connect.eventListener, connect.dataListener);
+                    // The session was counted when the connection was registered
+                    submit(new Register(channel, connect.eventListener, connect.dataListener));
                 } else {
                     throw new ConnectException("finishConnect failed");
                 }
@@ -327,15 +507,6 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
             }
         }
         
-        private void destroy(SessionContext context)
-        {
-            INioSession session = context.session();
-            ProcessorUtils.CloseCommand.create(session).run();
-            // fire session removed
-            context.fireSessionClosed();
-            LOG.info("Closed the session[SID={}]", session.getId());
-        }
-        
         private void runChanges()
         {
             Runnable change;
@@ -355,12 +526,19 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         private final ISessionEventListener eventListener;
         private final ISessionDataListener dataListener;
         private final ServerSocketChannel channel;
+        private final boolean bindSessions;
+        private final String workerGroup;
+        private final SocketConfig config;
 
-        public Acceptor(ServerSocketChannel channel, ISessionEventListener eventListener, ISessionDataListener dataListener)
+        public Acceptor(ServerSocketChannel channel, ISessionEventListener eventListener,
+            ISessionDataListener dataListener, boolean bindSessions, String workerGroup, SocketConfig config)
         {
             this.channel = channel;
             this.eventListener = eventListener;
             this.dataListener = dataListener;
+            this.bindSessions = bindSessions;
+            this.workerGroup = workerGroup;
+            this.config = config;
         }
 
         @Override
@@ -394,26 +572,143 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         public void run()
         {
             NioSession session = null;
+            SessionContext context = null;
             try {
                 channel.configureBlocking(false);
                 SelectionKey key = channel.register(selector, SelectionKey.OP_READ, null);
                 session = NioSession.create(channel, key, NioSessionProcessor.this);
                 // register data listener for data channel
                 session.getDataChannel().registerListeners(dataListener);
-                SessionContext context = SessionContext.create(session, eventListener);
+                session.getDataChannel().setHeartbeatEnabled(heartbeat != null);
+                context = SessionContext.create(session, eventListener);
                 key.attach(context);
                 // Register this session to manager
                 context.fireSessionCreated();
                 LOG.debug("Registered the read event to NIO selector {}", current.getName());
             } catch (IOException iex) {
-                ProcessorUtils.CloseCommand.create(session).run();
+                close(session);
+                sessions.decrementAndGet();
+                releasePermit();
+                connectFailed(iex);
                 LOG.error("Register NIO read event exception", iex);
             } catch (Throwable ex) {
+                if (context != null) {
+                    // A live session whose created listener failed, closed once like any other session
+                    LOG.error("Session created listener exception[SID=" + session.getId() + "]", ex);
+                    destroy(context);
+                    return;
+                }
+
+                // Never announced, no close event will give the slot back
+                close(session);
+                sessions.decrementAndGet();
+                releasePermit();
+                connectFailed(ex);
                 LOG.error("Register NIO session unknown exception", ex);
             }
         }
+
+        private void close(NioSession session)
+        {
+            if (session == null) {
+                ProcessorUtils.closeQuietly(channel);
+            } else {
+                ProcessorUtils.CloseCommand.create(session).run();
+            }
+        }
+
+        private void connectFailed(Throwable cause)
+        {
+            if (eventListener instanceof IConnectListener) {
+                ((IConnectListener) eventListener).onSocketConnectFailed(cause);
+            }
+        }
+
+        private void releasePermit()
+        {
+            if (eventListener instanceof AdmissionController.Permit) {
+                ((AdmissionController.Permit) eventListener).release();
+            }
+        }
+    }
+
+    private class Unregister implements Runnable
+    {
+        private final INioSession session;
+
+        public Unregister(INioSession session)
+        {
+            this.session = session;
+        }
+
+        @Override
+        public void run()
+        {
+            SelectionKey key = session.getSelectionKey();
+            Object attachment = key == null ? null : key.attachment();
+            if (attachment instanceof SessionContext) {
+                destroy((SessionContext) attachment);
+            } else {
+                ProcessorUtils.CloseCommand.create(session).run();
+            }
+        }
+    }
+
+    private class ResumeAccept implements Runnable
+    {
+        private final SelectionKey key;
+
+        public ResumeAccept(SelectionKey key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_ACCEPT);
+                LOG.debug("Resumed accepting on selector {}", current.getName());
+            }
+        }
     }
     
+    private class IdleCheck implements Runnable
+    {
+        private final HeartbeatConfig config;
+
+        public IdleCheck(HeartbeatConfig config)
+        {
+            this.config = config;
+        }
+
+        @Override
+        public void run()
+        {
+            long now = System.currentTimeMillis();
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (!(attachment instanceof SessionContext)) {
+                    continue;
+                }
+
+                SessionContext context = (SessionContext) attachment;
+                INioSession session = context.session();
+                if (session.getState() != SessionState.CONNECTED) {
+                    continue;
+                }
+                if (config.getReadIdleMillis() > 0 && now - session.getLastReadTime() >= config.getReadIdleMillis()) {
+                    LOG.warn("Nothing read from session[SID={}] for {} ms, close it", session.getId(),
+                        now - session.getLastReadTime());
+                    destroy(context);
+                } else if (config.getWriteIdleMillis() > 0
+                    && now - session.getLastWriteTime() >= config.getWriteIdleMillis()) {
+                    session.send(SessionDataChannel.heartbeat(SessionDataChannel.HEARTBEAT_PING));
+                }
+            }
+        }
+    }
+
     private class Writer implements Runnable
     {
         private final INioSession session;
@@ -478,9 +773,14 @@ public class NioSessionProcessor extends LifeCycle implements IProcessor<INioSes
         {
             if (failed.compareAndSet(false, true)) {
                 ProcessorUtils.closeQuietly(channel);
-                timeout.cancel();
+                sessions.decrementAndGet();
+                if (timeout != null) {
+                    timeout.cancel();
+                }
                 if (failure instanceof SocketTimeoutException) {
                     eventListener.onSocketConnectTimeout();
+                } else if (eventListener instanceof IConnectListener) {
+                    ((IConnectListener) eventListener).onSocketConnectFailed(failure);
                 }
             }
         }
@@ -0,0 +1,101 @@
+package com.openjava.nio.provider.processor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.openjava.nio.provider.session.INioSession;
+
+public class ProcessorSelectors
+{
+    /**
+     * Atomic round robin, ignores the processor load
+     */
+    public static class RoundRobin implements IProcessorSelector
+    {
+        private final AtomicLong pointer = new AtomicLong(0);
+
+        private RoundRobin()
+        {
+        }
+
+        public static RoundRobin create()
+        {
+            return new RoundRobin();
+        }
+
+        @Override
+        public IProcessor<INioSession> select(IProcessor<INioSession>[] processors)
+        {
+            long index = pointer.getAndIncrement() % processors.length;
+            return processors[(int) index];
+        }
+    }
+
+    /**
+     * The processor with the least registered and pending sessions, ties are broken by round robin
+     */
+    public static class LeastSessions implements IProcessorSelector
+    {
+        private final AtomicLong pointer = new AtomicLong(0);
+
+        private LeastSessions()
+        {
+        }
+
+        public static LeastSessions create()
+        {
+            return new LeastSessions();
+        }
+
+        @Override
+        public IProcessor<INioSession> select(IProcessor<INioSession>[] processors)
+        {
+            int start = (int) (pointer.getAndIncrement() % processors.length);
+            IProcessor<INioSession> selected = processors[start];
+            int least = selected.getSessionCount();
+            for (int i = 1; i < processors.length && least > 0; i++) {
+                IProcessor<INioSession> processor = processors[(start + i) % processors.length];
+                int count = processor.getSessionCount();
+                if (count < least) {
+                    selected = processor;
+                    least = count;
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * The processor with the least recent load, the selected keys per second processed
+     * by its selector, ties are broken by the session count
+     */
+    public static class LeastLoad implements IProcessorSelector
+    {
+        private final AtomicLong pointer = new AtomicLong(0);
+
+        private LeastLoad()
+        {
+        }
+
+        public static LeastLoad create()
+        {
+            return new LeastLoad();
+        }
+
+        @Override
+        public IProcessor<INioSession> select(IProcessor<INioSession>[] processors)
+        {
+            int start = (int) (pointer.getAndIncrement() % processors.length);
+            IProcessor<INioSession> selected = processors[start];
+            double least = selected.getLoad();
+            for (int i = 1; i < processors.length; i++) {
+                IProcessor<INioSession> processor = processors[(start + i) % processors.length];
+                double load = processor.getLoad();
+                if (load < least || (load == least && processor.getSessionCount() < selected.getSessionCount())) {
+                    selected = processor;
+                    least = load;
+                }
+            }
+            return selected;
+        }
+    }
+}
@@ -25,18 +25,13 @@ public class ProcessorUtils
         @Override
         public void run()
         {
+            // Sessions are attached through their context, listeners and pending connects are
+            // attached otherwise, so close every registered channel whatever the attachment
             for (SelectionKey key : selector.keys()) {
-                Object attachment = key.attachment();
-                if (attachment instanceof INioSession) {
-                    INioSession session = (INioSession) attachment;
-                    
-                    SelectionKey k = session.getSelectionKey();
-                    if (k != null && k.isValid()) {
-                        k.cancel();
-                    }
-                    
-                    closeQuietly(session.getChannel());
+                if (key.isValid()) {
+                    key.cancel();
                 }
+                closeQuietly(key.channel());
             }
 
             closeQuietly(selector);
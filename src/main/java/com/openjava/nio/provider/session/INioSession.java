@@ -22,6 +22,16 @@ public interface INioSession extends IExpirable
     void send(byte[] packet);
 
     SessionState getState();
+
+    /**
+     * The last time some bytes were read from the channel
+     */
+    long getLastReadTime();
+
+    /**
+     * The last time some bytes were written to the channel
+     */
+    long getLastWriteTime();
     
     void destroy();
 }
@@ -86,6 +86,18 @@ public class NioSession implements INioSession
     {
         return this.state;
     }
+
+    @Override
+    public long getLastReadTime()
+    {
+        return dataChannel.getLastReadTime();
+    }
+
+    @Override
+    public long getLastWriteTime()
+    {
+        return dataChannel.getLastWriteTime();
+    }
     
 
     @Override
@@ -13,4 +13,13 @@ public interface IDataChannel
     void write() throws IOException;
 
     void registerListeners(ISessionDataListener... listeners);
+
+    /**
+     * Answer and swallow the heartbeat control frames instead of passing them to the listeners
+     */
+    void setHeartbeatEnabled(boolean enabled);
+
+    long getLastReadTime();
+
+    long getLastWriteTime();
 }
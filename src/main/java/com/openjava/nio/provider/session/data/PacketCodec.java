@@ -0,0 +1,84 @@
+package com.openjava.nio.provider.session.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Session packet framing: [int frame size including the 4 head bytes, little endian][body].
+ * The decoder keeps the state of one partially read frame, it is not thread safe.
+ */
+public class PacketCodec
+{
+    public static final int PROTOCOL_HEAD_SIZE = 4;
+
+    private final ByteBuffer headerBuffer;
+
+    private ByteBuffer bodyBuffer;
+
+    private long bytesRead;
+
+    public PacketCodec()
+    {
+        this.headerBuffer = ByteBuffer.allocate(PROTOCOL_HEAD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static ByteBuffer encode(byte[] packet)
+    {
+        int frameSize = PROTOCOL_HEAD_SIZE + packet.length;
+        ByteBuffer data = ByteBuffer.allocate(frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(frameSize);
+        data.put(packet);
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Read the channel until one packet completes, null if no more bytes available yet
+     *
+     * @throws EOFException if the channel reached the end of stream
+     */
+    public byte[] decode(ReadableByteChannel channel) throws IOException
+    {
+        if (bodyBuffer == null) {
+            read(channel, headerBuffer);
+            if (headerBuffer.hasRemaining()) {
+                return null;
+            }
+
+            headerBuffer.flip();
+            int frameSize = headerBuffer.getInt();
+            bodyBuffer = ByteBuffer.allocate(frameSize - PROTOCOL_HEAD_SIZE);
+        }
+
+        read(channel, bodyBuffer);
+        if (bodyBuffer.hasRemaining()) {
+            return null;
+        }
+
+        byte[] packet = bodyBuffer.array();
+        headerBuffer.clear();
+        bodyBuffer = null;
+        return packet;
+    }
+
+    /**
+     * Total bytes read by the decoder
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    private int read(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        int numOfByte = channel.read(buffer);
+        if (numOfByte == -1) {
+            throw new EOFException();
+        }
+        bytesRead += numOfByte;
+        return numOfByte;
+    }
+}
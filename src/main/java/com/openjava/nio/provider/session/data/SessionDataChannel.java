@@ -1,16 +1,16 @@
 package com.openjava.nio.provider.session.data;
 
 import com.openjava.nio.exception.SessionClosedException;
+import com.openjava.nio.infrastructure.type.MessageType;
 import com.openjava.nio.provider.session.INioSession;
 import com.openjava.nio.provider.session.listener.ISessionDataListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.SocketChannel;
 import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
@@ -21,59 +21,59 @@ public class SessionDataChannel implements IDataChannel
 {
     private static Logger LOG = LoggerFactory.getLogger(SessionDataChannel.class);
 
-    private static final int PROTOCOL_HEAD_SIZE = 4;
+    /**
+     * Heartbeat control frame body: [int MSG_SESSION_KEEP_ALIVE][byte PING or PONG], exactly 5 bytes, the int
+     * little endian as the frame size
+     */
+    public static final byte HEARTBEAT_PING = 1;
+    public static final byte HEARTBEAT_PONG = 2;
+    private static final int HEARTBEAT_FRAME_SIZE = 5;
 
     private INioSession session;
 
-    private final ByteBuffer headerBuffer;
-
-    private ByteBuffer bodyBuffer;
+    private final PacketCodec codec = new PacketCodec();
 
     private final Queue<ByteBuffer> dataBuffer = new ConcurrentLinkedQueue<ByteBuffer>();
 
     private final List<ISessionDataListener> listeners = new CopyOnWriteArrayList<ISessionDataListener>();
 
+    private volatile boolean heartbeatEnabled = false;
+
+    private volatile long lastReadTime;
+
+    private volatile long lastWriteTime;
+
     public SessionDataChannel(INioSession session)
     {
         this.session = session;
-        this.headerBuffer =  ByteBuffer.allocate(PROTOCOL_HEAD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.lastReadTime = this.lastWriteTime = System.currentTimeMillis();
     }
 
     @Override
     public byte[] read() throws IOException
     {
-        int numOfByte;
-        SocketChannel channel = session.getChannel();
-
-        if (bodyBuffer == null) {
-            numOfByte = channel.read(headerBuffer);
-            if(numOfByte == -1) {
-                throw new SessionClosedException("Nio session[SID=" + session.getId() + "] closed, channel disconnected");
-            }
-
-            if (headerBuffer.hasRemaining()) {
-                return null;
-            } else {
-                headerBuffer.flip();
-                int bodySize = headerBuffer.getInt();
-                bodyBuffer = ByteBuffer.allocate(bodySize - 4).order(ByteOrder.LITTLE_ENDIAN);
-            }
-        }
-
-        numOfByte = channel.read(bodyBuffer);
-        if(numOfByte == -1) {
+        long bytesRead = codec.getBytesRead();
+        byte[] packet;
+        try {
+            packet = codec.decode(session.getChannel());
+        } catch (EOFException ex) {
             throw new SessionClosedException("Nio session[SID=" + session.getId() + "] closed, channel disconnected");
-        } else {
-            LOG.debug("{} bytes read from session[SID={}]", numOfByte, session.getId());
+        } finally {
+            if (codec.getBytesRead() != bytesRead) {
+                lastReadTime = System.currentTimeMillis();
+            }
         }
 
-        if (bodyBuffer.hasRemaining()) {
+        if (packet == null) {
             return null;
         } else {
-            bodyBuffer.flip();
-            byte[] packet = bodyBuffer.array();
-            headerBuffer.clear();
-            bodyBuffer = null;
+            if (heartbeatEnabled && isHeartbeat(packet)) {
+                // Answer on the selector thread, no handoff to the listeners
+                if (packet[4] == HEARTBEAT_PING) {
+                    send(heartbeat(HEARTBEAT_PONG));
+                }
+                return packet;
+            }
 
             // fire data received event
             fireDataReceived(packet);
@@ -85,12 +85,7 @@ public class SessionDataChannel implements IDataChannel
     public void send(byte[] packet)
     {
         if (packet != null) {
-            int bodySize = PROTOCOL_HEAD_SIZE + packet.length;
-            ByteBuffer data = ByteBuffer.allocate(bodySize).order(ByteOrder.LITTLE_ENDIAN);
-            data.putInt(bodySize);
-            data.put(packet);
-            data.flip();
-            dataBuffer.add(data);
+            dataBuffer.add(PacketCodec.encode(packet));
             session.getProcessor().registerWriter(session);
         }
     }
@@ -103,6 +98,9 @@ public class SessionDataChannel implements IDataChannel
                 ByteBuffer request = dataBuffer.peek();
                 if (request != null) {
                     int num = session.getChannel().write(request);
+                    if (num > 0) {
+                        lastWriteTime = System.currentTimeMillis();
+                    }
                     if(!request.hasRemaining()) {
                         LOG.debug("{} bytes written to session[SID={}]", num, session.getId());
                         dataBuffer.remove();
@@ -130,6 +128,39 @@ public class SessionDataChannel implements IDataChannel
         }
     }
 
+    @Override
+    public void setHeartbeatEnabled(boolean enabled)
+    {
+        this.heartbeatEnabled = enabled;
+    }
+
+    @Override
+    public long getLastReadTime()
+    {
+        return lastReadTime;
+    }
+
+    @Override
+    public long getLastWriteTime()
+    {
+        return lastWriteTime;
+    }
+
+    public static byte[] heartbeat(byte kind)
+    {
+        int type = MessageType.MSG_SESSION_KEEP_ALIVE;
+        return new byte[] {(byte) type, (byte) (type >>> 8), (byte) (type >>> 16), (byte) (type >>> 24), kind};
+    }
+
+    public static boolean isHeartbeat(byte[] packet)
+    {
+        if (packet.length != HEARTBEAT_FRAME_SIZE) {
+            return false;
+        }
+        int type = (packet[0] & 0xFF) | (packet[1] & 0xFF) << 8 | (packet[2] & 0xFF) << 16 | (packet[3] & 0xFF) << 24;
+        return type == MessageType.MSG_SESSION_KEEP_ALIVE && (packet[4] == HEARTBEAT_PING || packet[4] == HEARTBEAT_PONG);
+    }
+
     private void fireDataReceived(byte[] packet)
     {
         for (ISessionDataListener listener : listeners) {
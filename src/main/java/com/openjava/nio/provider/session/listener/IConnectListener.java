@@ -0,0 +1,10 @@
+package com.openjava.nio.provider.session.listener;
+
+public interface IConnectListener extends ISessionEventListener
+{
+    /**
+     * Only for client socket, fired when a client socket connect failed for any reason
+     * other than the timeout, such as connection refused or unreachable host
+     */
+    void onSocketConnectFailed(Throwable cause);
+}
@@ -0,0 +1,16 @@
+package com.openjava.nio.route;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.openjava.nio.util.ListenableFuture;
+
+public interface IRouteResolver
+{
+    /**
+     * Remote MSG_LOCATE_USER_ROUTE of several users at once: the node of each online user, the offline
+     * users are absent from the result. The cache fails the future with a TimeoutException when not
+     * completed within its lookup timeout, a late result is ignored.
+     */
+    ListenableFuture<Map<String, String>> locate(Collection<String> userIds);
+}
@@ -0,0 +1,515 @@
+package com.openjava.nio.route;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.infrastructure.type.MessageType;
+import com.openjava.nio.util.ListenableFuture;
+import com.openjava.nio.util.ScheduledExecutor;
+import com.openjava.nio.util.Scheduler;
+
+/**
+ * Local cache of the user routes in front of the remote MSG_LOCATE_USER_ROUTE.
+ *
+ * The routes live in LRU segments bounded to maxSize in total, for ttlMillis, the offline users for
+ * negativeTtlMillis. The register, unregister and refresh route messages update the cache. The misses
+ * of a locate go to the resolver in one batch, a user already being located by another call joins the
+ * pending lookup instead of starting another one. A lookup started before an update of its user
+ * completes its callers but is not cached. A lookup not completed within lookupTimeoutMillis fails its
+ * callers with a TimeoutException, so a resolver losing a request never leaves the users pending.
+ */
+public class UserRouteCache extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(UserRouteCache.class);
+
+    private static final int SEGMENTS = 16;
+
+    private IRouteResolver resolver;
+    private int maxSize = 100000;
+    private long ttlMillis = 60 * 1000;
+    private long negativeTtlMillis = 5 * 1000;
+    private int maxBatchSize = 256;
+    private long lookupTimeoutMillis = 3 * 1000;
+
+    private Segment[] segments;
+    private ScheduledExecutor scheduler;
+    private final ConcurrentMap<String, Pending> pendings = new ConcurrentHashMap<String, Pending>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong remoteLookups = new AtomicLong();
+
+    public static UserRouteCache create(IRouteResolver resolver)
+    {
+        UserRouteCache cache = new UserRouteCache();
+        cache.setResolver(resolver);
+        return cache;
+    }
+
+    /**
+     * The node of the user, null if offline
+     */
+    public ListenableFuture<String> locate(final String userId)
+    {
+        final ListenableFuture<String> future = new ListenableFuture<String>();
+        locate(Collections.singletonList(userId)).addListener(new ListenableFuture.Listener<Map<String, String>>() {
+            @Override
+            public void onSuccess(Map<String, String> routes)
+            {
+                future.complete(routes.get(userId));
+            }
+
+            @Override
+            public void onFailure(Throwable cause)
+            {
+                future.fail(cause);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * The nodes of the online users among the given ones, completed at once when all cached
+     */
+    public ListenableFuture<Map<String, String>> locate(Collection<String> userIds)
+    {
+        checkState();
+        final Map<String, String> routes = new HashMap<String, String>();
+        List<Pending> waits = null;
+        List<String> batch = null;
+        long now = System.currentTimeMillis();
+
+        for (String userId : userIds) {
+            Route route = segment(userId).get(userId, now);
+            if (route != null) {
+                hits.incrementAndGet();
+                if (route.node != null) {
+                    routes.put(userId, route.node);
+                }
+                continue;
+            }
+
+            misses.incrementAndGet();
+            Pending pending = pendings.get(userId);
+            if (pending == null) {
+                Pending created = new Pending(userId);
+                pending = pendings.putIfAbsent(userId, created);
+                if (pending == null) {
+                    pending = created;
+                    if (batch == null) {
+                        batch = new ArrayList<String>();
+                    }
+                    batch.add(userId);
+                }
+            }
+            if (waits == null) {
+                waits = new ArrayList<Pending>();
+            }
+            waits.add(pending);
+        }
+
+        if (batch != null) {
+            for (int i = 0; i < batch.size(); i += maxBatchSize) {
+                resolve(batch.subList(i, Math.min(batch.size(), i + maxBatchSize)));
+            }
+        }
+
+        final ListenableFuture<Map<String, String>> future = new ListenableFuture<Map<String, String>>();
+        if (waits == null) {
+            future.complete(routes);
+            return future;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(waits.size());
+        for (final Pending pending : waits) {
+            pending.future.addListener(new ListenableFuture.Listener<String>() {
+                @Override
+                public void onSuccess(String node)
+                {
+                    if (node != null) {
+                        synchronized (routes) {
+                            routes.put(pending.userId, node);
+                        }
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        synchronized (routes) {
+                            future.complete(routes);
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable cause)
+                {
+                    future.fail(cause);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * The cached route of the user without remote lookup: the node, null if offline or unknown
+     */
+    public String getIfPresent(String userId)
+    {
+        Route route = segment(userId).get(userId, System.currentTimeMillis());
+        return route == null ? null : route.node;
+    }
+
+    /**
+     * Apply a route message seen by this node
+     */
+    public void onRouteMessage(int messageType, String userId, String node)
+    {
+        checkState();
+        switch (messageType) {
+        case MessageType.MSG_REGISTER_USER_ROUTE:
+            register(userId, node);
+            break;
+        case MessageType.MSG_UNREGISTER_USER_ROUTE:
+            unregister(userId);
+            break;
+        case MessageType.MSG_USER_ROUTE_REFRESH:
+            invalidate(userId);
+            break;
+        default:
+            throw new IllegalArgumentException("Not a route message type: " + messageType);
+        }
+    }
+
+    public void register(String userId, String node)
+    {
+        Segment segment = segment(userId);
+        synchronized (segment) {
+            stale(userId);
+            segment.put(userId, new Route(node, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * The user went offline
+     */
+    public void unregister(String userId)
+    {
+        Segment segment = segment(userId);
+        synchronized (segment) {
+            stale(userId);
+            segment.put(userId, new Route(null, System.currentTimeMillis() + negativeTtlMillis));
+        }
+    }
+
+    public void invalidate(String userId)
+    {
+        Segment segment = segment(userId);
+        synchronized (segment) {
+            stale(userId);
+            segment.remove(userId);
+        }
+    }
+
+    public void invalidateAll()
+    {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * The number of batches sent to the resolver
+     */
+    public long getRemoteLookups()
+    {
+        return remoteLookups.get();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (resolver == null) {
+            throw new IllegalArgumentException("Route resolver not set");
+        }
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i ++) {
+            segments[i] = new Segment(Math.max(1, maxSize / SEGMENTS));
+        }
+        scheduler = new ScheduledExecutor("UserRouteCache-Timeout", true);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized (this) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        // No timeout fires any more, fail the lookups still pending
+        for (Pending pending : pendings.values()) {
+            if (pendings.remove(pending.userId, pending)) {
+                pending.future.fail(new IllegalStateException("Route cache stopped"));
+            }
+        }
+        invalidateAll();
+    }
+
+    private void resolve(final List<String> userIds)
+    {
+        remoteLookups.incrementAndGet();
+        ListenableFuture<Map<String, String>> lookup;
+        try {
+            lookup = resolver.locate(userIds);
+        } catch (Exception ex) {
+            lookup = new ListenableFuture<Map<String, String>>();
+            lookup.fail(ex);
+        }
+
+        final ListenableFuture<Map<String, String>> timed = lookup;
+        final Scheduler.Task timeout = scheduleTimeout(new Runnable() {
+            @Override
+            public void run()
+            {
+                timed.fail(new TimeoutException("Locate user routes timeout, " + userIds.size() + " users"));
+            }
+        });
+        if (timeout == null) {
+            // Stopped since the state check of the locate, doStop may have missed these pendings
+            timed.fail(new IllegalStateException("Route cache stopped"));
+        }
+
+        lookup.addListener(new ListenableFuture.Listener<Map<String, String>>() {
+            @Override
+            public void onSuccess(Map<String, String> routes)
+            {
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                long now = System.currentTimeMillis();
+                for (String userId : userIds) {
+                    Pending pending = pendings.get(userId);
+                    if (pending == null) {
+                        continue;
+                    }
+                    String node = routes == null ? null : routes.get(userId);
+                    Segment segment = segment(userId);
+                    // Cached before the pending goes so a concurrent locate finds one or the other
+                    synchronized (segment) {
+                        if (!pending.stale) {
+                            segment.put(userId, new Route(node, now + (node == null ? negativeTtlMillis : ttlMillis)));
+                        }
+                    }
+                    pendings.remove(userId, pending);
+                    pending.future.complete(node);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause)
+            {
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                LOG.warn("Locate user routes exception, {} users", userIds.size(), cause);
+                for (String userId : userIds) {
+                    Pending pending = pendings.remove(userId);
+                    if (pending != null) {
+                        pending.future.fail(cause);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * The timeout of a lookup, null once stopped
+     */
+    private synchronized Scheduler.Task scheduleTimeout(Runnable task)
+    {
+        return scheduler == null ? null : scheduler.schedule(task, lookupTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void stale(String userId)
+    {
+        Pending pending = pendings.get(userId);
+        if (pending != null) {
+            pending.stale = true;
+        }
+    }
+
+    private Segment segment(String userId)
+    {
+        int hash = userId.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    private void checkState()
+    {
+        if (!isRunning()) {
+            throw new IllegalStateException("Invalid route cache state, state:" + getState());
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void setResolver(IRouteResolver resolver)
+    {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Routes cached at most, 100000 by default
+     */
+    @SuppressWarnings("unused")
+    public void setMaxSize(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Lifetime of a route, 60 seconds by default
+     */
+    @SuppressWarnings("unused")
+    public void setTtlMillis(long ttlMillis)
+    {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Lifetime of an offline user, 5 seconds by default
+     */
+    @SuppressWarnings("unused")
+    public void setNegativeTtlMillis(long negativeTtlMillis)
+    {
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * Users per remote lookup at most, 256 by default
+     */
+    @SuppressWarnings("unused")
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Time a remote lookup may take before its callers fail, 3 seconds by default
+     */
+    @SuppressWarnings("unused")
+    public void setLookupTimeoutMillis(long lookupTimeoutMillis)
+    {
+        this.lookupTimeoutMillis = lookupTimeoutMillis;
+    }
+
+    private static class Route
+    {
+        // Null for an offline user
+        final String node;
+        final long expireTime;
+
+        Route(String node, long expireTime)
+        {
+            this.node = node;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private static class Pending
+    {
+        final String userId;
+        final ListenableFuture<String> future = new ListenableFuture<String>();
+        volatile boolean stale;
+
+        Pending(String userId)
+        {
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * One LRU part of the cache
+     */
+    @SuppressWarnings("serial")
+    private static class Segment extends LinkedHashMap<String, Route>
+    {
+        private final int capacity;
+
+        Segment(int capacity)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized Route get(String userId, long now)
+        {
+            Route route = super.get(userId);
+            if (route != null && route.expireTime <= now) {
+                super.remove(userId);
+                return null;
+            }
+            return route;
+        }
+
+        @Override
+        public synchronized Route put(String userId, Route route)
+        {
+            return super.put(userId, route);
+        }
+
+        @Override
+        public synchronized Route remove(Object userId)
+        {
+            return super.remove(userId);
+        }
+
+        @Override
+        public synchronized void clear()
+        {
+            super.clear();
+        }
+
+        @Override
+        public synchronized int size()
+        {
+            return super.size();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Route> eldest)
+        {
+            return size() > capacity;
+        }
+    }
+}
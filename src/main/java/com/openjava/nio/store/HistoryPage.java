@@ -0,0 +1,41 @@
+package com.openjava.nio.store;
+
+import java.util.List;
+
+import com.openjava.nio.infrastructure.type.Message;
+
+/**
+ * One page of a conversation history, newest message first. The cursor continues the scan from the
+ * next older message, 0 once the history exhausted.
+ */
+public class HistoryPage
+{
+    private final List<Message> messages;
+    private final long cursor;
+
+    private HistoryPage(List<Message> messages, long cursor)
+    {
+        this.messages = messages;
+        this.cursor = cursor;
+    }
+
+    public static HistoryPage create(List<Message> messages, long cursor)
+    {
+        return new HistoryPage(messages, cursor);
+    }
+
+    public List<Message> getMessages()
+    {
+        return messages;
+    }
+
+    public long getCursor()
+    {
+        return cursor;
+    }
+
+    public boolean hasMore()
+    {
+        return cursor != 0;
+    }
+}
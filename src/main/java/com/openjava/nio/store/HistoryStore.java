@@ -0,0 +1,503 @@
+package com.openjava.nio.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.infrastructure.codec.BinaryCodec;
+import com.openjava.nio.infrastructure.codec.BinaryReader;
+import com.openjava.nio.infrastructure.codec.BinaryWriter;
+import com.openjava.nio.infrastructure.type.Message;
+
+/**
+ * Chat history of the conversations in time partitioned segment files, for MSG_USER_CHAT_MESSAGE_HISTORY
+ * and MSG_LOAD_CONVERSATION_MESSAGE.
+ *
+ * Every record points to the previous record of the same conversation: [varint session id length]
+ * [session id][varlong previous pointer][varlong timestamp][varint sequence no][BinaryCodec message].
+ * A pointer is the segment id in the high 32 bits and the record position in the low ones. The heap
+ * keeps for each conversation the head pointer and a checkpoint every checkpointInterval records, so a
+ * page is read walking the chain back through the mapped segments from the head or the nearest
+ * checkpoint: the cost is the page size plus at most one checkpoint interval, whatever the length of
+ * the conversation.
+ *
+ * The timestamps and the sequence numbers are assumed non decreasing in a conversation. A segment
+ * holds one partition of partitionMillis, the partitions older than the retention are deleted whole.
+ */
+public class HistoryStore extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(HistoryStore.class);
+
+    public static final byte TYPE_HISTORY = 1;
+
+    private String directory;
+    private int segmentSize = 64 * 1024 * 1024;
+    private long partitionMillis = TimeUnit.HOURS.toMillis(1);
+    private long retentionMillis = TimeUnit.DAYS.toMillis(30);
+    private int checkpointInterval = 64;
+    private long flushIntervalMillis = 1000;
+
+    private final BinaryCodec codec = BinaryCodec.create();
+    private final SegmentedLog log = SegmentedLog.create(this, "history store", "history-");
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Long, Partition> partitions = new TreeMap<Long, Partition>();
+    private final Map<String, Conversation> conversations = new HashMap<String, Conversation>();
+    private Partition active;
+    private long nextSeq = 1;
+
+    /**
+     * Append a message to the history of its conversation, the pointer of the record
+     */
+    public long append(Message message) throws IOException
+    {
+        log.checkState();
+        String sessionId = message.getSessionId();
+        if (sessionId == null) {
+            throw new IllegalArgumentException("Message without session id");
+        }
+        long timestamp = message.getTimestamp() > 0 ? message.getTimestamp() : System.currentTimeMillis();
+        byte[] body = codec.encode(message);
+
+        lock.writeLock().lock();
+        try {
+            Conversation conversation = conversations.get(sessionId);
+            if (conversation == null) {
+                conversation = new Conversation();
+                conversations.put(sessionId, conversation);
+            }
+
+            BinaryWriter out = BinaryWriter.create(body.length + sessionId.length() + 32);
+            int length = BinaryWriter.utf8Length(sessionId);
+            out.writeVarInt(length);
+            out.writeUtf8(sessionId, length);
+            out.writeVarLong(conversation.head);
+            out.writeVarLong(timestamp);
+            out.writeVarInt(message.getSequenceNo());
+            out.writeBytes(body, 0, body.length);
+            byte[] payload = out.toByteArray();
+
+            Partition partition = partitionFor(timestamp, payload.length);
+            int position = partition.segment.append(TYPE_HISTORY, nextSeq ++, payload);
+            partition.maxTimestamp = Math.max(partition.maxTimestamp, timestamp);
+            long pointer = pointer(partition.segment.getId(), position);
+            conversation.append(pointer, timestamp, message.getSequenceNo(), checkpointInterval);
+            return pointer;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The latest messages of the conversation
+     */
+    public HistoryPage loadLatest(String sessionId, int pageSize)
+    {
+        return loadBefore(sessionId, Long.MAX_VALUE, pageSize);
+    }
+
+    /**
+     * The messages of the conversation older than the timestamp, newest first
+     */
+    public HistoryPage loadBefore(String sessionId, long beforeTimestamp, int pageSize)
+    {
+        return load(sessionId, true, beforeTimestamp, pageSize);
+    }
+
+    /**
+     * The messages of the conversation with a sequence number below the given one, newest first
+     */
+    public HistoryPage loadBeforeSequence(String sessionId, int beforeSequenceNo, int pageSize)
+    {
+        return load(sessionId, false, beforeSequenceNo, pageSize);
+    }
+
+    /**
+     * Continue a scan from the cursor of the previous page
+     */
+    public HistoryPage loadPage(String sessionId, long cursor, int pageSize)
+    {
+        log.checkState();
+        lock.readLock().lock();
+        try {
+            if (cursor == 0 || !conversations.containsKey(sessionId)) {
+                return HistoryPage.create(new ArrayList<Message>(0), 0);
+            }
+            return collect(sessionId, cursor, true, Long.MAX_VALUE, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getMessageCount(String sessionId)
+    {
+        lock.readLock().lock();
+        try {
+            Conversation conversation = conversations.get(sessionId);
+            return conversation == null ? 0 : conversation.count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount()
+    {
+        lock.readLock().lock();
+        try {
+            return partitions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Force the appended records to disk
+     */
+    public void flush()
+    {
+        List<LogSegment> dirty = new ArrayList<LogSegment>();
+        lock.readLock().lock();
+        try {
+            for (Partition partition : partitions.values()) {
+                if (partition.segment.isDirty()) {
+                    dirty.add(partition.segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Forced outside the lock so the appends never wait on the disk
+        log.force(dirty);
+    }
+
+    /**
+     * Delete the segments whose newest message passed the retention, the number of segments deleted
+     */
+    public int expire(long now)
+    {
+        log.checkState();
+        int deleted = 0;
+        lock.writeLock().lock();
+        try {
+            while (!partitions.isEmpty()) {
+                Partition oldest = partitions.firstEntry().getValue();
+                if (oldest == active || oldest.maxTimestamp >= now - retentionMillis) {
+                    break;
+                }
+                partitions.remove(oldest.segment.getId());
+                log.delete(oldest.segment);
+                deleted ++;
+                LOG.info("History segment {} expired", oldest.segment.getFile().getName());
+            }
+
+            if (deleted > 0) {
+                long firstId = partitions.isEmpty() ? Long.MAX_VALUE : partitions.firstKey();
+                for (Iterator<Conversation> it = conversations.values().iterator(); it.hasNext(); ) {
+                    Conversation conversation = it.next();
+                    if (segmentId(conversation.head) < firstId) {
+                        it.remove();
+                    } else {
+                        conversation.trim(firstId);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        recover(log.open(directory, segmentSize));
+        log.schedule("Flush", new SegmentedLog.Task() {
+            @Override
+            public void run()
+            {
+                flush();
+                expire(System.currentTimeMillis());
+            }
+        }, flushIntervalMillis);
+        LOG.info("History store started, segments={}, conversations={}", partitions.size(), conversations.size());
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        log.shutdown();
+        lock.writeLock().lock();
+        try {
+            List<LogSegment> segments = new ArrayList<LogSegment>(partitions.size());
+            for (Partition partition : partitions.values()) {
+                segments.add(partition.segment);
+            }
+            log.close(segments);
+            partitions.clear();
+            conversations.clear();
+            active = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private HistoryPage load(String sessionId, boolean byTime, long before, int pageSize)
+    {
+        log.checkState();
+        lock.readLock().lock();
+        try {
+            Conversation conversation = conversations.get(sessionId);
+            if (conversation == null) {
+                return HistoryPage.create(new ArrayList<Message>(0), 0);
+            }
+            return collect(sessionId, conversation.seek(byTime, before), byTime, before, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walk the chain back from the pointer, skip the records not below the bound then take a page
+     */
+    private HistoryPage collect(String sessionId, long pointer, boolean byTime, long before, int pageSize)
+    {
+        List<Message> messages = new ArrayList<Message>(Math.min(pageSize, 256));
+        while (pointer != 0 && messages.size() < pageSize) {
+            Partition partition = partitions.get(segmentId(pointer));
+            int position = position(pointer);
+            if (partition == null) {
+                // Expired
+                pointer = 0;
+                break;
+            }
+            if (position < 0 || position + LogSegment.HEADER_SIZE > partition.segment.getWritePosition()) {
+                throw new IllegalArgumentException("Invalid history pointer: " + pointer);
+            }
+
+            BinaryReader in = BinaryReader.wrap(partition.segment.payload(position));
+            String recordSessionId = in.readUtf8(in.readVarInt());
+            if (!sessionId.equals(recordSessionId)) {
+                throw new IllegalArgumentException("History pointer of another conversation: " + pointer);
+            }
+            long previous = in.readVarLong();
+            long timestamp = in.readVarLong();
+            int sequenceNo = in.readVarInt();
+            if ((byTime ? timestamp : sequenceNo) < before) {
+                messages.add((Message) codec.decode(in));
+            }
+            pointer = previous;
+        }
+        return HistoryPage.create(messages, pointer);
+    }
+
+    private void recover(List<LogSegment> segments)
+    {
+        for (LogSegment segment : segments) {
+            partitions.put(segment.getId(), new Partition(segment));
+        }
+
+        for (final Partition partition : partitions.values()) {
+            partition.segment.scan(new LogSegment.Visitor() {
+                @Override
+                public void visit(LogSegment segment, int position, byte type, long seq, ByteBuffer payload)
+                {
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                    BinaryReader in = BinaryReader.wrap(payload);
+                    String sessionId = in.readUtf8(in.readVarInt());
+                    in.readVarLong();
+                    long timestamp = in.readVarLong();
+                    int sequenceNo = in.readVarInt();
+
+                    Conversation conversation = conversations.get(sessionId);
+                    if (conversation == null) {
+                        conversation = new Conversation();
+                        conversations.put(sessionId, conversation);
+                    }
+                    conversation.append(pointer(segment.getId(), position), timestamp, sequenceNo, checkpointInterval);
+                    if (partition.maxTimestamp == 0) {
+                        partition.partition = timestamp / partitionMillis;
+                    }
+                    partition.maxTimestamp = Math.max(partition.maxTimestamp, timestamp);
+                }
+            });
+        }
+        active = partitions.isEmpty() ? null : partitions.lastEntry().getValue();
+    }
+
+    /**
+     * The active segment if the timestamp falls in its partition and it has room, a new one otherwise.
+     * A late message goes to the active segment.
+     */
+    private Partition partitionFor(long timestamp, int payloadLength) throws IOException
+    {
+        log.checkRecord(payloadLength);
+        long partition = timestamp / partitionMillis;
+        if (active != null && active.maxTimestamp == 0) {
+            active.partition = partition;
+        }
+        if (active == null || partition > active.partition || !active.segment.hasRoom(payloadLength)) {
+            active = new Partition(log.roll());
+            active.partition = partition;
+            partitions.put(active.segment.getId(), active);
+        }
+        return active;
+    }
+
+    static long pointer(long segmentId, int position)
+    {
+        return (segmentId << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    static long segmentId(long pointer)
+    {
+        return pointer >>> 32;
+    }
+
+    static int position(long pointer)
+    {
+        return (int) pointer;
+    }
+
+    @SuppressWarnings("unused")
+    public void setDirectory(String directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Size of the segment files, 64M by default
+     */
+    @SuppressWarnings("unused")
+    public void setSegmentSize(int segmentSize)
+    {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Time span of a segment, one hour by default
+     */
+    @SuppressWarnings("unused")
+    public void setPartitionMillis(long partitionMillis)
+    {
+        this.partitionMillis = partitionMillis;
+    }
+
+    /**
+     * Age of the segments expire() deletes, 30 days by default
+     */
+    @SuppressWarnings("unused")
+    public void setRetentionMillis(long retentionMillis)
+    {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Records of a conversation between two checkpoints, 64 by default
+     */
+    @SuppressWarnings("unused")
+    public void setCheckpointInterval(int checkpointInterval)
+    {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFlushIntervalMillis(long flushIntervalMillis)
+    {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    private static class Partition
+    {
+        final LogSegment segment;
+        long partition;
+        long maxTimestamp;
+
+        Partition(LogSegment segment)
+        {
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * Head of the chain of a conversation and its sparse checkpoints, oldest first. The checkpoint keys
+     * are the running maximum so the binary searches hold with a few out of order records.
+     */
+    private static class Conversation
+    {
+        long head;
+        int count;
+        long maxTimestamp;
+        long maxSequenceNo = Long.MIN_VALUE;
+        int checkpoints;
+        long[] pointers = new long[4];
+        long[] timestamps = new long[4];
+        long[] sequenceNos = new long[4];
+
+        void append(long pointer, long timestamp, int sequenceNo, int interval)
+        {
+            head = pointer;
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            maxSequenceNo = Math.max(maxSequenceNo, sequenceNo);
+            if (count ++ % interval == 0) {
+                if (checkpoints == pointers.length) {
+                    pointers = Arrays.copyOf(pointers, checkpoints * 2);
+                    timestamps = Arrays.copyOf(timestamps, checkpoints * 2);
+                    sequenceNos = Arrays.copyOf(sequenceNos, checkpoints * 2);
+                }
+                pointers[checkpoints] = pointer;
+                timestamps[checkpoints] = maxTimestamp;
+                sequenceNos[checkpoints] = maxSequenceNo;
+                checkpoints ++;
+            }
+        }
+
+        /**
+         * The pointer to start the walk back from: the oldest checkpoint not below the bound, the head
+         * if none, everything older than the previous checkpoint is below the bound
+         */
+        long seek(boolean byTime, long before)
+        {
+            long[] keys = byTime ? timestamps : sequenceNos;
+            int low = 0;
+            int high = checkpoints;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] < before) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low == checkpoints ? head : pointers[low];
+        }
+
+        /**
+         * Drop the checkpoints in the expired segments
+         */
+        void trim(long firstSegmentId)
+        {
+            int first = 0;
+            while (first < checkpoints && segmentId(pointers[first]) < firstSegmentId) {
+                first ++;
+            }
+            if (first > 0) {
+                System.arraycopy(pointers, first, pointers, 0, checkpoints - first);
+                System.arraycopy(timestamps, first, timestamps, 0, checkpoints - first);
+                System.arraycopy(sequenceNos, first, sequenceNos, 0, checkpoints - first);
+                checkpoints -= first;
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.openjava.nio.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One memory mapped file of an append only log: [int payload length][int crc][byte type][long seq][payload]
+ * records one after another, the zeroed tail is free. The crc covers the type, the seq and the payload.
+ * Not thread safe: the writers are serialized by the store, the readers use their own duplicate buffers.
+ * force() may run outside the writer lock but must be serialized with the other forces and close().
+ */
+public class LogSegment
+{
+    private static Logger LOG = LoggerFactory.getLogger(LogSegment.class);
+
+    public static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    private final long id;
+    private final File file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    // Volatile as the segment is forced outside the writer lock
+    private volatile int writePosition;
+    private volatile int flushedPosition;
+
+    // Live records accounting of the store
+    int liveCount;
+    long liveBytes;
+
+    private LogSegment(long id, File file, FileChannel channel, MappedByteBuffer buffer)
+    {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    public static LogSegment create(File file, long id, int size) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            return new LogSegment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Map an existing segment, scan() finds the write position
+     */
+    public static LogSegment open(File file, long id) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new LogSegment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public int getWritePosition()
+    {
+        return writePosition;
+    }
+
+    public int capacity()
+    {
+        return buffer.capacity();
+    }
+
+    public boolean hasRoom(int payloadLength)
+    {
+        return writePosition + HEADER_SIZE + payloadLength <= buffer.capacity();
+    }
+
+    /**
+     * Append a record, the position of the record
+     */
+    public int append(byte type, long seq, byte[] payload)
+    {
+        int position = writePosition;
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (seq >>> shift));
+        }
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer out = buffer.duplicate();
+        out.position(position);
+        out.putInt(payload.length);
+        out.putInt((int) crc.getValue());
+        out.put(type);
+        out.putLong(seq);
+        out.put(payload);
+        writePosition = out.position();
+        return position;
+    }
+
+    /**
+     * Copy a whole record read from another segment, the position of the copy
+     */
+    public int append(ByteBuffer record)
+    {
+        int position = writePosition;
+        ByteBuffer out = buffer.duplicate();
+        out.position(position);
+        out.put(record);
+        writePosition = out.position();
+        return position;
+    }
+
+    public int recordLength(int position)
+    {
+        return HEADER_SIZE + buffer.getInt(position);
+    }
+
+    public byte type(int position)
+    {
+        return buffer.get(position + 8);
+    }
+
+    public long seq(int position)
+    {
+        return buffer.getLong(position + 9);
+    }
+
+    /**
+     * The whole record at the position, a view of the mapped file
+     */
+    public ByteBuffer record(int position)
+    {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + recordLength(position)).position(position);
+        return record.slice();
+    }
+
+    /**
+     * The payload of the record at the position, a view of the mapped file
+     */
+    public ByteBuffer payload(int position)
+    {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(position + recordLength(position)).position(position + HEADER_SIZE);
+        return payload.slice();
+    }
+
+    /**
+     * Visit the valid records from the start, stop at the free tail or at the first torn or corrupted record
+     * which becomes the write position
+     */
+    public void scan(Visitor visitor)
+    {
+        int position = 0;
+        int capacity = buffer.capacity();
+        byte[] payload = new byte[256];
+        while (position + HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > capacity) {
+                break;
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            ByteBuffer in = buffer.duplicate();
+            in.position(position + HEADER_SIZE);
+            in.get(payload, 0, length);
+
+            byte type = type(position);
+            long seq = seq(position);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                crc.update((int) (seq >>> shift));
+            }
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                LOG.warn("Corrupted record found at {} of {}, truncate the segment", position, file);
+                break;
+            }
+
+            visitor.visit(this, position, type, seq, ByteBuffer.wrap(payload, 0, length));
+            position += HEADER_SIZE + length;
+        }
+
+        writePosition = position;
+        flushedPosition = position;
+        // Zero the torn tail so the next scan stops at the same place
+        for (int i = position; i < Math.min(capacity, position + HEADER_SIZE); i ++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    public boolean isDirty()
+    {
+        return flushedPosition != writePosition;
+    }
+
+    /**
+     * Force the records appended so far, nothing once closed
+     */
+    public void force()
+    {
+        int position = writePosition;
+        if (buffer != null && flushedPosition != position) {
+            buffer.force();
+            flushedPosition = position;
+        }
+    }
+
+    public void close()
+    {
+        MappedByteBuffer mapped = buffer;
+        buffer = null;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.warn("Close segment file exception: " + file, ex);
+        }
+        unmap(mapped);
+    }
+
+    public void delete()
+    {
+        close();
+        if (!file.delete()) {
+            LOG.warn("Failed to delete the segment file {}", file);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.getName() + "[write=" + writePosition + ", live=" + liveCount + "]";
+    }
+
+    /**
+     * Release the mapping now instead of at the next GC, no public API before Java 9. The segment
+     * must not be read anymore.
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException ex) {
+            try {
+                // Java 7 and 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception iex) {
+                LOG.debug("Unmap the segment buffer exception, leave it to GC", iex);
+            }
+        } catch (Exception ex) {
+            LOG.debug("Unmap the segment buffer exception, leave it to GC", ex);
+        }
+    }
+
+    public interface Visitor
+    {
+        /**
+         * The payload buffer is reused, copy what must be kept
+         */
+        void visit(LogSegment segment, int position, byte type, long seq, ByteBuffer payload);
+    }
+}
@@ -0,0 +1,582 @@
+package com.openjava.nio.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.infrastructure.codec.BinaryCodec;
+import com.openjava.nio.infrastructure.codec.BinaryReader;
+import com.openjava.nio.infrastructure.codec.BinaryWriter;
+import com.openjava.nio.infrastructure.type.Message;
+
+/**
+ * Offline messages in append only segment files written through memory mapped buffers.
+ *
+ * A MESSAGE record holds [varint user id length][user id][BinaryCodec message], an ACK record holds
+ * [varint user id length][user id][varint range count][varlong from, varlong to]... of acknowledged
+ * sequences. The per user index of the pending messages lives in the heap and is rebuilt by scanning
+ * the segments on start.
+ *
+ * The segments are forced to disk every flush interval or when enough bytes are pending, the
+ * messages appended since the last force may be lost on a crash of the machine but not of the JVM.
+ * The force runs outside the store lock so the appends never wait on the disk.
+ * The oldest segments mostly acknowledged are compacted: the pending messages are copied to the
+ * head of the log with the same sequence, then the segment file is deleted.
+ */
+public class OfflineMessageStore extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(OfflineMessageStore.class);
+
+    public static final byte TYPE_MESSAGE = 1;
+    public static final byte TYPE_ACK = 2;
+
+    private String directory;
+    private int segmentSize = 64 * 1024 * 1024;
+    private long flushIntervalMillis = 200;
+    private int flushBytes = 1024 * 1024;
+    private long compactIntervalMillis = 60 * 1000;
+    private double compactLiveRatio = 0.3;
+
+    private final BinaryCodec codec = BinaryCodec.create();
+    private final SegmentedLog log = SegmentedLog.create(this, "offline message store", "offline-");
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<Long, LogSegment>();
+    private final Map<String, UserIndex> users = new HashMap<String, UserIndex>();
+    private LogSegment active;
+    private long nextSeq = 1;
+    private long unflushedBytes;
+
+    /**
+     * Append a pending message of the user, the sequence of the message in the store
+     */
+    public long append(String userId, Message message) throws IOException
+    {
+        log.checkState();
+        BinaryWriter out = BinaryWriter.create(256);
+        writeUser(userId, out);
+        codec.encode(message, out);
+        byte[] payload = out.toByteArray();
+
+        long seq;
+        boolean flush;
+        lock.writeLock().lock();
+        try {
+            LogSegment segment = segmentFor(payload.length);
+            seq = nextSeq ++;
+            int position = segment.append(TYPE_MESSAGE, seq, payload);
+            index(userId).add(new Entry(seq, segment, position, message.getMessageId()));
+            segment.liveCount ++;
+            segment.liveBytes += segment.recordLength(position);
+            flush = written(segment.recordLength(position));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (flush) {
+            flush();
+        }
+        return seq;
+    }
+
+    /**
+     * Pending messages of the user in the append order, at most maxMessages
+     */
+    public List<Message> load(String userId, int maxMessages)
+    {
+        log.checkState();
+        List<Message> messages = new ArrayList<Message>();
+        lock.readLock().lock();
+        try {
+            UserIndex index = users.get(userId);
+            if (index == null) {
+                return messages;
+            }
+            for (Entry entry : index.entries) {
+                if (messages.size() >= maxMessages) {
+                    break;
+                }
+                ByteBuffer payload = entry.segment.payload(entry.position);
+                BinaryReader in = BinaryReader.wrap(payload);
+                skipUser(in);
+                messages.add((Message) codec.decode(in));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Message> load(String userId)
+    {
+        return load(userId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sequences of the pending messages of the user, in order
+     */
+    public long[] getPendingSequences(String userId)
+    {
+        lock.readLock().lock();
+        try {
+            UserIndex index = users.get(userId);
+            if (index == null) {
+                return new long[0];
+            }
+            long[] result = new long[index.entries.size()];
+            int i = 0;
+            for (Entry entry : index.entries) {
+                result[i ++] = entry.seq;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getPendingCount(String userId)
+    {
+        lock.readLock().lock();
+        try {
+            UserIndex index = users.get(userId);
+            return index == null ? 0 : index.entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Acknowledge the pending messages of the user up to the sequence included
+     */
+    public int ack(String userId, long upToSeq) throws IOException
+    {
+        return ack(userId, new long[] {0, upToSeq});
+    }
+
+    /**
+     * Acknowledge the pending messages of the user by message id, see AckRequest
+     */
+    public int ack(String userId, Collection<String> messageIds) throws IOException
+    {
+        log.checkState();
+        List<Long> seqs = new ArrayList<Long>();
+        lock.readLock().lock();
+        try {
+            UserIndex index = users.get(userId);
+            if (index != null) {
+                for (Entry entry : index.entries) {
+                    if (entry.messageId != null && messageIds.contains(entry.messageId)) {
+                        seqs.add(entry.seq);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (seqs.isEmpty()) {
+            return 0;
+        }
+
+        // Coalesce the sequences into ranges
+        long[] ranges = new long[seqs.size() * 2];
+        int count = 0;
+        for (long seq : seqs) {
+            if (count > 0 && ranges[count - 1] + 1 == seq) {
+                ranges[count - 1] = seq;
+            } else {
+                ranges[count ++] = seq;
+                ranges[count ++] = seq;
+            }
+        }
+        return ack(userId, Arrays.copyOf(ranges, count));
+    }
+
+    /**
+     * Acknowledge the ranges [from, to] of sequences, the number of pending messages removed
+     */
+    private int ack(String userId, long[] ranges) throws IOException
+    {
+        log.checkState();
+        BinaryWriter out = BinaryWriter.create(32 + ranges.length * 5);
+        writeUser(userId, out);
+        out.writeVarInt(ranges.length / 2);
+        for (long value : ranges) {
+            out.writeVarLong(value);
+        }
+        byte[] payload = out.toByteArray();
+
+        int removed;
+        boolean flush;
+        lock.writeLock().lock();
+        try {
+            UserIndex index = users.get(userId);
+            if (index == null || index.entries.isEmpty()) {
+                return 0;
+            }
+            LogSegment segment = segmentFor(payload.length);
+            int position = segment.append(TYPE_ACK, nextSeq ++, payload);
+            flush = written(segment.recordLength(position));
+            removed = index.remove(ranges);
+            if (index.entries.isEmpty()) {
+                users.remove(userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (flush) {
+            flush();
+        }
+        return removed;
+    }
+
+    /**
+     * Force the appended records to disk
+     */
+    public void flush()
+    {
+        List<LogSegment> dirty = new ArrayList<LogSegment>();
+        lock.writeLock().lock();
+        try {
+            for (LogSegment segment : segments.values()) {
+                if (segment.isDirty()) {
+                    dirty.add(segment);
+                }
+            }
+            unflushedBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.force(dirty);
+    }
+
+    /**
+     * Copy the pending messages of the oldest segments below the live ratio to the head of the log,
+     * then delete them. Only the oldest segment goes each time, so the ACK records deleted never
+     * refer to a message still in the log.
+     */
+    public int compact() throws IOException
+    {
+        log.checkState();
+        int deleted = 0;
+        lock.writeLock().lock();
+        try {
+            while (segments.size() > 1) {
+                LogSegment oldest = segments.firstEntry().getValue();
+                if (oldest == active || oldest.liveBytes > oldest.getWritePosition() * compactLiveRatio) {
+                    break;
+                }
+                relocate(oldest);
+                segments.remove(oldest.getId());
+                // The copies must be durable before the originals go, relocate may have rolled
+                log.force(segments.values());
+                log.delete(oldest);
+                deleted ++;
+                LOG.info("Offline message segment {} compacted", oldest.getFile().getName());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    public int getSegmentCount()
+    {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        recover(log.open(directory, segmentSize));
+        log.schedule("Flush", new SegmentedLog.Task() {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        }, flushIntervalMillis);
+        if (compactIntervalMillis > 0) {
+            log.schedule("Compact", new SegmentedLog.Task() {
+                @Override
+                public void run() throws Exception
+                {
+                    compact();
+                }
+            }, compactIntervalMillis);
+        }
+        LOG.info("Offline message store started, segments={}, users={}, next seq={}", segments.size(),
+            users.size(), nextSeq);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        log.shutdown();
+        lock.writeLock().lock();
+        try {
+            log.close(segments.values());
+            segments.clear();
+            users.clear();
+            active = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recover(List<LogSegment> opened)
+    {
+        for (LogSegment segment : opened) {
+            segments.put(segment.getId(), segment);
+        }
+
+        // Scan in the log order, a compacted message may appear twice after a crash: the last copy wins
+        final Map<Long, Entry> bySeq = new HashMap<Long, Entry>();
+        for (LogSegment segment : segments.values()) {
+            segment.scan(new LogSegment.Visitor() {
+                @Override
+                public void visit(LogSegment segment, int position, byte type, long seq, ByteBuffer payload)
+                {
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                    BinaryReader in = BinaryReader.wrap(payload);
+                    String userId = readUser(in);
+                    if (type == TYPE_MESSAGE) {
+                        Message message = (Message) codec.decode(in);
+                        Entry entry = new Entry(seq, segment, position, message.getMessageId());
+                        Entry previous = bySeq.put(seq, entry);
+                        if (previous != null) {
+                            index(userId).replace(previous, entry);
+                        } else {
+                            index(userId).add(entry);
+                        }
+                    } else if (type == TYPE_ACK) {
+                        UserIndex index = users.get(userId);
+                        if (index != null) {
+                            int count = in.readVarInt();
+                            long[] ranges = new long[count * 2];
+                            for (int i = 0; i < ranges.length; i ++) {
+                                ranges[i] = in.readVarLong();
+                            }
+                            for (Entry removed : index.removeEntries(ranges)) {
+                                bySeq.remove(removed.seq);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        for (UserIndex index : users.values()) {
+            for (Entry entry : index.entries) {
+                entry.segment.liveCount ++;
+                entry.segment.liveBytes += entry.segment.recordLength(entry.position);
+            }
+        }
+        for (Iterator<UserIndex> it = users.values().iterator(); it.hasNext(); ) {
+            if (it.next().entries.isEmpty()) {
+                it.remove();
+            }
+        }
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+    }
+
+    private void relocate(LogSegment segment) throws IOException
+    {
+        for (UserIndex index : users.values()) {
+            for (Entry entry : index.entries) {
+                if (entry.segment == segment) {
+                    ByteBuffer record = segment.record(entry.position);
+                    LogSegment target = segmentFor(record.remaining() - LogSegment.HEADER_SIZE);
+                    int position = target.append(record);
+                    int length = target.recordLength(position);
+                    segment.liveCount --;
+                    segment.liveBytes -= length;
+                    target.liveCount ++;
+                    target.liveBytes += length;
+                    entry.segment = target;
+                    entry.position = position;
+                    // Forced by the compaction once relocated
+                    written(length);
+                }
+            }
+        }
+    }
+
+    /**
+     * The active segment with room for the payload, roll a new one if full
+     */
+    private LogSegment segmentFor(int payloadLength) throws IOException
+    {
+        log.checkRecord(payloadLength);
+        if (active == null || !active.hasRoom(payloadLength)) {
+            active = log.roll();
+            segments.put(active.getId(), active);
+        }
+        return active;
+    }
+
+    /**
+     * Count the appended bytes, true once enough are pending to flush after the lock is released
+     */
+    private boolean written(int length)
+    {
+        unflushedBytes += length;
+        return unflushedBytes >= flushBytes;
+    }
+
+    private UserIndex index(String userId)
+    {
+        UserIndex index = users.get(userId);
+        if (index == null) {
+            index = new UserIndex();
+            users.put(userId, index);
+        }
+        return index;
+    }
+
+    private static void writeUser(String userId, BinaryWriter out)
+    {
+        int length = BinaryWriter.utf8Length(userId);
+        out.writeVarInt(length);
+        out.writeUtf8(userId, length);
+    }
+
+    private static String readUser(BinaryReader in)
+    {
+        return in.readUtf8(in.readVarInt());
+    }
+
+    private static void skipUser(BinaryReader in)
+    {
+        in.skip(in.readVarInt());
+    }
+
+    @SuppressWarnings("unused")
+    public void setDirectory(String directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Size of the segment files, 64M by default
+     */
+    @SuppressWarnings("unused")
+    public void setSegmentSize(int segmentSize)
+    {
+        this.segmentSize = segmentSize;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFlushIntervalMillis(long flushIntervalMillis)
+    {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Force the active segment once so many bytes appended, 1M by default
+     */
+    @SuppressWarnings("unused")
+    public void setFlushBytes(int flushBytes)
+    {
+        this.flushBytes = flushBytes;
+    }
+
+    /**
+     * 0 to compact only through compact()
+     */
+    @SuppressWarnings("unused")
+    public void setCompactIntervalMillis(long compactIntervalMillis)
+    {
+        this.compactIntervalMillis = compactIntervalMillis;
+    }
+
+    /**
+     * Compact the oldest segments whose pending messages take less than the ratio of the segment
+     */
+    @SuppressWarnings("unused")
+    public void setCompactLiveRatio(double compactLiveRatio)
+    {
+        this.compactLiveRatio = compactLiveRatio;
+    }
+
+    private static class Entry
+    {
+        final long seq;
+        final String messageId;
+        LogSegment segment;
+        int position;
+
+        Entry(long seq, LogSegment segment, int position, String messageId)
+        {
+            this.seq = seq;
+            this.segment = segment;
+            this.position = position;
+            this.messageId = messageId;
+        }
+    }
+
+    /**
+     * Pending messages of one user in sequence order
+     */
+    private static class UserIndex
+    {
+        final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+        void add(Entry entry)
+        {
+            entries.add(entry);
+        }
+
+        void replace(Entry previous, Entry current)
+        {
+            int i = entries.indexOf(previous);
+            if (i >= 0) {
+                entries.set(i, current);
+            } else {
+                entries.add(current);
+            }
+        }
+
+        int remove(long[] ranges)
+        {
+            List<Entry> removed = removeEntries(ranges);
+            for (Entry entry : removed) {
+                entry.segment.liveCount --;
+                entry.segment.liveBytes -= entry.segment.recordLength(entry.position);
+            }
+            return removed.size();
+        }
+
+        List<Entry> removeEntries(long[] ranges)
+        {
+            List<Entry> removed = new ArrayList<Entry>();
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                for (int i = 0; i < ranges.length; i += 2) {
+                    if (entry.seq >= ranges[i] && entry.seq <= ranges[i + 1]) {
+                        it.remove();
+                        removed.add(entry);
+                        break;
+                    }
+                }
+            }
+            return removed;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.openjava.nio.store;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.util.ScheduledExecutor;
+
+/**
+ * The segment files of a store in its directory, PREFIX + 20 digits id + .log in the log order, and the
+ * periodic tasks of the store. The store indexes the segments and serializes the writers with its own
+ * lock. The forces run outside that lock and are serialized here with the close of a segment, so a
+ * segment is never forced after its unmapping.
+ */
+class SegmentedLog
+{
+    private static Logger LOG = LoggerFactory.getLogger(SegmentedLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final LifeCycle store;
+    private final String name;
+    private final String prefix;
+    private final Object forceLock = new Object();
+
+    private File directory;
+    private int segmentSize;
+    private long lastId;
+    private ScheduledExecutor scheduler;
+
+    private SegmentedLog(LifeCycle store, String name, String prefix)
+    {
+        this.store = store;
+        this.name = name;
+        this.prefix = prefix;
+    }
+
+    /**
+     * The log of the store, name such as "history store" for the messages
+     */
+    public static SegmentedLog create(LifeCycle store, String name, String prefix)
+    {
+        return new SegmentedLog(store, name, prefix);
+    }
+
+    /**
+     * Create the directory if missing and map its segments in the log order
+     */
+    public List<LogSegment> open(String directory, int segmentSize) throws IOException
+    {
+        if (directory == null) {
+            throw new IllegalArgumentException(Character.toUpperCase(name.charAt(0)) + name.substring(1)
+                + " directory not set");
+        }
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create the " + name + " directory: " + dir);
+        }
+        this.directory = dir;
+        this.segmentSize = segmentSize;
+        this.lastId = 0;
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        TreeMap<Long, File> ordered = new TreeMap<Long, File>();
+        for (File file : files == null ? new File[0] : files) {
+            String fileName = file.getName();
+            ordered.put(Long.parseLong(fileName.substring(prefix.length(), fileName.length() - SEGMENT_SUFFIX.length())),
+                file);
+        }
+
+        List<LogSegment> segments = new ArrayList<LogSegment>(ordered.size());
+        try {
+            for (Long id : ordered.keySet()) {
+                segments.add(LogSegment.open(ordered.get(id), id));
+                lastId = id;
+            }
+        } catch (IOException iex) {
+            for (LogSegment segment : segments) {
+                segment.close();
+            }
+            throw iex;
+        }
+        return segments;
+    }
+
+    /**
+     * Create the next segment, the full one stays dirty until the next flush
+     */
+    public LogSegment roll() throws IOException
+    {
+        long id = lastId + 1;
+        File file = new File(directory, String.format("%s%020d%s", prefix, id, SEGMENT_SUFFIX));
+        LogSegment segment = LogSegment.create(file, id, segmentSize);
+        lastId = id;
+        return segment;
+    }
+
+    public void checkRecord(int payloadLength)
+    {
+        if (LogSegment.HEADER_SIZE + payloadLength > segmentSize) {
+            throw new IllegalArgumentException("Record larger than the segment size: " + payloadLength);
+        }
+    }
+
+    /**
+     * Force the segments collected under the store lock, those closed meanwhile are skipped
+     */
+    public void force(Collection<LogSegment> segments)
+    {
+        synchronized (forceLock) {
+            for (LogSegment segment : segments) {
+                segment.force();
+            }
+        }
+    }
+
+    public void delete(LogSegment segment)
+    {
+        synchronized (forceLock) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Stop the periodic tasks, before the store takes its lock to close the segments
+     */
+    public void shutdown()
+    {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Force and close the segments
+     */
+    public void close(Collection<LogSegment> segments)
+    {
+        synchronized (forceLock) {
+            for (LogSegment segment : segments) {
+                segment.force();
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * Run the task every interval while the store is running, action such as "Flush" for the logs
+     */
+    public void schedule(final String action, final Task task, final long intervalMillis)
+    {
+        if (scheduler == null) {
+            scheduler = new ScheduledExecutor(store.getClass().getSimpleName() + "-Flusher", true);
+        }
+        final ScheduledExecutor scheduler = this.scheduler;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (!store.isRunning()) {
+                    return;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable ex) {
+                    LOG.error(action + " " + name + " exception", ex);
+                } finally {
+                    if (store.isRunning()) {
+                        scheduler.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void checkState()
+    {
+        if (!store.isRunning()) {
+            throw new IllegalStateException("Invalid " + name + " state, state:" + store.getState());
+        }
+    }
+
+    public interface Task
+    {
+        void run() throws Exception;
+    }
+}
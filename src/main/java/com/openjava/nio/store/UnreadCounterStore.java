@@ -0,0 +1,467 @@
+package com.openjava.nio.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.LifeCycle;
+import com.openjava.nio.infrastructure.codec.BinaryReader;
+import com.openjava.nio.infrastructure.codec.BinaryWriter;
+import com.openjava.nio.infrastructure.type.Message;
+import com.openjava.nio.infrastructure.type.UserAnnouncement;
+import com.openjava.nio.util.ScheduledExecutor;
+
+/**
+ * Unread counters of the user announcements keyed by (toUser, fromUser, type), for MSG_POLL_USER_ANNOUNCEMENT.
+ *
+ * Each receiver has its own map of counters so a poll reads only the entries of the user. A counter is
+ * an AtomicInteger updated lock free, the contention spreads over the keys. A counter reset to zero is
+ * retired with -1 before its removal so an increment racing with the removal retries on a fresh one.
+ * The map of a user is retired the same way once its last counter is removed.
+ *
+ * With a snapshot file the counters are written every snapshot interval when dirty, through a temporary
+ * file renamed over the previous snapshot, and read back on start: the increments after the last
+ * snapshot are lost on a crash.
+ */
+public class UnreadCounterStore extends LifeCycle
+{
+    private static Logger LOG = LoggerFactory.getLogger(UnreadCounterStore.class);
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private String snapshotFile;
+    private long snapshotIntervalMillis = 10 * 1000;
+
+    private final ConcurrentMap<String, UserCounters> users = new ConcurrentHashMap<String, UserCounters>();
+    // Set by the updates only when clear, so the hot path does not write a shared cache line
+    private volatile boolean dirty = false;
+    private ScheduledExecutor scheduler;
+
+    /**
+     * One more unread announcement from the user, the unread number
+     */
+    public int increment(String toUser, String fromUser, int type, String fromUserName, String toUserName)
+    {
+        return add(toUser, fromUser, type, 1, fromUserName, toUserName);
+    }
+
+    /**
+     * One more unread message of the sender for the receiver
+     */
+    public int increment(Message message)
+    {
+        return add(message.getToUser(), message.getFromUser(), UserAnnouncement.USER_MESSAGE, 1,
+            message.getFromRealName(), message.getToUserName());
+    }
+
+    /**
+     * Add to the unread number, the unread number
+     */
+    public int add(String toUser, String fromUser, int type, int delta, String fromUserName, String toUserName)
+    {
+        UserCounters user = acquire(toUser);
+        try {
+            ConcurrentMap<Key, Counter> counters = user.counters;
+            Key key = new Key(fromUser, type);
+            while (true) {
+                Counter counter = counters.get(key);
+                if (counter == null) {
+                    counter = new Counter(fromUserName, toUserName);
+                    Counter previous = counters.putIfAbsent(key, counter);
+                    if (previous != null) {
+                        counter = previous;
+                    } else {
+                        // The counter holds the user map until removed
+                        user.refs.incrementAndGet();
+                    }
+                }
+
+                int count = counter.count.get();
+                if (count < 0) {
+                    // Retired by a reset, help its removal and retry on a fresh counter
+                    remove(toUser, user, key, counter);
+                    continue;
+                }
+                if (counter.count.compareAndSet(count, count + delta)) {
+                    if (fromUserName != null) {
+                        counter.fromUserName = fromUserName;
+                    }
+                    if (toUserName != null) {
+                        counter.toUserName = toUserName;
+                    }
+                    markDirty();
+                    return count + delta;
+                }
+            }
+        } finally {
+            release(toUser, user);
+        }
+    }
+
+    public int getUnreadNum(String toUser, String fromUser, int type)
+    {
+        UserCounters user = users.get(toUser);
+        Counter counter = user == null ? null : user.counters.get(new Key(fromUser, type));
+        return counter == null ? 0 : Math.max(0, counter.count.get());
+    }
+
+    /**
+     * The unread announcements of the user, the reply of a poll
+     */
+    public List<UserAnnouncement> snapshot(String toUser)
+    {
+        UserCounters user = users.get(toUser);
+        if (user == null) {
+            return new ArrayList<UserAnnouncement>(0);
+        }
+        ConcurrentMap<Key, Counter> counters = user.counters;
+
+        List<UserAnnouncement> announcements = new ArrayList<UserAnnouncement>(counters.size());
+        for (Map.Entry<Key, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            int count = counter.count.get();
+            if (count > 0) {
+                announcements.add(UserAnnouncement.create(entry.getKey().fromUser, toUser, entry.getKey().type, count,
+                    counter.fromUserName, counter.toUserName));
+            }
+        }
+        return announcements;
+    }
+
+    /**
+     * The user read the number of announcements seen in a snapshot, those arrived since stay unread.
+     * The unread number left.
+     */
+    public int reset(String toUser, String fromUser, int type, int seen)
+    {
+        UserCounters user = users.get(toUser);
+        if (user == null) {
+            return 0;
+        }
+        Key key = new Key(fromUser, type);
+        Counter counter = user.counters.get(key);
+        if (counter == null) {
+            return 0;
+        }
+
+        while (true) {
+            int count = counter.count.get();
+            if (count <= 0) {
+                return 0;
+            }
+            int left = Math.max(0, count - seen);
+            if (counter.count.compareAndSet(count, left)) {
+                markDirty();
+                if (left == 0 && counter.count.compareAndSet(0, -1)) {
+                    remove(toUser, user, key, counter);
+                }
+                return left;
+            }
+        }
+    }
+
+    /**
+     * Users having a counter map, the empty maps are removed
+     */
+    int userCount()
+    {
+        return users.size();
+    }
+
+    /**
+     * The user read every announcement of the sender
+     */
+    public void reset(String toUser, String fromUser, int type)
+    {
+        reset(toUser, fromUser, type, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Write the counters to the snapshot file now if changed since the last snapshot
+     */
+    public synchronized void snapshot() throws IOException
+    {
+        if (snapshotFile == null || !dirty) {
+            return;
+        }
+        // Cleared before the counters are read, an update racing with the write marks it again
+        dirty = false;
+
+        boolean result = false;
+        try {
+            write(new File(snapshotFile));
+            result = true;
+        } finally {
+            if (!result) {
+                dirty = true;
+            }
+        }
+    }
+
+    private void write(File file) throws IOException
+    {
+        BinaryWriter out = BinaryWriter.create(64 * 1024);
+        out.writeVarInt(SNAPSHOT_VERSION);
+        for (Map.Entry<String, UserCounters> user : users.entrySet()) {
+            for (Map.Entry<Key, Counter> entry : user.getValue().counters.entrySet()) {
+                Counter counter = entry.getValue();
+                int count = counter.count.get();
+                if (count > 0) {
+                    out.writeByte(1);
+                    writeString(user.getKey(), out);
+                    writeString(entry.getKey().fromUser, out);
+                    out.writeVarInt(entry.getKey().type);
+                    out.writeVarInt(count);
+                    writeString(counter.fromUserName, out);
+                    writeString(counter.toUserName, out);
+                }
+            }
+        }
+        out.writeByte(0);
+
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream stream = new FileOutputStream(temp);
+        try {
+            stream.write(out.getBuffer().array(), 0, out.position());
+            ((FileOutputStream) stream).getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (snapshotFile != null) {
+            load(new File(snapshotFile));
+            scheduler = new ScheduledExecutor("UnreadCounterStore-Snapshot", true);
+            scheduler.schedule(new Snapshot(), snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+            snapshot();
+        }
+        users.clear();
+    }
+
+    private void load(File file) throws IOException
+    {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] data = new byte[(int) file.length()];
+        InputStream stream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = stream.read(data, offset, data.length - offset);
+                if (count < 0) {
+                    throw new IOException("Truncated unread counter snapshot: " + file);
+                }
+                offset += count;
+            }
+        } finally {
+            stream.close();
+        }
+
+        BinaryReader in = BinaryReader.wrap(data);
+        int snapshotVersion = in.readVarInt();
+        if (snapshotVersion != SNAPSHOT_VERSION) {
+            throw new IOException("Unknown unread counter snapshot version: " + snapshotVersion);
+        }
+        int entries = 0;
+        while (in.readByte() != 0) {
+            String toUser = readString(in);
+            String fromUser = readString(in);
+            int type = in.readVarInt();
+            int count = in.readVarInt();
+            String fromUserName = readString(in);
+            String toUserName = readString(in);
+            add(toUser, fromUser, type, count, fromUserName, toUserName);
+            entries ++;
+        }
+        dirty = false;
+        LOG.info("{} unread counters loaded from {}", entries, file);
+    }
+
+    private void markDirty()
+    {
+        if (!dirty) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * The counters of the user, held until released so the map is not retired meanwhile
+     */
+    private UserCounters acquire(String toUser)
+    {
+        while (true) {
+            UserCounters user = users.get(toUser);
+            if (user == null) {
+                user = new UserCounters();
+                UserCounters previous = users.putIfAbsent(toUser, user);
+                if (previous != null) {
+                    user = previous;
+                }
+            }
+
+            int refs = user.refs.get();
+            if (refs < 0) {
+                // Retired, help its removal and retry on a fresh map
+                users.remove(toUser, user);
+                continue;
+            }
+            if (user.refs.compareAndSet(refs, refs + 1)) {
+                return user;
+            }
+        }
+    }
+
+    /**
+     * Drop a hold on the user counters, the map is retired and removed once empty
+     */
+    private void release(String toUser, UserCounters user)
+    {
+        if (user.refs.decrementAndGet() == 0 && user.refs.compareAndSet(0, -1)) {
+            users.remove(toUser, user);
+        }
+    }
+
+    /**
+     * Remove a retired counter, only the thread removing it releases its hold on the user map
+     */
+    private void remove(String toUser, UserCounters user, Key key, Counter counter)
+    {
+        if (user.counters.remove(key, counter)) {
+            release(toUser, user);
+        }
+    }
+
+    /**
+     * [varint length + 1][UTF-8], 0 for null
+     */
+    private static void writeString(String value, BinaryWriter out)
+    {
+        if (value == null) {
+            out.writeVarInt(0);
+        } else {
+            int length = BinaryWriter.utf8Length(value);
+            out.writeVarInt(length + 1);
+            out.writeUtf8(value, length);
+        }
+    }
+
+    private static String readString(BinaryReader in)
+    {
+        int length = in.readVarInt();
+        return length == 0 ? null : in.readUtf8(length - 1);
+    }
+
+    /**
+     * Write the snapshot file, none by default
+     */
+    @SuppressWarnings("unused")
+    public void setSnapshotFile(String snapshotFile)
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
+    @SuppressWarnings("unused")
+    public void setSnapshotIntervalMillis(long snapshotIntervalMillis)
+    {
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    private class Snapshot implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isRunning()) {
+                return;
+            }
+
+            try {
+                snapshot();
+            } catch (Throwable ex) {
+                LOG.error("Snapshot unread counters exception", ex);
+            } finally {
+                if (isRunning()) {
+                    scheduler.schedule(this, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private static class UserCounters
+    {
+        final ConcurrentMap<Key, Counter> counters = new ConcurrentHashMap<Key, Counter>(8, 0.75f, 2);
+        // Live counters plus the updates in progress, -1 once retired
+        final AtomicInteger refs = new AtomicInteger();
+    }
+
+    private static class Key
+    {
+        final String fromUser;
+        final int type;
+
+        Key(String fromUser, int type)
+        {
+            this.fromUser = fromUser;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (fromUser == null ? 0 : fromUser.hashCode()) + type;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return type == other.type && (fromUser == null ? other.fromUser == null : fromUser.equals(other.fromUser));
+        }
+    }
+
+    private static class Counter
+    {
+        // -1 once retired
+        final AtomicInteger count = new AtomicInteger();
+        volatile String fromUserName;
+        volatile String toUserName;
+
+        Counter(String fromUserName, String toUserName)
+        {
+            this.fromUserName = fromUserName;
+            this.toUserName = toUserName;
+        }
+    }
+}
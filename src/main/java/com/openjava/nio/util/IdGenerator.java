@@ -0,0 +1,162 @@
+package com.openjava.nio.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time ordered 64 bits id: [0][41 bits milliseconds since 2015-01-01][10 bits node][12 bits sequence],
+ * about 4 million ids per second per node until 2084. The ids of one node are strictly increasing:
+ * the sequence overflow and the clock going backwards borrow the next milliseconds instead of waiting.
+ *
+ * The string form is the 13 chars Crockford base32 of the id, it sorts in the same order.
+ */
+public class IdGenerator
+{
+    public static final String NODE_ID_PROPERTY = "openjava.nio.nodeId";
+
+    public static final long EPOCH = 1420070400000L;
+
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    public static final int STRING_LENGTH = 13;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i ++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < DIGITS.length; i ++) {
+            VALUES[DIGITS[i]] = (byte) i;
+        }
+    }
+
+    private static final IdGenerator DEFAULT = new IdGenerator(defaultNodeId());
+
+    private final long node;
+
+    // [timestamp][sequence] of the last id
+    private final AtomicLong last = new AtomicLong();
+
+    private IdGenerator(int nodeId)
+    {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be in [0, " + MAX_NODE_ID + "]: " + nodeId);
+        }
+        this.node = nodeId;
+    }
+
+    public static IdGenerator create(int nodeId)
+    {
+        return new IdGenerator(nodeId);
+    }
+
+    /**
+     * The generator of this process, the node id comes from the system property openjava.nio.nodeId
+     * or is derived from the process name otherwise. Set the property when several processes share
+     * the ids, the derived node ids may collide.
+     */
+    public static IdGenerator getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public long nextId()
+    {
+        long now = System.currentTimeMillis() - EPOCH;
+        long current, next;
+        do {
+            current = last.get();
+            next = (current >>> SEQUENCE_BITS) < now ? now << SEQUENCE_BITS : current + 1;
+        } while (!last.compareAndSet(current, next));
+
+        return ((next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | (node << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+    }
+
+    public String nextIdString()
+    {
+        return toString(nextId());
+    }
+
+    public int getNodeId()
+    {
+        return (int) node;
+    }
+
+    public static String toString(long id)
+    {
+        char[] chars = new char[STRING_LENGTH];
+        for (int i = STRING_LENGTH - 1; i > 0; i --) {
+            chars[i] = DIGITS[(int) (id & 31)];
+            id >>>= 5;
+        }
+        chars[0] = DIGITS[(int) (id & 15)];
+        return new String(chars);
+    }
+
+    public static long parse(CharSequence id)
+    {
+        long result = tryParse(id);
+        if (result == -1) {
+            throw new IllegalArgumentException("Invalid id: " + id);
+        }
+        return result;
+    }
+
+    /**
+     * The numeric id, -1 if the string is not an id of the generator like the UUID based ids.
+     * Only the upper case form of toString() is accepted, so the id string can be rebuilt exactly.
+     */
+    public static long tryParse(CharSequence id)
+    {
+        if (id == null || id.length() != STRING_LENGTH) {
+            return -1;
+        }
+
+        long result = 0;
+        for (int i = 0; i < STRING_LENGTH; i ++) {
+            char c = id.charAt(i);
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0 || (i == 0 && value > 7)) {
+                return -1;
+            }
+            result = (result << 5) | value;
+        }
+        return result;
+    }
+
+    /**
+     * Milliseconds since 1970 when the id was generated, it may lead the clock slightly under heavy load
+     */
+    public static long timestampOf(long id)
+    {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    public static int nodeOf(long id)
+    {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+
+    public static int sequenceOf(long id)
+    {
+        return (int) (id & SEQUENCE_MASK);
+    }
+
+    private static int defaultNodeId()
+    {
+        String nodeId = System.getProperty(NODE_ID_PROPERTY);
+        if (nodeId != null) {
+            return Integer.parseInt(nodeId.trim());
+        }
+
+        // "pid@host" on the usual JVMs
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> 10) ^ (hash >>> 20)) & MAX_NODE_ID;
+    }
+}
@@ -0,0 +1,170 @@
+package com.openjava.nio.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A future completed by the I/O or scheduler threads, listeners are notified on the
+ * completing thread, or on the calling thread if already completed, so they must not block.
+ */
+public class ListenableFuture<V> implements Future<V>
+{
+    private static Logger LOG = LoggerFactory.getLogger(ListenableFuture.class);
+
+    public interface Listener<V>
+    {
+        void onSuccess(V result);
+
+        void onFailure(Throwable cause);
+    }
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    // Guarded by this until the latch is released
+    private boolean done = false;
+    private V result;
+    private Throwable failure;
+    private List<Listener<V>> listeners;
+
+    public boolean complete(V result)
+    {
+        List<Listener<V>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.result = result;
+            toNotify = listeners;
+            listeners = null;
+        }
+        latch.countDown();
+
+        if (toNotify != null) {
+            for (Listener<V> listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+        return true;
+    }
+
+    public boolean fail(Throwable failure)
+    {
+        List<Listener<V>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.failure = failure;
+            toNotify = listeners;
+            listeners = null;
+        }
+        latch.countDown();
+
+        if (toNotify != null) {
+            for (Listener<V> listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+        return true;
+    }
+
+    public void addListener(Listener<V> listener)
+    {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Listener<V>>(2);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return fail(new CancellationException());
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        synchronized (this) {
+            return failure instanceof CancellationException;
+        }
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException
+    {
+        latch.await();
+        return report();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    /**
+     * The failure cause, null if not completed or completed successfully
+     */
+    public synchronized Throwable cause()
+    {
+        return failure;
+    }
+
+    private synchronized V report() throws ExecutionException
+    {
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+
+    private void notifyListener(Listener<V> listener)
+    {
+        V value;
+        Throwable cause;
+        synchronized (this) {
+            value = result;
+            cause = failure;
+        }
+
+        try {
+            if (cause == null) {
+                listener.onSuccess(value);
+            } else {
+                listener.onFailure(cause);
+            }
+        } catch (Throwable ex) {
+            LOG.warn("Future listener exception", ex);
+        }
+    }
+}
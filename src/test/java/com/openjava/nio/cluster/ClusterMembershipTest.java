@@ -0,0 +1,121 @@
+package com.openjava.nio.cluster;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.endpoint.EndPointBucket;
+import com.openjava.nio.provider.NioNetworkProvider;
+
+/**
+ * Three nodes on loopback ports: node 3 crashes and is ejected from the rings of the others,
+ * then restarts and is readmitted
+ */
+public class ClusterMembershipTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(ClusterMembershipTest.class);
+
+    private static final Map<String, String> MEMBERS = new LinkedHashMap<String, String>();
+    static {
+        MEMBERS.put("127.0.0.1:9091:1", "127.0.0.1:7091");
+        MEMBERS.put("127.0.0.1:9092:1", "127.0.0.1:7092");
+        MEMBERS.put("127.0.0.1:9093:1", "127.0.0.1:7093");
+    }
+
+    public static void main(String... args) throws Exception
+    {
+        Node node1 = Node.start("127.0.0.1:9091:1");
+        Node node2 = Node.start("127.0.0.1:9092:1");
+        Node node3 = Node.start("127.0.0.1:9093:1");
+        try {
+            awaitRing("All up", 5000, node1, node2, 9091, 9092, 9093);
+
+            node3.stop();
+            awaitRing("Node3 crashed", 8000, node1, node2, 9091, 9092);
+
+            node3 = Node.start("127.0.0.1:9093:1");
+            awaitRing("Node3 restarted", 8000, node1, node2, 9091, 9092, 9093);
+        } finally {
+            node1.stop();
+            node2.stop();
+            node3.stop();
+        }
+
+        // Every node thread must be gone, so the JVM exits by itself
+        Thread.sleep(500);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && !thread.isDaemon() && thread != Thread.currentThread()
+                && !"DestroyJavaVM".equals(thread.getName())) {
+                throw new AssertionError("Thread left running after stop: " + thread.getName());
+            }
+        }
+        LOG.info("All cluster membership checks passed");
+    }
+
+    /**
+     * Wait until the rings of both nodes hold exactly the ports, in endpoint order
+     */
+    private static void awaitRing(String step, long timeoutMillis, Node node1, Node node2, int... ports)
+        throws InterruptedException
+    {
+        List<SocketAddress> expected = new ArrayList<SocketAddress>();
+        for (int port : ports) {
+            expected.add(new InetSocketAddress("127.0.0.1", port));
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!expected.equals(node1.bucket.getEndPoints()) || !expected.equals(node2.bucket.getEndPoints())) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(step + ", expected ring: " + expected + ", node1 ring: "
+                    + node1.bucket.getEndPoints() + ", node2 ring: " + node2.bucket.getEndPoints());
+            }
+            Thread.sleep(50);
+        }
+        LOG.info("{}, node1 ring: {}, node2 ring: {}", step, node1.bucket.getEndPoints(), node2.bucket.getEndPoints());
+    }
+
+    private static class Node
+    {
+        private final NioNetworkProvider provider = new NioNetworkProvider();
+        private final ClusterMembership membership = new ClusterMembership();
+        private final EndPointBucket bucket = new EndPointBucket();
+
+        static Node start(String endPoint) throws Exception
+        {
+            Node node = new Node();
+            node.provider.start();
+            node.membership.setNetworkProvider(node.provider);
+            node.membership.setLocalEndPoint(endPoint);
+            node.membership.setMembers(MEMBERS);
+            node.membership.setEndPointBucket(node.bucket);
+            node.membership.setHeartbeatIntervalMillis(200);
+            node.membership.addListener(new IMembershipListener() {
+                @Override
+                public void onMemberDown(ClusterMember member)
+                {
+                    LOG.info("Member down: {}", member);
+                }
+
+                @Override
+                public void onMemberUp(ClusterMember member)
+                {
+                    LOG.info("Member up: {}", member);
+                }
+            });
+            node.membership.start();
+            return node;
+        }
+
+        void stop() throws Exception
+        {
+            membership.stop();
+            provider.stop();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.openjava.nio.frontdesk;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.exception.AllocationException;
+import com.openjava.nio.infrastructure.type.ErrorCode;
+import com.openjava.nio.util.Checks;
+import com.openjava.nio.util.ListenableFuture;
+
+/**
+ * Least loaded allocation, waiting customers served on release, transfers, expired waits, then
+ * concurrent allocations and releases leave every agent empty
+ */
+public class ConversationAllocatorTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(ConversationAllocatorTest.class);
+
+    public static void main(String... args) throws Exception
+    {
+        Checks checks = Checks.create(LOG, "conversation allocator");
+        ConversationAllocator allocator = new ConversationAllocator();
+        allocator.setWaitTimeoutMillis(200);
+        allocator.setSweepIntervalMillis(50);
+        allocator.start();
+
+        for (int i = 0; i < 3; i ++) {
+            allocator.registerAgent("a-" + i, new int[] {1}, 2);
+        }
+        for (int i = 0; i < 3; i ++) {
+            allocator.allocate("c-" + i, "s-" + i, 1).get();
+        }
+        for (int i = 0; i < 3; i ++) {
+            checks.expect("spread load of a-" + i, 1, allocator.getLoad("a-" + i));
+        }
+        for (int i = 3; i < 6; i ++) {
+            allocator.allocate("c-" + i, "s-" + i, 1).get();
+        }
+        ListenableFuture<Allocation> waiting = allocator.allocate("c-6", "s-6", 1);
+        checks.expect("waiting", false, waiting.isDone());
+        checks.expect("current service no", 6L, allocator.getCurrentServiceNo(1));
+
+        String agentId = allocator.getAllocation("s-2").getAgentId();
+        allocator.release("s-2");
+        Allocation served = waiting.get(1, TimeUnit.SECONDS);
+        checks.expect("served by the released agent", agentId, served.getAgentId());
+        checks.expect("service no", 7L, served.getServiceNo());
+        checks.expect("current service no after release", 7L, allocator.getCurrentServiceNo(1));
+
+        try {
+            String other = "a-0".equals(agentId) ? "a-1" : "a-0";
+            allocator.transfer("s-6", other);
+            checks.fail("Transferred to a full agent");
+        } catch (AllocationException ex) {
+            checks.expect("transfer error", ErrorCode.ERROR_NO_RESOURCE_FOUND, ex.getErrorCode());
+        }
+        allocator.registerAgent("a-3", new int[] {1, 2}, 2);
+        Allocation transferred = allocator.transfer("s-6", "a-3");
+        checks.expect("transferred", "a-3", allocator.getAllocation("s-6").getAgentId());
+        checks.expect("transferred service no", 7L, transferred.getServiceNo());
+        checks.expect("load after transfer", 1, allocator.getLoad(agentId));
+
+        // Nobody serves the business type 3
+        try {
+            allocator.allocate("c-9", "s-9", 3).get(1, TimeUnit.SECONDS);
+            checks.fail("Allocated without agent");
+        } catch (ExecutionException ex) {
+            checks.expect("expired", ErrorCode.ERROR_EXPIRED_ALLOCATION,
+                ((AllocationException) ex.getCause()).getErrorCode());
+        }
+        checks.expect("waiting after expiry", 0, allocator.getWaitingCount(3));
+
+        // The conversations of a former registration do not unload the agent registered again
+        allocator.registerAgent("b", new int[] {4}, 2);
+        allocator.allocate("c-10", "s-10", 4).get();
+        allocator.allocate("c-11", "s-11", 4).get();
+        allocator.unregisterAgent("b");
+        allocator.registerAgent("b", new int[] {4}, 2);
+        allocator.allocate("c-12", "s-12", 4).get();
+        allocator.allocate("c-13", "s-13", 4).get();
+        allocator.release("s-10");
+        allocator.release("s-11");
+        checks.expect("load of the new registration", 2, allocator.getLoad("b"));
+        checks.expect("full new registration", false, allocator.allocate("c-14", "s-14", 4).isDone());
+        allocator.stop();
+
+        stress(checks);
+        checks.done();
+    }
+
+    private static void stress(Checks checks) throws Exception
+    {
+        final int threads = 4;
+        final int rounds = 100000;
+        final ConversationAllocator allocator = new ConversationAllocator();
+        allocator.start();
+        for (int i = 0; i < 100; i ++) {
+            allocator.registerAgent("a-" + i, new int[] {1 + i % 2, 3}, 8);
+        }
+
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t ++) {
+            final int thread = t;
+            new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        // Keep 100 conversations per thread open, release the oldest one each round
+                        for (int i = 0; i < rounds; i ++) {
+                            String sessionId = "s-" + thread + "-" + i;
+                            Allocation allocation = allocator.allocate("c", sessionId, 1 + i % 3).get(5, TimeUnit.SECONDS);
+                            if (allocator.getLoad(allocation.getAgentId()) > 8) {
+                                errors.incrementAndGet();
+                            }
+                            if (i >= 100) {
+                                allocator.release("s-" + thread + "-" + (i - 100));
+                            }
+                        }
+                        for (int i = rounds - 100; i < rounds; i ++) {
+                            allocator.release("s-" + thread + "-" + i);
+                        }
+                    } catch (Exception ex) {
+                        LOG.error("Allocation exception", ex);
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long micros = (System.nanoTime() - start) / 1000;
+        LOG.info("{} allocations and releases in {} ms, {} per second", threads * rounds, micros / 1000,
+            threads * rounds * 1000000L / micros);
+
+        checks.expect("stress errors", 0, errors.get());
+        for (int i = 0; i < 100; i ++) {
+            checks.expect("load left on a-" + i, 0, allocator.getLoad("a-" + i));
+        }
+        allocator.stop();
+    }
+}
@@ -0,0 +1,143 @@
+package com.openjava.nio.infrastructure.ack;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.codec.BinaryCodec;
+import com.openjava.nio.infrastructure.codec.BinaryWriter;
+import com.openjava.nio.infrastructure.type.SequenceAck;
+import com.openjava.nio.util.Checks;
+
+/**
+ * Windows against a plain BitSet under shuffled acks, frames through the codec, then the aggregator
+ * coalescing a burst of acks
+ */
+public class SequenceWindowTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(SequenceWindowTest.class);
+
+    public static void main(String... args) throws Exception
+    {
+        Checks checks = Checks.create(LOG, "sequence window");
+        Random random = new Random(7);
+        BinaryCodec codec = BinaryCodec.create();
+
+        for (int round = 0; round < 200; round ++) {
+            int total = 1 + random.nextInt(3000);
+            List<Integer> sequences = new ArrayList<Integer>();
+            for (int i = 1; i <= total; i ++) {
+                sequences.add(i);
+            }
+            // Mostly in order with local reordering, some lost
+            for (int i = 0; i < total; i ++) {
+                int j = Math.min(total - 1, i + random.nextInt(8));
+                Collections.swap(sequences, i, j);
+            }
+
+            SequenceWindow window = SequenceWindow.create(0, 64, 1024);
+            SequenceWindow mirror = SequenceWindow.create(0, 64, 1024);
+            BitSet expected = new BitSet();
+            for (int sequenceNo : sequences) {
+                if (random.nextInt(50) == 0) {
+                    continue;
+                }
+                window.ack(sequenceNo);
+                expected.set(sequenceNo);
+            }
+
+            int cumulative = expected.nextClearBit(1) - 1;
+            // The window gives up the holes older than its max capacity
+            if (window.getCumulative() != cumulative
+                && !(window.getCumulative() > cumulative && window.getHighestAcked() - window.getCumulative() <= 1024)) {
+                checks.fail("Round {}: cumulative {} but {}", round, cumulative, window.getCumulative());
+            }
+            for (int sequenceNo = window.getCumulative() + 1; sequenceNo <= total; sequenceNo ++) {
+                if (window.isAcked(sequenceNo) != expected.get(sequenceNo)) {
+                    checks.fail("Round {}: sequence {} acked {}", round, sequenceNo, window.isAcked(sequenceNo));
+                    break;
+                }
+            }
+
+            SequenceAck ack = (SequenceAck) codec.decode(codec.encode(window.toAck("u-1", "s-1")));
+            mirror.ack(ack);
+            for (int sequenceNo = 1; sequenceNo <= total; sequenceNo ++) {
+                if (ack.isAcked(sequenceNo) != window.isAcked(sequenceNo)
+                    || mirror.isAcked(sequenceNo) != window.isAcked(sequenceNo)) {
+                    checks.fail("Round {}: frame disagrees at {}: {}", round, sequenceNo, ack);
+                    break;
+                }
+            }
+        }
+
+        // Ranges up to Integer.MAX_VALUE and far above the window end quickly
+        SequenceWindow edge = SequenceWindow.create(0);
+        long before = System.nanoTime();
+        edge.ack(SequenceAck.create("u-1", "s-1", Integer.MAX_VALUE - 100, new int[] {Integer.MAX_VALUE - 10, Integer.MAX_VALUE}));
+        edge.ack(Integer.MAX_VALUE);
+        if (!edge.isAcked(Integer.MAX_VALUE) || !edge.isAcked(Integer.MAX_VALUE - 100) || edge.isAcked(Integer.MAX_VALUE - 50)
+            || edge.isAcked(Integer.MAX_VALUE - 11) || System.nanoTime() - before > TimeUnit.SECONDS.toNanos(1)) {
+            checks.fail("Unexpected window at the end of the sequences: {}", edge.toAck("u-1", "s-1"));
+        }
+        SequenceWindow far = SequenceWindow.create(0, 64, 1024);
+        far.ack(SequenceAck.create("u-1", "s-1", 2000000000 - 60000, new int[] {2000000000 - 2000, 2000000000}));
+        if (!far.isAcked(2000000000) || far.getCumulative() < 2000000000 - 2000 - 1024) {
+            checks.fail("Unexpected window after a far frame: {}", far.toAck("u-1", "s-1"));
+        }
+
+        // The codec refuses the ranges beyond the window
+        BinaryWriter out = BinaryWriter.create(32);
+        out.writeByte(BinaryCodec.TYPE_SEQUENCE_ACK);
+        out.writeVarInt(1 << 3);
+        out.writeVarInt(1);
+        out.writeVarInt(1);
+        out.writeVarInt(2000000000);
+        try {
+            codec.decode(out.toByteArray());
+            checks.fail("Decoded ack ranges beyond the window");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        // A burst of acks over a few conversations comes out as one frame per conversation
+        final AtomicInteger frames = new AtomicInteger();
+        final List<SequenceAck> last = Collections.synchronizedList(new ArrayList<SequenceAck>());
+        AckAggregator aggregator = AckAggregator.create(new IAckListener() {
+            @Override
+            public void onAck(SequenceAck ack)
+            {
+                frames.incrementAndGet();
+                last.add(ack);
+            }
+        });
+        aggregator.setFlushIntervalMillis(60 * 1000L);
+        aggregator.start();
+        for (int sequenceNo = 1; sequenceNo <= 1000; sequenceNo ++) {
+            for (int c = 0; c < 4; c ++) {
+                if (sequenceNo != 500 || c != 0) {
+                    aggregator.ack("u-1", "s-" + c, sequenceNo);
+                }
+            }
+        }
+        aggregator.flush();
+        if (frames.get() != 4) {
+            checks.fail("4000 acks flushed in {} frames", frames.get());
+        }
+        for (SequenceAck ack : last) {
+            int cumulative = "s-0".equals(ack.getSessionId()) ? 499 : 1000;
+            if (ack.getCumulative() != cumulative || ack.isAcked(500) != (cumulative == 1000)) {
+                checks.fail("Unexpected frame: {}", ack);
+            }
+        }
+        aggregator.stop();
+
+        checks.done();
+    }
+}
@@ -0,0 +1,157 @@
+package com.openjava.nio.infrastructure.codec;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.type.AckRequest;
+import com.openjava.nio.infrastructure.type.ConversationEvent;
+import com.openjava.nio.infrastructure.type.EventType;
+import com.openjava.nio.infrastructure.type.Message;
+import com.openjava.nio.infrastructure.type.SequenceAck;
+import com.openjava.nio.infrastructure.type.UserAnnouncement;
+import com.openjava.nio.infrastructure.type.UserEvent;
+import com.openjava.nio.infrastructure.type.UserNotification;
+import com.openjava.nio.util.Checks;
+
+/**
+ * Round trips of every type with and without the string dictionary, the second round goes
+ * through the dictionary references
+ */
+public class BinaryCodecTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(BinaryCodecTest.class);
+
+    public static void main(String... args)
+    {
+        Message message = Message.create("s-1001", "u-1", "u-2", "Hello, 你好 😀", "text", 3, "b-77",
+            42, Message.STATE_READ, "Alice", "ali", "Bob");
+        Message legacy = Message.create("s-1001", "9f1c2e3d4b5a69788796a5b4c3d2e1f0", "u-1", "u-2", null, null, 0,
+            null, -1, System.currentTimeMillis(), Message.STATE_UNREAD, null, null, null);
+        message.setState(Message.STATE_OFFLINE);
+        Object[] values = {
+            message,
+            legacy,
+            UserNotification.create(1, "s-1001", "u-1", "u-2", "b-77", "notice", "Alice", "ali", "Bob"),
+            UserEvent.create(EventType.EVENT_USER_ONLINE, "s-1001", "u-1", "u-2", "Alice", "Bob"),
+            ConversationEvent.create(EventType.EVENT_CONVERSATION_TRANSFER, "u-3", "u-1", "Alice", "u-2", "Bob",
+                "s-1001", 3, "b-77", "busy"),
+            AckRequest.create("u-2", Arrays.asList(message.getMessageId(), legacy.getMessageId()), AckRequest.MESSAGE_ACK),
+            AckRequest.create("u-2", null, AckRequest.NOTIFICATION_ACK),
+            UserAnnouncement.create("u-1", "u-2", UserAnnouncement.USER_INQUIRY, 5, "Alice", "Bob"),
+            SequenceAck.create("u-2", "s-1001", 41, new int[] {43, 45, 50, 50}),
+            SequenceAck.create("u-2", "s-1001", 0)
+        };
+
+        BinaryCodec stateless = BinaryCodec.create();
+        BinaryCodec sender = BinaryCodec.create(StringDictionary.create(), null);
+        BinaryCodec receiver = BinaryCodec.create(null, StringDictionary.create());
+        Checks checks = Checks.create(LOG, "binary codec");
+        for (int round = 0; round < 2; round ++) {
+            for (Object value : values) {
+                byte[] plain = stateless.encode(value);
+                byte[] shared = sender.encode(value);
+                Object decoded = stateless.decode(plain);
+                Object decodedShared = receiver.decode(shared);
+                if (!same(value, decoded) || !same(value, decodedShared)) {
+                    checks.fail("Round trip failed: {} -> {} / {}", value, decoded, decodedShared);
+                }
+                LOG.info("{}: {} bytes, {} bytes with dictionary", value.getClass().getSimpleName(), plain.length,
+                    shared.length);
+            }
+        }
+
+        // A failed encode leaves the dictionaries in step
+        BinaryCodec failing = BinaryCodec.create(StringDictionary.create(), null);
+        BinaryCodec peer = BinaryCodec.create(null, StringDictionary.create());
+        try {
+            failing.encode(AckRequest.create("bob", Arrays.asList("m-1", null)));
+            checks.fail("Encoded a null ack id");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        UserAnnouncement announcement = UserAnnouncement.create("bob", "alice", UserAnnouncement.USER_MESSAGE, 1,
+            null, null);
+        for (int round = 0; round < 2; round ++) {
+            Object decoded = peer.decode(failing.encode(announcement));
+            if (!same(announcement, decoded)) {
+                checks.fail("Dictionaries out of step after a failed encode");
+            }
+        }
+
+        // A negative count is rejected as malformed
+        BinaryWriter negative = BinaryWriter.create(16);
+        negative.writeByte(BinaryCodec.TYPE_ACK_REQUEST);
+        negative.writeVarInt(1 << 1);
+        negative.writeVarInt(-1);
+        malformed(stateless, negative.toByteArray(), checks);
+        negative = BinaryWriter.create(16);
+        negative.writeByte(BinaryCodec.TYPE_SEQUENCE_ACK);
+        negative.writeVarInt(1 << 3);
+        negative.writeVarInt(-1);
+        malformed(stateless, negative.toByteArray(), checks);
+
+        checks.done();
+    }
+
+    private static void malformed(BinaryCodec codec, byte[] data, Checks checks)
+    {
+        try {
+            checks.fail("Decoded a malformed frame: {}", codec.decode(data));
+        } catch (IllegalArgumentException ex) {
+            if (!ex.getMessage().startsWith("Malformed")) {
+                checks.fail("Malformed frame rejected with: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private static boolean same(Object expected, Object actual)
+    {
+        if (expected.getClass() != actual.getClass()) {
+            return false;
+        }
+        // Message and the events print all their other fields
+        if ((expected instanceof Message || expected instanceof UserEvent) && !expected.toString().equals(actual.toString())) {
+            return false;
+        }
+        if (expected instanceof Message) {
+            Message a = (Message) expected, b = (Message) actual;
+            return eq(a.getSessionId(), b.getSessionId()) && eq(a.getBusinessId(), b.getBusinessId())
+                && a.getBusinessType() == b.getBusinessType() && a.getSequenceNo() == b.getSequenceNo()
+                && a.getState() == b.getState();
+        } else if (expected instanceof UserNotification) {
+            UserNotification a = (UserNotification) expected, b = (UserNotification) actual;
+            return eq(a.getId(), b.getId()) && a.getType() == b.getType() && eq(a.getSessionId(), b.getSessionId())
+                && eq(a.getFromUser(), b.getFromUser()) && eq(a.getToUser(), b.getToUser())
+                && eq(a.getBusinessId(), b.getBusinessId()) && eq(a.getMessage(), b.getMessage())
+                && a.getSentTime() == b.getSentTime() && eq(a.getFromRealName(), b.getFromRealName())
+                && eq(a.getFromNickName(), b.getFromNickName()) && eq(a.getToUserName(), b.getToUserName());
+        } else if (expected instanceof ConversationEvent) {
+            ConversationEvent a = (ConversationEvent) expected, b = (ConversationEvent) actual;
+            return eq(a.getSessionId(), b.getSessionId()) && eq(a.getUserId(), b.getUserId())
+                && a.getBusinessType() == b.getBusinessType() && eq(a.getBusinessId(), b.getBusinessId())
+                && eq(a.getReason(), b.getReason());
+        } else if (expected instanceof UserEvent) {
+            return eq(((UserEvent) expected).getSessionId(), ((UserEvent) actual).getSessionId());
+        } else if (expected instanceof AckRequest) {
+            AckRequest a = (AckRequest) expected, b = (AckRequest) actual;
+            return eq(a.getUserId(), b.getUserId()) && eq(a.getAckIds(), b.getAckIds()) && a.getAckType() == b.getAckType();
+        } else if (expected instanceof UserAnnouncement) {
+            UserAnnouncement a = (UserAnnouncement) expected, b = (UserAnnouncement) actual;
+            return eq(a.getFromUser(), b.getFromUser()) && eq(a.getToUser(), b.getToUser()) && a.getType() == b.getType()
+                && a.getUnreadNum() == b.getUnreadNum() && eq(a.getFromUserName(), b.getFromUserName())
+                && eq(a.getToUserName(), b.getToUserName());
+        } else if (expected instanceof SequenceAck) {
+            SequenceAck a = (SequenceAck) expected, b = (SequenceAck) actual;
+            return eq(a.getUserId(), b.getUserId()) && eq(a.getSessionId(), b.getSessionId())
+                && a.getCumulative() == b.getCumulative() && Arrays.equals(a.getRanges(), b.getRanges());
+        }
+        return true;
+    }
+
+    private static boolean eq(Object a, Object b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+}
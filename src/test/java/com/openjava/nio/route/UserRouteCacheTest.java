@@ -0,0 +1,147 @@
+package com.openjava.nio.route;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.type.MessageType;
+import com.openjava.nio.util.Checks;
+import com.openjava.nio.util.ListenableFuture;
+
+/**
+ * Concurrent locates of the same users share the remote lookups, the routes and the offline users
+ * are cached, the route messages update the cache
+ */
+public class UserRouteCacheTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(UserRouteCacheTest.class);
+
+    public static void main(String... args) throws Exception
+    {
+        final ScheduledExecutorService remote = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger remoteUsers = new AtomicInteger();
+        // The even users are online on node-<n % 3>, the odd ones offline
+        IRouteResolver resolver = new IRouteResolver() {
+            @Override
+            public ListenableFuture<Map<String, String>> locate(final Collection<String> userIds)
+            {
+                remoteUsers.addAndGet(userIds.size());
+                final List<String> users = new ArrayList<String>(userIds);
+                final ListenableFuture<Map<String, String>> future = new ListenableFuture<Map<String, String>>();
+                remote.schedule(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        Map<String, String> routes = new HashMap<String, String>();
+                        for (String userId : users) {
+                            int n = Integer.parseInt(userId.substring(2));
+                            if (n % 2 == 0) {
+                                routes.put(userId, "node-" + n % 3);
+                            }
+                        }
+                        future.complete(routes);
+                    }
+                }, 20, TimeUnit.MILLISECONDS);
+                return future;
+            }
+        };
+
+        Checks checks = Checks.create(LOG, "route cache");
+        final UserRouteCache cache = UserRouteCache.create(resolver);
+        cache.setMaxBatchSize(64);
+        cache.start();
+
+        final List<String> users = new ArrayList<String>();
+        for (int i = 0; i < 200; i ++) {
+            users.add("u-" + i);
+        }
+        final AtomicInteger wrong = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t ++) {
+            new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        Map<String, String> routes = cache.locate(users).get(5, TimeUnit.SECONDS);
+                        for (String userId : users) {
+                            int n = Integer.parseInt(userId.substring(2));
+                            String expected = n % 2 == 0 ? "node-" + n % 3 : null;
+                            if (expected == null ? routes.containsKey(userId) : !expected.equals(routes.get(userId))) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception ex) {
+                        LOG.error("Locate exception", ex);
+                        wrong.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        checks.expect("wrong routes", 0, wrong.get());
+        checks.expect("users located remotely", 200, remoteUsers.get());
+        LOG.info("{} remote lookups for 8 x 200 users", cache.getRemoteLookups());
+
+        // Everything cached now, the offline users too
+        ListenableFuture<Map<String, String>> cached = cache.locate(users);
+        checks.expect("cached locate done", true, cached.isDone());
+        checks.expect("online users", 100, cached.get().size());
+        checks.expect("remote after cached locate", 200, remoteUsers.get());
+
+        cache.onRouteMessage(MessageType.MSG_REGISTER_USER_ROUTE, "u-1", "node-9");
+        checks.expect("registered", "node-9", cache.locate("u-1").get());
+        cache.onRouteMessage(MessageType.MSG_UNREGISTER_USER_ROUTE, "u-2", null);
+        checks.expect("unregistered", null, cache.locate("u-2").get());
+        cache.onRouteMessage(MessageType.MSG_USER_ROUTE_REFRESH, "u-4", null);
+        checks.expect("refreshed", "node-1", cache.locate("u-4").get(5, TimeUnit.SECONDS));
+        checks.expect("remote after refresh", 201, remoteUsers.get());
+
+        // A register during the remote lookup wins over its result
+        ListenableFuture<String> inflight = cache.locate("u-500");
+        cache.register("u-500", "node-7");
+        checks.expect("lookup result", "node-2", inflight.get(5, TimeUnit.SECONDS));
+        checks.expect("registered during lookup", "node-7", cache.getIfPresent("u-500"));
+
+        cache.stop();
+        remote.shutdown();
+
+        // A resolver never answering fails the callers on the lookup timeout, the next locate retries
+        final AtomicInteger lost = new AtomicInteger();
+        UserRouteCache silent = UserRouteCache.create(new IRouteResolver() {
+            @Override
+            public ListenableFuture<Map<String, String>> locate(Collection<String> userIds)
+            {
+                lost.incrementAndGet();
+                return new ListenableFuture<Map<String, String>>();
+            }
+        });
+        silent.setLookupTimeoutMillis(100);
+        silent.start();
+        try {
+            silent.locate("u-1").get(5, TimeUnit.SECONDS);
+            checks.expect("lookup timeout", TimeoutException.class, null);
+        } catch (ExecutionException eex) {
+            checks.expect("lookup timeout", TimeoutException.class, eex.getCause().getClass());
+        }
+        silent.locate("u-1");
+        checks.expect("lookup after timeout", 2, lost.get());
+        silent.stop();
+
+        checks.done();
+    }
+}
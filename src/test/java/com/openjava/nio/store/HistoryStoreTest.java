@@ -0,0 +1,114 @@
+package com.openjava.nio.store;
+
+import java.io.File;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.type.Message;
+import com.openjava.nio.util.Checks;
+
+/**
+ * Page back through interleaved conversations by cursor, timestamp and sequence number, before and
+ * after a restart, then expire the old partitions
+ */
+public class HistoryStoreTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(HistoryStoreTest.class);
+
+    private static final int CONVERSATIONS = 3;
+    private static final int MESSAGES = 3000;
+    private static final long START = 1500000000000L;
+
+    public static void main(String... args) throws Exception
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "history-store-" + System.nanoTime());
+        Checks checks = Checks.create(LOG, "history store");
+
+        HistoryStore store = createStore(dir);
+        for (int i = 0; i < MESSAGES; i ++) {
+            // One message every second, the sequence number counts in the conversation
+            store.append(Message.create("s-" + (i % CONVERSATIONS), null, "u-1", "u-2", "message " + i, "text", 0,
+                "b-1", i / CONVERSATIONS, START + i * 1000L, Message.STATE_READ, null, null, null));
+        }
+        check(store, checks);
+        int segments = store.getSegmentCount();
+        store.stop();
+
+        store = createStore(dir);
+        checks.expect("segments after restart", segments, store.getSegmentCount());
+        check(store, checks);
+
+        // Keep the last 10 minutes of partitions
+        int expired = store.expire(START + MESSAGES * 1000L + 10 * 60 * 1000L);
+        LOG.info("{} segments expired out of {}", expired, segments);
+        int count = 0;
+        HistoryPage page = store.loadLatest("s-0", 100);
+        count += page.getMessages().size();
+        while (page.hasMore()) {
+            page = store.loadPage("s-0", page.getCursor(), 100);
+            count += page.getMessages().size();
+        }
+        if (expired == 0 || count == 0 || count >= MESSAGES / CONVERSATIONS) {
+            checks.fail("Unexpected expiration: {} segments expired, {} messages left", expired, count);
+        }
+        store.stop();
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+
+        checks.done();
+    }
+
+    private static void check(HistoryStore store, Checks checks)
+    {
+        int perConversation = MESSAGES / CONVERSATIONS;
+        for (int c = 0; c < CONVERSATIONS; c ++) {
+            String sessionId = "s-" + c;
+            checks.expect("count " + sessionId, perConversation, store.getMessageCount(sessionId));
+
+            // Whole history by cursor, newest first
+            int expected = perConversation - 1;
+            HistoryPage page = store.loadLatest(sessionId, 37);
+            while (true) {
+                for (Message message : page.getMessages()) {
+                    checks.expect("sequence of " + sessionId, expected --, message.getSequenceNo());
+                }
+                if (!page.hasMore()) {
+                    break;
+                }
+                page = store.loadPage(sessionId, page.getCursor(), 37);
+            }
+            checks.expect("paged to the first of " + sessionId, -1, expected);
+
+            // Random positions by sequence number and by time
+            for (int before = 1; before < perConversation; before += 97) {
+                List<Message> messages = store.loadBeforeSequence(sessionId, before, 10).getMessages();
+                checks.expect("first before sequence " + before, before - 1, messages.get(0).getSequenceNo());
+                checks.expect("page before sequence " + before, Math.min(10, before), messages.size());
+
+                long timestamp = START + (before * CONVERSATIONS + c) * 1000L;
+                messages = store.loadBefore(sessionId, timestamp, 10).getMessages();
+                checks.expect("first before time " + timestamp, before - 1, messages.get(0).getSequenceNo());
+            }
+        }
+        checks.expect("unknown conversation", 0, store.loadLatest("s-none", 10).getMessages().size());
+    }
+
+    private static HistoryStore createStore(File dir) throws Exception
+    {
+        HistoryStore store = new HistoryStore();
+        store.setDirectory(dir.getPath());
+        store.setSegmentSize(64 * 1024);
+        store.setPartitionMillis(5 * 60 * 1000L);
+        store.setRetentionMillis(10 * 60 * 1000L);
+        store.setCheckpointInterval(16);
+        // The flusher would expire the test partitions by the wall clock
+        store.setFlushIntervalMillis(60 * 60 * 1000L);
+        store.start();
+        return store;
+    }
+}
@@ -0,0 +1,95 @@
+package com.openjava.nio.store;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.type.Message;
+import com.openjava.nio.util.Checks;
+
+/**
+ * Append, acknowledge, restart and compact the offline message store in a temporary directory
+ */
+public class OfflineMessageStoreTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(OfflineMessageStoreTest.class);
+
+    public static void main(String... args) throws Exception
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "offline-store-" + System.nanoTime());
+        Checks checks = Checks.create(LOG, "offline message store");
+
+        OfflineMessageStore store = createStore(dir);
+        String firstId = null;
+        for (int i = 0; i < 2000; i ++) {
+            Message message = Message.create("s-" + i, "u-" + (i % 10), "u-" + (i % 2), "message " + i, "text", 0,
+                "b-1", 1, Message.STATE_OFFLINE, "from", "nick", "to");
+            if (i == 1) {
+                firstId = message.getMessageId();
+            }
+            store.append("u-" + (i % 2), message);
+        }
+        checks.expect("pending u-1", 1000, store.getPendingCount("u-1"));
+        checks.expect("first message", "message 1", store.load("u-1", 1).get(0).getMessage());
+
+        long[] seqs = store.getPendingSequences("u-0");
+        checks.expect("ack u-0", 900, store.ack("u-0", seqs[899]));
+        checks.expect("ack u-1 by id", 1, store.ack("u-1", Arrays.asList(firstId)));
+        checks.expect("pending u-1", 999, store.getPendingCount("u-1"));
+        int segments = store.getSegmentCount();
+        store.stop();
+
+        // Restart rebuilds the index from the segments
+        store = createStore(dir);
+        checks.expect("segments", segments, store.getSegmentCount());
+        checks.expect("pending u-0 after restart", 100, store.getPendingCount("u-0"));
+        checks.expect("pending u-1 after restart", 999, store.getPendingCount("u-1"));
+        checks.expect("first after restart", "message 1800", store.load("u-0", 1).get(0).getMessage());
+
+        // Acknowledge most of u-1 so the oldest segments become garbage
+        seqs = store.getPendingSequences("u-1");
+        store.ack("u-1", seqs[989]);
+        List<Message> before = store.load("u-1");
+        int compacted = store.compact();
+        LOG.info("{} segments compacted out of {}", compacted, segments);
+        if (compacted == 0) {
+            checks.fail("Nothing compacted");
+        }
+        checks.expect("u-1 after compaction", contents(before), contents(store.load("u-1")));
+        store.stop();
+
+        store = createStore(dir);
+        checks.expect("u-1 after compaction and restart", contents(before), contents(store.load("u-1")));
+        checks.expect("pending u-0 after compaction and restart", 100, store.getPendingCount("u-0"));
+        store.stop();
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+
+        checks.done();
+    }
+
+    private static OfflineMessageStore createStore(File dir) throws Exception
+    {
+        OfflineMessageStore store = new OfflineMessageStore();
+        store.setDirectory(dir.getPath());
+        store.setSegmentSize(32 * 1024);
+        store.setCompactIntervalMillis(0);
+        store.start();
+        return store;
+    }
+
+    private static String contents(List<Message> messages)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Message message : messages) {
+            builder.append(message.getMessageId()).append(':').append(message.getMessage()).append(',');
+        }
+        return builder.toString();
+    }
+}
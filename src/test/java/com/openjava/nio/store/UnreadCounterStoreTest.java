@@ -0,0 +1,87 @@
+package com.openjava.nio.store;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openjava.nio.infrastructure.type.UserAnnouncement;
+import com.openjava.nio.util.Checks;
+
+/**
+ * Concurrent increments racing with the resets of the seen counts lose nothing, the counters come
+ * back from the snapshot file
+ */
+public class UnreadCounterStoreTest
+{
+    private static Logger LOG = LoggerFactory.getLogger(UnreadCounterStoreTest.class);
+
+    private static final int THREADS = 4;
+    private static final int INCREMENTS = 100000;
+
+    public static void main(String... args) throws Exception
+    {
+        final File file = new File(System.getProperty("java.io.tmpdir"), "unread-" + System.nanoTime() + ".snapshot");
+        Checks checks = Checks.create(LOG, "unread counter");
+
+        final UnreadCounterStore store = createStore(file);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t ++) {
+            new Thread() {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < INCREMENTS; i ++) {
+                        store.increment("u-1", "u-" + (2 + i % 3), UserAnnouncement.USER_MESSAGE, "from", "to");
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // The reader acknowledges what its polls saw while the increments go on
+        final AtomicInteger read = new AtomicInteger();
+        while (done.getCount() > 0) {
+            for (UserAnnouncement announcement : store.snapshot("u-1")) {
+                store.reset("u-1", announcement.getFromUser(), announcement.getType(), announcement.getUnreadNum());
+                read.addAndGet(announcement.getUnreadNum());
+            }
+        }
+        int unread = 0;
+        for (UserAnnouncement announcement : store.snapshot("u-1")) {
+            unread += announcement.getUnreadNum();
+        }
+        checks.expect("read + unread", THREADS * INCREMENTS, read.get() + unread);
+        for (UserAnnouncement announcement : store.snapshot("u-1")) {
+            store.reset("u-1", announcement.getFromUser(), announcement.getType());
+        }
+        checks.expect("users after read all", 0, store.userCount());
+
+        store.increment("u-9", "u-1", UserAnnouncement.USER_INQUIRY, "Alice", "Bob");
+        store.increment("u-9", "u-1", UserAnnouncement.USER_INQUIRY, "Alice", "Bob");
+        store.stop();
+
+        UnreadCounterStore restarted = createStore(file);
+        checks.expect("restored", 2, restarted.getUnreadNum("u-9", "u-1", UserAnnouncement.USER_INQUIRY));
+        List<UserAnnouncement> announcements = restarted.snapshot("u-9");
+        checks.expect("restored names", "Alice", announcements.get(0).getFromUserName());
+        checks.expect("left after reset", 0, restarted.reset("u-9", "u-1", UserAnnouncement.USER_INQUIRY, 2));
+        checks.expect("empty after reset", 0, restarted.snapshot("u-9").size());
+        checks.expect("users after reset", 0, restarted.userCount());
+        restarted.stop();
+        file.delete();
+
+        checks.done();
+    }
+
+    private static UnreadCounterStore createStore(File file) throws Exception
+    {
+        UnreadCounterStore store = new UnreadCounterStore();
+        store.setSnapshotFile(file.getPath());
+        store.start();
+        return store;
+    }
+}
@@ -0,0 +1,59 @@
+package com.openjava.nio.util;
+
+import org.slf4j.Logger;
+
+/**
+ * Failed checks of a main style test, each failure is logged and done() throws an AssertionError
+ * if any, so the test exits non-zero
+ */
+public class Checks
+{
+    private final Logger log;
+    private final String subject;
+    private int failures = 0;
+
+    private Checks(Logger log, String subject)
+    {
+        this.log = log;
+        this.subject = subject;
+    }
+
+    public static Checks create(Logger log, String subject)
+    {
+        return new Checks(log, subject);
+    }
+
+    /**
+     * Check the actual value equals the expected one, null equals null
+     */
+    public boolean expect(String name, Object expected, Object actual)
+    {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            fail("{}: expected {} but {}", name, expected, actual);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record a failure with the log message
+     */
+    public void fail(String format, Object... args)
+    {
+        log.error(format, args);
+        failures ++;
+    }
+
+    public int getFailures()
+    {
+        return failures;
+    }
+
+    public void done()
+    {
+        if (failures > 0) {
+            throw new AssertionError(failures + " " + subject + " checks failed");
+        }
+        log.info("All {} checks passed", subject);
+    }
+}